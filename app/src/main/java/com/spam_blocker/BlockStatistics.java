@@ -0,0 +1,290 @@
+package com.spam_blocker;
+
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Running totals over blocked calls: overall, per local day, per reason and
+ * for the most frequent callers.
+ *
+ * Counters are updated by {@link BlockedNumberStore} as entries are added or
+ * deleted, so every read is O(1) or bounded by a small constant, whatever
+ * the size of the history. They count every call blocked since the history
+ * was last cleared, including entries since evicted by the retention limits,
+ * and are saved to their own file next to the history log.
+ *
+ * Top callers are tracked with the Space-Saving algorithm over a fixed number
+ * of slots: a new caller takes over the slot of the least frequent one and
+ * inherits its count, so frequent callers are never lost and counts are
+ * overestimated by at most the count they inherited.
+ */
+public final class BlockStatistics {
+    private static final String TAG = "BlockStatistics";
+    static final String FILE_NAME = "block_stats.bin";
+
+    private static final int MAGIC = 0x31545342; // "BST1" big-endian
+    private static final int VERSION = 1;
+    private static final long DAY_MILLIS = TimeUnit.DAYS.toMillis(1);
+    // Days kept in the per-day buckets
+    private static final int MAX_DAYS = 400;
+    private static final int CALLER_SLOTS = 64;
+
+    /**
+     * Caller and an upper bound of the number of times it was blocked
+     */
+    public static final class CallerCount {
+        private final String phoneNumber;
+        private final long count;
+
+        CallerCount(String phoneNumber, long count) {
+            this.phoneNumber = phoneNumber;
+            this.count = count;
+        }
+
+        public String getPhoneNumber() {
+            return phoneNumber;
+        }
+
+        public long getCount() {
+            return count;
+        }
+    }
+
+    private final File file;
+    private long total;
+    // Timestamp of the newest entry counted, so entries logged after the last save can be caught up
+    private long lastRecorded;
+    // Local epoch day to count
+    private final Map<Integer, Integer> perDay = new HashMap<>();
+    private final Map<String, Long> perReason = new HashMap<>();
+    private final Map<String, Long> callers = new HashMap<>();
+
+    BlockStatistics(File file) {
+        this.file = file;
+    }
+
+    public synchronized long getTotal() {
+        return total;
+    }
+
+    /**
+     * Calls blocked on the local day containing the given time
+     */
+    public synchronized int getCountForDay(long timestamp) {
+        Integer count = perDay.get(localDay(timestamp));
+        return count != null ? count : 0;
+    }
+
+    public int getTodayCount() {
+        return getCountForDay(System.currentTimeMillis());
+    }
+
+    public synchronized Map<String, Long> getReasonCounts() {
+        return new HashMap<>(perReason);
+    }
+
+    /**
+     * Most frequently blocked callers, most frequent first
+     */
+    public synchronized List<CallerCount> getTopCallers(int limit) {
+        List<CallerCount> top = new ArrayList<>(callers.size());
+        for (Map.Entry<String, Long> entry : callers.entrySet()) {
+            top.add(new CallerCount(entry.getKey(), entry.getValue()));
+        }
+        Collections.sort(top, new Comparator<CallerCount>() {
+            @Override
+            public int compare(CallerCount c1, CallerCount c2) {
+                return Long.compare(c2.count, c1.count);
+            }
+        });
+        return top.subList(0, Math.min(limit, top.size()));
+    }
+
+    synchronized long getLastRecorded() {
+        return lastRecorded;
+    }
+
+    synchronized void record(BlockedNumber blockedNumber) {
+        total++;
+        lastRecorded = Math.max(lastRecorded, blockedNumber.getTimestamp());
+        int day = localDay(blockedNumber.getTimestamp());
+        Integer dayCount = perDay.get(day);
+        perDay.put(day, dayCount != null ? dayCount + 1 : 1);
+        if (perDay.size() > MAX_DAYS) {
+            pruneDays(localDay(System.currentTimeMillis()));
+        }
+        increment(perReason, reasonOf(blockedNumber), 1);
+
+        String phoneNumber = blockedNumber.getPhoneNumber();
+        if (callers.containsKey(phoneNumber) || callers.size() < CALLER_SLOTS) {
+            increment(callers, phoneNumber, 1);
+        } else {
+            String leastFrequent = null;
+            long least = Long.MAX_VALUE;
+            for (Map.Entry<String, Long> entry : callers.entrySet()) {
+                if (entry.getValue() < least) {
+                    least = entry.getValue();
+                    leastFrequent = entry.getKey();
+                }
+            }
+            callers.remove(leastFrequent);
+            callers.put(phoneNumber, least + 1);
+        }
+    }
+
+    /**
+     * Take back an entry the user deleted
+     */
+    synchronized void unrecord(BlockedNumber blockedNumber) {
+        if (total > 0) {
+            total--;
+        }
+        int day = localDay(blockedNumber.getTimestamp());
+        Integer dayCount = perDay.get(day);
+        if (dayCount != null) {
+            if (dayCount > 1) {
+                perDay.put(day, dayCount - 1);
+            } else {
+                perDay.remove(day);
+            }
+        }
+        increment(perReason, reasonOf(blockedNumber), -1);
+        increment(callers, blockedNumber.getPhoneNumber(), -1);
+    }
+
+    synchronized void clear() {
+        total = 0;
+        lastRecorded = 0;
+        perDay.clear();
+        perReason.clear();
+        callers.clear();
+    }
+
+    /**
+     * Read the saved counters; false if there are none, so the caller can rebuild them
+     */
+    synchronized boolean load() {
+        if (!file.exists()) {
+            return false;
+        }
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                Log.w(TAG, "Ignoring statistics file with unknown format");
+                return false;
+            }
+            clear();
+            total = in.readLong();
+            lastRecorded = in.readLong();
+            for (int i = in.readInt(); i > 0; i--) {
+                perDay.put(in.readInt(), in.readInt());
+            }
+            for (int i = in.readInt(); i > 0; i--) {
+                perReason.put(in.readUTF(), in.readLong());
+            }
+            for (int i = in.readInt(); i > 0; i--) {
+                callers.put(in.readUTF(), in.readLong());
+            }
+            return true;
+        } catch (IOException e) {
+            Log.w(TAG, "Cannot read " + file, e);
+            clear();
+            return false;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException ignored) {
+                    // Nothing left to do with a stream we only read from
+                }
+            }
+        }
+    }
+
+    void save() {
+        File temp = new File(file.getPath() + ".tmp");
+        try {
+            FileOutputStream stream = new FileOutputStream(temp);
+            try {
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+                synchronized (this) {
+                    out.writeInt(MAGIC);
+                    out.writeInt(VERSION);
+                    out.writeLong(total);
+                    out.writeLong(lastRecorded);
+                    out.writeInt(perDay.size());
+                    for (Map.Entry<Integer, Integer> entry : perDay.entrySet()) {
+                        out.writeInt(entry.getKey());
+                        out.writeInt(entry.getValue());
+                    }
+                    writeCounts(out, perReason);
+                    writeCounts(out, callers);
+                }
+                out.flush();
+                stream.getFD().sync();
+            } finally {
+                stream.close();
+            }
+            if (!temp.renameTo(file)) {
+                throw new IOException("Cannot replace " + file);
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to save statistics", e);
+            temp.delete();
+        }
+    }
+
+    private void pruneDays(int today) {
+        Iterator<Integer> days = perDay.keySet().iterator();
+        while (days.hasNext()) {
+            if (days.next() <= today - MAX_DAYS) {
+                days.remove();
+            }
+        }
+    }
+
+    private static void writeCounts(DataOutputStream out, Map<String, Long> counts) throws IOException {
+        out.writeInt(counts.size());
+        for (Map.Entry<String, Long> entry : counts.entrySet()) {
+            out.writeUTF(entry.getKey());
+            out.writeLong(entry.getValue());
+        }
+    }
+
+    private static void increment(Map<String, Long> counts, String key, long delta) {
+        Long count = counts.get(key);
+        long updated = (count != null ? count : 0) + delta;
+        if (updated > 0) {
+            counts.put(key, updated);
+        } else {
+            counts.remove(key);
+        }
+    }
+
+    private static String reasonOf(BlockedNumber blockedNumber) {
+        String reason = blockedNumber.getReason();
+        return reason != null && !reason.isEmpty() ? reason : "Spam detected";
+    }
+
+    private static int localDay(long timestamp) {
+        return (int) Math.floorDiv(timestamp + TimeZone.getDefault().getOffset(timestamp), DAY_MILLIS);
+    }
+}
@@ -1,5 +1,7 @@
 package com.spam_blocker;
 
+import java.nio.charset.StandardCharsets;
+
 /**
  * Data model representing a blocked phone number entry
  */
@@ -8,6 +10,8 @@ public class BlockedNumber {
     private long timestamp;
     private String reason;
     private String callerInfo;
+    // UTF-8 caller info read from the log, decoded into callerInfo on first use
+    private byte[] encodedCallerInfo;
 
     public BlockedNumber(String phoneNumber, long timestamp, String reason, String callerInfo) {
         this.phoneNumber = phoneNumber;
@@ -16,6 +20,16 @@ public class BlockedNumber {
         this.callerInfo = callerInfo;
     }
 
+    /**
+     * Entry read from the log, with caller info left encoded until it is asked for
+     */
+    BlockedNumber(String phoneNumber, long timestamp, String reason, byte[] encodedCallerInfo) {
+        this.phoneNumber = phoneNumber;
+        this.timestamp = timestamp;
+        this.reason = reason;
+        this.encodedCallerInfo = encodedCallerInfo;
+    }
+
     // Default constructor for SharedPreferences serialization
     public BlockedNumber() {
     }
@@ -44,25 +58,66 @@ public class BlockedNumber {
         this.reason = reason;
     }
 
-    public String getCallerInfo() {
+    public synchronized String getCallerInfo() {
+        if (encodedCallerInfo != null) {
+            callerInfo = new String(encodedCallerInfo, StandardCharsets.UTF_8);
+            encodedCallerInfo = null;
+        }
         return callerInfo;
     }
 
-    public void setCallerInfo(String callerInfo) {
+    public synchronized void setCallerInfo(String callerInfo) {
         this.callerInfo = callerInfo;
+        this.encodedCallerInfo = null;
+    }
+
+    /**
+     * Caller info as UTF-8, without decoding it if it has not been yet
+     */
+    synchronized byte[] getEncodedCallerInfo() {
+        return encodedCallerInfo != null ? encodedCallerInfo : BlockedNumberCodec.utf8(callerInfo);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof BlockedNumber)) {
+            return false;
+        }
+        BlockedNumber other = (BlockedNumber) o;
+        return timestamp == other.timestamp
+                && equal(phoneNumber, other.phoneNumber)
+                && equal(emptyIfNull(reason), emptyIfNull(other.reason))
+                && equal(emptyIfNull(getCallerInfo()), emptyIfNull(other.getCallerInfo()));
+    }
+
+    @Override
+    public int hashCode() {
+        // Leaves caller info encoded
+        return 31 * (phoneNumber != null ? phoneNumber.hashCode() : 0) + (int) (timestamp ^ (timestamp >>> 32));
+    }
+
+    private static boolean equal(String a, String b) {
+        return a != null ? a.equals(b) : b == null;
+    }
+
+    private static String emptyIfNull(String value) {
+        return value != null ? value : "";
     }
 
     /**
-     * Convert to string for storage in SharedPreferences
+     * Convert to the string once stored in SharedPreferences
      * Format: phoneNumber|timestamp|reason|callerInfo
      */
     public String toStorageString() {
         return phoneNumber + "|" + timestamp + "|" + (reason != null ? reason : "") + "|"
-                + (callerInfo != null ? callerInfo : "");
+                + emptyIfNull(getCallerInfo());
     }
 
     /**
-     * Create from storage string
+     * Create from a string stored in SharedPreferences; only read when migrating them
      */
     public static BlockedNumber fromStorageString(String storageString) {
         if (storageString == null || storageString.isEmpty()) {
@@ -0,0 +1,241 @@
+package com.spam_blocker;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Binary record format of the blocked-number log.
+ *
+ * The file starts with an int magic and an int version. Every record is a
+ * type byte, the varint length of its body and the body, so a reader can skip
+ * records it does not understand and tell a record cut short by a crash from
+ * a complete one. An entry body is the varint timestamp, the varint id of its
+ * reason, then the phone number and caller info as varint-length-prefixed
+ * UTF-8. Reasons repeat across thousands of entries, so each distinct reason
+ * is written once, in a reason record that gives it the next id; id 0 is no
+ * reason.
+ *
+ * A summary record holds the running totals of one number, and an event
+ * record is an entry for the timeline only, already counted in a summary.
+ * Compaction writes the log as summaries followed by events.
+ *
+ * Decoding leaves caller info as bytes until it is first read, so replaying
+ * the log and listing entries only decode the fields they use.
+ */
+final class BlockedNumberCodec {
+    static final int MAGIC = 0x32484253; // "SBH2" little-endian
+    static final int VERSION = 2;
+    static final int HEADER_BYTES = 8;
+
+    static final byte RECORD_ADD = 1;
+    static final byte RECORD_REMOVE = 2;
+    static final byte RECORD_REASON = 3;
+    static final byte RECORD_SUMMARY = 4;
+    static final byte RECORD_EVENT = 5;
+
+    static final int NO_REASON = 0;
+
+    private BlockedNumberCodec() {
+    }
+
+    static void writeHeader(OutputStream out) throws IOException {
+        writeIntLE(out, MAGIC);
+        writeIntLE(out, VERSION);
+    }
+
+    /**
+     * Whether the first bytes of a file are this format's header
+     */
+    static boolean isHeader(byte[] header) {
+        return header.length == HEADER_BYTES && readIntLE(header, 0) == MAGIC && readIntLE(header, 4) == VERSION;
+    }
+
+    static void writeReason(OutputStream out, String reason) throws IOException {
+        byte[] body = reason.getBytes(StandardCharsets.UTF_8);
+        out.write(RECORD_REASON);
+        writeVarint(out, body.length);
+        out.write(body);
+    }
+
+    /**
+     * Write an add, remove or event record; the reason must already have an id
+     */
+    static void writeEntry(OutputStream out, byte type, BlockedNumber blockedNumber, int reasonId)
+            throws IOException {
+        byte[] phoneNumber = utf8(blockedNumber.getPhoneNumber());
+        byte[] callerInfo = blockedNumber.getEncodedCallerInfo();
+        ByteArrayOutputStream body = new ByteArrayOutputStream(16 + phoneNumber.length + callerInfo.length);
+        writeVarint(body, blockedNumber.getTimestamp());
+        writeVarint(body, reasonId);
+        writeVarint(body, phoneNumber.length);
+        body.write(phoneNumber);
+        writeVarint(body, callerInfo.length);
+        body.write(callerInfo);
+
+        out.write(type);
+        writeVarint(out, body.size());
+        body.writeTo(out);
+    }
+
+    /**
+     * Write a summary record; its reason must already have an id
+     */
+    static void writeSummary(OutputStream out, NumberSummary summary, int reasonId) throws IOException {
+        byte[] phoneNumber = utf8(summary.getPhoneNumber());
+        ByteArrayOutputStream body = new ByteArrayOutputStream(24 + phoneNumber.length);
+        writeVarint(body, summary.getCount());
+        writeVarint(body, summary.getFirstSeen());
+        writeVarint(body, summary.getLastSeen());
+        writeVarint(body, reasonId);
+        writeVarint(body, phoneNumber.length);
+        body.write(phoneNumber);
+
+        out.write(RECORD_SUMMARY);
+        writeVarint(out, body.size());
+        body.writeTo(out);
+    }
+
+    /**
+     * Read the body of a record whose type byte has been read; EOFException if it is cut short
+     */
+    static byte[] readBody(DataInputStream in) throws IOException {
+        long length = readVarint(in);
+        if (length < 0 || length > Integer.MAX_VALUE) {
+            throw new IOException("Bad record length " + length);
+        }
+        byte[] body = new byte[(int) length];
+        in.readFully(body);
+        return body;
+    }
+
+    static String decodeReason(byte[] body) {
+        return new String(body, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Decode an entry body, resolving its reason against the reasons read so far (id 1 at index 0)
+     */
+    static BlockedNumber decodeEntry(byte[] body, List<String> reasons) throws IOException {
+        int[] position = new int[1];
+        long timestamp = readVarint(body, position);
+        String reason = reason((int) readVarint(body, position), reasons);
+        String phoneNumber = new String(readBytes(body, position), StandardCharsets.UTF_8);
+        byte[] callerInfo = readBytes(body, position);
+        return new BlockedNumber(phoneNumber, timestamp, reason, callerInfo);
+    }
+
+    static NumberSummary decodeSummary(byte[] body, List<String> reasons) throws IOException {
+        int[] position = new int[1];
+        int count = (int) readVarint(body, position);
+        long firstSeen = readVarint(body, position);
+        long lastSeen = readVarint(body, position);
+        String lastReason = reason((int) readVarint(body, position), reasons);
+        String phoneNumber = new String(readBytes(body, position), StandardCharsets.UTF_8);
+        return new NumberSummary(phoneNumber, count, firstSeen, lastSeen, lastReason);
+    }
+
+    /**
+     * Id of a reason in a dictionary, or NO_REASON for an empty one; -1 if it has none yet
+     */
+    static int reasonId(Map<String, Integer> reasonIds, String reason) {
+        if (reason == null || reason.isEmpty()) {
+            return NO_REASON;
+        }
+        Integer id = reasonIds.get(reason);
+        return id != null ? id : -1;
+    }
+
+    /**
+     * Bytes taken by a record with a body of the given length
+     */
+    static int recordBytes(int bodyLength) {
+        return 1 + varintBytes(bodyLength) + bodyLength;
+    }
+
+    static byte[] utf8(String value) {
+        return value != null ? value.getBytes(StandardCharsets.UTF_8) : new byte[0];
+    }
+
+    static void writeVarint(OutputStream out, long value) throws IOException {
+        while ((value & ~0x7fL) != 0) {
+            out.write((int) ((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    static long readVarint(DataInputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.read();
+            if (b < 0) {
+                throw new EOFException();
+            }
+            value |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Varint too long");
+    }
+
+    private static long readVarint(byte[] bytes, int[] position) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            if (position[0] >= bytes.length) {
+                throw new IOException("Record body too short");
+            }
+            int b = bytes[position[0]++];
+            value |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Varint too long");
+    }
+
+    private static String reason(int reasonId, List<String> reasons) throws IOException {
+        if (reasonId < NO_REASON || reasonId > reasons.size()) {
+            throw new IOException("Unknown reason id " + reasonId);
+        }
+        return reasonId == NO_REASON ? "" : reasons.get(reasonId - 1);
+    }
+
+    private static byte[] readBytes(byte[] bytes, int[] position) throws IOException {
+        long length = readVarint(bytes, position);
+        if (length < 0 || length > bytes.length - position[0]) {
+            throw new IOException("Record body too short");
+        }
+        byte[] value = new byte[(int) length];
+        System.arraycopy(bytes, position[0], value, 0, value.length);
+        position[0] += value.length;
+        return value;
+    }
+
+    private static int varintBytes(long value) {
+        int bytes = 1;
+        while ((value & ~0x7fL) != 0) {
+            value >>>= 7;
+            bytes++;
+        }
+        return bytes;
+    }
+
+    private static void writeIntLE(OutputStream out, int value) throws IOException {
+        out.write(value);
+        out.write(value >>> 8);
+        out.write(value >>> 16);
+        out.write(value >>> 24);
+    }
+
+    private static int readIntLE(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xff) | (bytes[offset + 1] & 0xff) << 8
+                | (bytes[offset + 2] & 0xff) << 16 | (bytes[offset + 3] & 0xff) << 24;
+    }
+}
@@ -0,0 +1,1266 @@
+package com.spam_blocker;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Process-wide storage of the blocked-call history.
+ *
+ * History is kept in an append-only log file of {@link BlockedNumberCodec}
+ * records. A block appends one record and
+ * a removal appends a tombstone, so no write rewrites earlier entries. Writes
+ * take effect in memory at once and are queued for a single background writer,
+ * which appends each burst of records with one synced write; blocking a call
+ * never waits on the disk. Android kills processes without running shutdown
+ * hooks, so queued records are written at once, rather than after the usual
+ * delay, when the process may be about to go: after a blocked call is
+ * recorded and when the app is asked to trim its memory. On first
+ * use the log is replayed into a fixed-capacity ring of the most recent
+ * entries, kept in time order, and one {@link NumberSummary} per
+ * distinct caller with its block count, first and last time and last reason.
+ * Summaries outlive the entries that are evicted, so lookups by number are
+ * O(1) and memory grows with the number of callers, not calls. Numbers are
+ * summarized by their canonical form, so differently formatted copies of a
+ * number share one summary. Membership and repetition, the questions asked on
+ * every ring, are answered without taking the lock from primitive sets of
+ * canonical number keys.
+ *
+ * Retention is bounded by a maximum entry count (the ring's capacity) and a
+ * maximum age. Evicted entries only leave memory; the log keeps them, along
+ * with tombstones, until it holds more dead records than live ones and is
+ * compacted by the writer into summaries and the entries still in the ring.
+ * Compaction also drops summaries of callers not seen within the age limit,
+ * and waits while a call is ringing.
+ *
+ * Aggregate counts are kept in {@link BlockStatistics}, updated here on every
+ * add and delete and saved in the background.
+ *
+ * The history used to be a StringSet in BlockedNumbersPrefs; it is moved into
+ * the log once, the first time the store is opened.
+ */
+public class BlockedNumberStore {
+    private static final String TAG = "BlockedNumberStore";
+    public static final String FILE_NAME = "blocked_numbers.log";
+    private static final String LEGACY_PREFS_NAME = "BlockedNumbersPrefs";
+    private static final String LEGACY_KEY_BLOCKED_NUMBERS = "blocked_numbers";
+    private static final String PREFS_NAME = "SpamBlockerPrefs";
+    private static final String KEY_MAX_ENTRIES = "history_max_entries";
+    private static final String KEY_MAX_AGE_DAYS = "history_max_age_days";
+
+    public static final int DEFAULT_MAX_ENTRIES = 5000;
+    // 0 keeps entries regardless of age
+    public static final int DEFAULT_MAX_AGE_DAYS = 90;
+    // Highest count keyedCount() tells apart
+    public static final int MAX_KEYED_COUNT = 2;
+
+    private static final byte RECORD_ADD = BlockedNumberCodec.RECORD_ADD;
+    private static final byte RECORD_REMOVE = BlockedNumberCodec.RECORD_REMOVE;
+    private static final byte RECORD_EVENT = BlockedNumberCodec.RECORD_EVENT;
+
+    // Records queued within this window are written together
+    private static final long FLUSH_DELAY_MILLIS = 250;
+    // A failed write, such as on a full disk, is retried after this long
+    private static final long WRITE_RETRY_MILLIS = 5000;
+
+    // Compact once the log has this many records and more dead records than live ones
+    private static final int MIN_COMPACTION_RECORDS = 256;
+    // Start well after the write that triggered it, which usually ends a call
+    private static final long COMPACTION_DELAY_SECONDS = 30;
+    private static final long COMPACTION_RETRY_SECONDS = 15;
+    // Coalesces the statistics writes of calls blocked in quick succession
+    private static final long STATISTICS_SAVE_DELAY_SECONDS = 2;
+    // Times the search index is built outside the lock before it is built under it
+    private static final int MAX_SEARCH_INDEX_ATTEMPTS = 3;
+
+    // Order of the history; imported entries can be older than the newest
+    private static final Comparator<BlockedNumber> BY_TIME = new Comparator<BlockedNumber>() {
+        @Override
+        public int compare(BlockedNumber b1, BlockedNumber b2) {
+            return Long.compare(b1.getTimestamp(), b2.getTimestamp());
+        }
+    };
+
+    // Volatile so flushIfOpen() can read it without waiting for the store to open
+    private static volatile BlockedNumberStore instance;
+
+    private final File logFile;
+    private final SharedPreferences prefs;
+    private final PhoneNumberCanonicalizer canonicalizer;
+    // The only thread that touches the log and statistics files once the store is open
+    private final ScheduledExecutorService writer = Executors.newSingleThreadScheduledExecutor();
+    // Oldest first, by timestamp
+    private final RingBuffer<BlockedNumber> history;
+    private final BlockStatistics statistics;
+    // 0 for no age limit
+    private long maxAgeMillis;
+    // Keyed by canonical digits, or the number as stored if it has no canonical form
+    private final Map<String, NumberSummary> byNumber = new HashMap<>();
+    // Canonical keys of the numbers in byNumber, written under the lock and read without it
+    private volatile KeySets keys = new KeySets();
+    // Built by the first search, then kept up to date with the history
+    private HistorySearchIndex searchIndex;
+
+    // Records in the log file or queued for it, live or dead
+    private int logRecords;
+    // Encoded records waiting for the writer
+    private final ByteArrayOutputStream pending = new ByteArrayOutputStream();
+    private int pendingRecords;
+    // Set by clear(); the writer deletes the log before writing what was queued after it
+    private boolean truncatePending;
+    // Reasons defined in the log, id i + 1 at index i; they stay defined until the log is cleared
+    private final List<String> reasons = new ArrayList<>();
+    private final Map<String, Integer> reasonIds = new HashMap<>();
+    private boolean flushScheduled;
+    private boolean compactionScheduled;
+    private boolean statisticsSaveScheduled;
+    // Bumped by every change to the history, so readers of pages can tell they went stale
+    private volatile int version;
+    // Length of the log file after the writer's last write
+    private volatile long logLength;
+    // Told when the number key sets may have changed and what is on disk has caught up
+    private volatile Runnable keysListener;
+
+    private BlockedNumberStore(Context context) {
+        logFile = new File(context.getFilesDir(), FILE_NAME);
+        prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        canonicalizer = PhoneNumberCanonicalizer.getInstance(context);
+        int maxEntries = Math.max(1, prefs.getInt(KEY_MAX_ENTRIES, DEFAULT_MAX_ENTRIES));
+        history = new RingBuffer<>(maxEntries);
+        maxAgeMillis = TimeUnit.DAYS.toMillis(Math.max(0, prefs.getInt(KEY_MAX_AGE_DAYS, DEFAULT_MAX_AGE_DAYS)));
+        replay(maxEntries);
+        migrateLegacyEntries(context.getSharedPreferences(LEGACY_PREFS_NAME, Context.MODE_PRIVATE));
+        statistics = new BlockStatistics(new File(context.getFilesDir(), BlockStatistics.FILE_NAME));
+        loadStatistics();
+        evictExpired();
+        logLength = logFile.length();
+        scheduleCompactionIfNeeded();
+    }
+
+    public static synchronized BlockedNumberStore getInstance(Context context) {
+        if (instance == null) {
+            instance = new BlockedNumberStore(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    /**
+     * Start writing queued records now if the store is open, without waiting
+     * for them; for when the process may soon be killed
+     */
+    public static void flushIfOpen() {
+        BlockedNumberStore store = instance;
+        if (store != null) {
+            store.submitFlush();
+        }
+    }
+
+    public synchronized void add(BlockedNumber blockedNumber) {
+        enqueue(RECORD_ADD, blockedNumber);
+        apply(RECORD_ADD, blockedNumber);
+        statistics.record(blockedNumber);
+        scheduleStatisticsSave();
+        evictExpired();
+        scheduleCompactionIfNeeded();
+    }
+
+    /**
+     * Add a batch of entries, such as imported ones, under one lock. Entries
+     * older than the age limit are skipped; the rest are merged into the
+     * history by time. The caller waits until they are written, so a long
+     * import commits batch by batch and never queues more than one in memory.
+     *
+     * @return number of entries added
+     */
+    public int addAll(List<BlockedNumber> blockedNumbers) {
+        List<BlockedNumber> sorted = new ArrayList<>(blockedNumbers.size());
+        synchronized (this) {
+            long cutoff = maxAgeMillis > 0 ? System.currentTimeMillis() - maxAgeMillis : Long.MIN_VALUE;
+            for (BlockedNumber blockedNumber : blockedNumbers) {
+                if (blockedNumber.getTimestamp() >= cutoff) {
+                    sorted.add(blockedNumber);
+                }
+            }
+            if (sorted.isEmpty()) {
+                return 0;
+            }
+            Collections.sort(sorted, BY_TIME);
+            for (BlockedNumber blockedNumber : sorted) {
+                enqueue(RECORD_ADD, blockedNumber);
+                summarize(blockedNumber);
+                statistics.record(blockedNumber);
+            }
+            // Entries past the newest ones would take new ids out of time order; index again on the next search
+            searchIndex = null;
+            history.merge(sorted, BY_TIME);
+            version++;
+            evictExpired();
+            scheduleStatisticsSave();
+            scheduleCompactionIfNeeded();
+        }
+        try {
+            submitFlush().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            Log.e(TAG, "Failed to write imported entries", e);
+        }
+        return sorted.size();
+    }
+
+    public synchronized void remove(BlockedNumber blockedNumber) {
+        if (findInHistory(blockedNumber) < 0) {
+            return;
+        }
+        enqueue(RECORD_REMOVE, blockedNumber);
+        apply(RECORD_REMOVE, blockedNumber);
+        statistics.unrecord(blockedNumber);
+        scheduleStatisticsSave();
+        scheduleCompactionIfNeeded();
+    }
+
+    public synchronized void clear() {
+        history.clear();
+        searchIndex = null;
+        byNumber.clear();
+        keys = new KeySets();
+        logRecords = 0;
+        pending.reset();
+        pendingRecords = 0;
+        reasons.clear();
+        reasonIds.clear();
+        truncatePending = true;
+        scheduleFlush();
+        version++;
+        statistics.clear();
+        scheduleStatisticsSave();
+    }
+
+    /**
+     * Write everything queued so far and wait up to a timeout for it to reach the disk
+     *
+     * @return false if the write failed or did not finish in time
+     */
+    public boolean flush(long timeoutMillis) {
+        try {
+            return submitFlush().get(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            Log.w(TAG, "Flush did not complete within " + timeoutMillis + " ms");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            Log.e(TAG, "Flush failed", e);
+        }
+        return false;
+    }
+
+    private Future<Boolean> submitFlush() {
+        return writer.submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return writePending();
+            }
+        });
+    }
+
+    /**
+     * All entries, most recent first
+     */
+    public synchronized List<BlockedNumber> getAll() {
+        return history.newestFirst();
+    }
+
+    /**
+     * Up to limit entries starting at offset, most recent first
+     */
+    public synchronized List<BlockedNumber> getPage(int offset, int limit) {
+        int size = history.size();
+        int count = Math.max(0, Math.min(limit, size - offset));
+        List<BlockedNumber> page = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            page.add(history.get(size - 1 - offset - i));
+        }
+        return page;
+    }
+
+    /**
+     * Cursor over the history in the order entries were recorded, for reading
+     * all of it a chunk at a time without copying it under the lock
+     */
+    public HistoryCursor openCursor() {
+        return new HistoryCursor();
+    }
+
+    /**
+     * Reads the history oldest first, one chunk per lock. Entries recorded
+     * after it was opened are read too if they are newer than the last chunk;
+     * entries evicted or deleted before their chunk is read are not.
+     */
+    public final class HistoryCursor {
+        private BlockedNumber previous;
+
+        private HistoryCursor() {
+        }
+
+        /**
+         * Up to limit entries following the previous chunk, empty at the end of the history
+         */
+        public List<BlockedNumber> nextChunk(int limit) {
+            synchronized (BlockedNumberStore.this) {
+                int start = previous != null ? indexAfter(previous) : 0;
+                int end = Math.min(history.size(), start + limit);
+                List<BlockedNumber> chunk = new ArrayList<>(Math.max(0, end - start));
+                for (int i = start; i < end; i++) {
+                    chunk.add(history.get(i));
+                }
+                if (!chunk.isEmpty()) {
+                    previous = chunk.get(chunk.size() - 1);
+                }
+                return chunk;
+            }
+        }
+    }
+
+    // Position just past an entry, or past every entry as old as it if it has left the history
+    private int indexAfter(BlockedNumber blockedNumber) {
+        int low = 0;
+        int high = history.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (history.get(mid).getTimestamp() <= blockedNumber.getTimestamp()) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        for (int i = low - 1; i >= 0 && history.get(i).getTimestamp() == blockedNumber.getTimestamp(); i--) {
+            if (history.get(i) == blockedNumber) {
+                return i + 1;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Up to limit entries whose number, reason or caller info contains the
+     * query, starting at offset among the matches, most recent first
+     */
+    public List<BlockedNumber> search(String query, int offset, int limit) {
+        buildSearchIndex();
+        synchronized (this) {
+            // clear() and entries added behind the newest drop the index, maybe since it was built
+            if (searchIndex == null) {
+                indexUnderLock();
+            }
+            return searchIndex.search(query, offset, limit);
+        }
+    }
+
+    public synchronized int size() {
+        return history.size();
+    }
+
+    public BlockStatistics getStatistics() {
+        return statistics;
+    }
+
+    /**
+     * Changes whenever an entry is added, removed or evicted
+     */
+    public int getVersion() {
+        return version;
+    }
+
+    /**
+     * Whether the number was blocked; lock-free and allocation-free for
+     * anything that canonicalizes to a phone number
+     */
+    public boolean contains(String phoneNumber) {
+        long key = canonicalizer.toKey(phoneNumber);
+        if (key != 0) {
+            return keys.blocked.contains(key);
+        }
+        synchronized (this) {
+            return byNumber.containsKey(phoneNumber);
+        }
+    }
+
+    /**
+     * Keys of the numbers blocked once or more and of those blocked more than
+     * once, sorted, with the length of the log they were read from. Null while
+     * records are still waiting to be written, since the log does not hold
+     * them yet; the keys listener is called once they are.
+     */
+    synchronized NumberKeys exportKeys() {
+        if (pendingRecords > 0 || truncatePending) {
+            return null;
+        }
+        return new NumberKeys(keys.blocked.toSortedArray(), keys.repeated.toSortedArray(), logLength);
+    }
+
+    /**
+     * Keys of the blocked numbers as the log on disk holds them
+     */
+    static final class NumberKeys {
+        final long[] blocked;
+        final long[] repeated;
+        final long logLength;
+
+        NumberKeys(long[] blocked, long[] repeated, long logLength) {
+            this.blocked = blocked;
+            this.repeated = repeated;
+            this.logLength = logLength;
+        }
+    }
+
+    // Both key sets, replaced together when every key changes
+    private static final class KeySets {
+        // Every number in byNumber
+        final LongHashSet blocked = new LongHashSet();
+        // The subset blocked more than once
+        final LongHashSet repeated = new LongHashSet();
+    }
+
+    /**
+     * Call listener, on the writer thread or with the lock held, whenever
+     * {@link #exportKeys} may have something new to return
+     */
+    void setKeysListener(Runnable listener) {
+        keysListener = listener;
+    }
+
+    /**
+     * Times a canonical number key was blocked, counting no further than
+     * {@link #MAX_KEYED_COUNT}; lock-free and allocation-free, for deciding a
+     * ringing call
+     */
+    public int keyedCount(long key) {
+        if (key == 0) {
+            return 0;
+        }
+        KeySets current = keys;
+        return current.repeated.contains(key) ? MAX_KEYED_COUNT : current.blocked.contains(key) ? 1 : 0;
+    }
+
+    public int count(String phoneNumber) {
+        // Most callers have never been blocked; answer those without the lock
+        if (!contains(phoneNumber)) {
+            return 0;
+        }
+        synchronized (this) {
+            NumberSummary summary = byNumber.get(indexKey(phoneNumber));
+            return summary != null ? summary.getCount() : 0;
+        }
+    }
+
+    /**
+     * Totals for one number, or null if it was never blocked
+     */
+    public synchronized NumberSummary getSummary(String phoneNumber) {
+        NumberSummary summary = byNumber.get(indexKey(phoneNumber));
+        return summary != null ? new NumberSummary(summary) : null;
+    }
+
+    /**
+     * Entries for one number still in the history, most recent first; a scan
+     * of the history, where {@link #getSummary} is a single lookup
+     */
+    public synchronized List<BlockedNumber> getForNumber(String phoneNumber) {
+        List<BlockedNumber> entries = new ArrayList<>();
+        String indexKey = indexKey(phoneNumber);
+        for (int i = history.size() - 1; i >= 0; i--) {
+            BlockedNumber entry = history.get(i);
+            if (indexKey.equals(indexKey(entry.getPhoneNumber()))) {
+                entries.add(entry);
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * Re-key the summaries after the default country code changed, merging
+     * those that now name the same number. Lock-free readers see the old keys
+     * until the new ones are complete.
+     */
+    public synchronized void reindex() {
+        List<NumberSummary> summaries = new ArrayList<>(byNumber.values());
+        byNumber.clear();
+        for (NumberSummary summary : summaries) {
+            String indexKey = indexKey(summary.getPhoneNumber());
+            NumberSummary existing = byNumber.get(indexKey);
+            if (existing != null) {
+                existing.merge(summary);
+            } else {
+                byNumber.put(indexKey, summary);
+            }
+        }
+        KeySets rebuilt = new KeySets();
+        for (NumberSummary summary : byNumber.values()) {
+            updateKeys(rebuilt, summary);
+        }
+        keys = rebuilt;
+        keysChanged();
+    }
+
+    public synchronized int getMaxEntries() {
+        return history.capacity();
+    }
+
+    public synchronized int getMaxAgeDays() {
+        return (int) TimeUnit.MILLISECONDS.toDays(maxAgeMillis);
+    }
+
+    /**
+     * Change the retention limits and evict whatever falls outside them
+     *
+     * @param maxEntries most entries kept, at least 1
+     * @param maxAgeDays age of the oldest entry kept, or 0 for no age limit
+     */
+    public synchronized void setRetention(int maxEntries, int maxAgeDays) {
+        if (maxEntries < 1 || maxAgeDays < 0) {
+            throw new IllegalArgumentException("Invalid retention: " + maxEntries + " entries, "
+                    + maxAgeDays + " days");
+        }
+        prefs.edit()
+                .putInt(KEY_MAX_ENTRIES, maxEntries)
+                .putInt(KEY_MAX_AGE_DAYS, maxAgeDays)
+                .apply();
+        for (BlockedNumber evicted : history.resize(maxEntries)) {
+            unsearchable(evicted);
+        }
+        version++;
+        maxAgeMillis = TimeUnit.DAYS.toMillis(maxAgeDays);
+        evictExpired();
+        scheduleCompactionIfNeeded();
+        Log.d(TAG, "Retention set to " + maxEntries + " entries, " + maxAgeDays + " days");
+    }
+
+    private void apply(byte type, BlockedNumber blockedNumber) {
+        version++;
+        if (type == RECORD_ADD || type == RECORD_EVENT) {
+            BlockedNumber evicted = history.insert(blockedNumber, BY_TIME);
+            if (searchIndex != null) {
+                if (history.get(history.size() - 1) == blockedNumber) {
+                    searchIndex.add(blockedNumber);
+                    unsearchable(evicted);
+                } else {
+                    // Only the newest entry can be indexed in place
+                    searchIndex = null;
+                }
+            }
+            if (type == RECORD_ADD) {
+                summarize(blockedNumber);
+            }
+            return;
+        }
+
+        int index = findInHistory(blockedNumber);
+        if (index >= 0) {
+            unsearchable(history.removeAt(index));
+            unsummarize(blockedNumber);
+        }
+    }
+
+    /**
+     * Index the history for search if it is not yet. The index is built from a
+     * copy without holding the lock, so blocking a call never waits for it, and
+     * built again if the history changed meanwhile.
+     */
+    private void buildSearchIndex() {
+        long start = System.currentTimeMillis();
+        for (int attempt = 0; attempt < MAX_SEARCH_INDEX_ATTEMPTS; attempt++) {
+            List<BlockedNumber> entries;
+            int builtVersion;
+            synchronized (this) {
+                if (searchIndex != null) {
+                    return;
+                }
+                builtVersion = version;
+                entries = new ArrayList<>(history.size());
+                for (int i = 0; i < history.size(); i++) {
+                    entries.add(history.get(i));
+                }
+            }
+            HistorySearchIndex index = new HistorySearchIndex();
+            for (BlockedNumber blockedNumber : entries) {
+                index.add(blockedNumber);
+            }
+            synchronized (this) {
+                if (searchIndex != null) {
+                    return;
+                }
+                if (version == builtVersion) {
+                    searchIndex = index;
+                    Log.d(TAG, "Indexed " + entries.size() + " entries for search in "
+                            + (System.currentTimeMillis() - start) + " ms");
+                    return;
+                }
+            }
+        }
+        // Calls keep being blocked; finish under the lock
+        synchronized (this) {
+            if (searchIndex == null) {
+                indexUnderLock();
+            }
+        }
+    }
+
+    // Called with the lock held
+    private void indexUnderLock() {
+        searchIndex = new HistorySearchIndex();
+        for (int i = 0; i < history.size(); i++) {
+            searchIndex.add(history.get(i));
+        }
+    }
+
+    // An entry left the history; summaries keep counting it, search no longer finds it
+    private void unsearchable(BlockedNumber blockedNumber) {
+        if (blockedNumber != null && searchIndex != null) {
+            searchIndex.remove(blockedNumber);
+        }
+    }
+
+    // The ring is in time order, so entries past the age limit are at its head
+    private void evictExpired() {
+        if (maxAgeMillis == 0) {
+            return;
+        }
+        long cutoff = System.currentTimeMillis() - maxAgeMillis;
+        int evicted = 0;
+        while (history.size() > 0 && history.peekOldest().getTimestamp() < cutoff) {
+            unsearchable(history.removeOldest());
+            evicted++;
+        }
+        if (evicted > 0) {
+            version++;
+            Log.d(TAG, "Evicted " + evicted + " entries older than " + getMaxAgeDays() + " days");
+        }
+    }
+
+    private void summarize(BlockedNumber blockedNumber) {
+        NumberSummary summary = byNumber.get(indexKey(blockedNumber.getPhoneNumber()));
+        if (summary != null) {
+            summary.record(blockedNumber);
+            updateKeys(summary);
+        } else {
+            putSummary(NumberSummary.of(blockedNumber));
+        }
+    }
+
+    // Called after the entry has left the history
+    private void unsummarize(BlockedNumber blockedNumber) {
+        String indexKey = indexKey(blockedNumber.getPhoneNumber());
+        NumberSummary summary = byNumber.get(indexKey);
+        if (summary == null) {
+            return;
+        }
+        BlockedNumber latestRemaining = null;
+        for (int i = history.size() - 1; i >= 0 && latestRemaining == null; i--) {
+            BlockedNumber entry = history.get(i);
+            if (indexKey.equals(indexKey(entry.getPhoneNumber()))) {
+                latestRemaining = entry;
+            }
+        }
+        summary.unrecord(blockedNumber, latestRemaining);
+        if (summary.getCount() <= 0) {
+            removeSummary(indexKey, summary);
+        } else {
+            updateKeys(summary);
+        }
+    }
+
+    private void putSummary(NumberSummary summary) {
+        String indexKey = indexKey(summary.getPhoneNumber());
+        NumberSummary existing = byNumber.get(indexKey);
+        if (existing != null) {
+            existing.merge(summary);
+            updateKeys(existing);
+            return;
+        }
+        byNumber.put(indexKey, summary);
+        updateKeys(summary);
+    }
+
+    private void removeSummary(String indexKey, NumberSummary summary) {
+        byNumber.remove(indexKey);
+        dropKeys(summary);
+    }
+
+    // Bring the lock-free key sets in line with a summary's count
+    private void updateKeys(NumberSummary summary) {
+        updateKeys(keys, summary);
+    }
+
+    private void updateKeys(KeySets target, NumberSummary summary) {
+        long key = canonicalizer.toKey(summary.getPhoneNumber());
+        if (key == 0) {
+            return;
+        }
+        target.blocked.add(key);
+        if (summary.getCount() > 1) {
+            target.repeated.add(key);
+        } else {
+            target.repeated.remove(key);
+        }
+    }
+
+    private void dropKeys(NumberSummary summary) {
+        long key = canonicalizer.toKey(summary.getPhoneNumber());
+        if (key != 0) {
+            keys.repeated.remove(key);
+            keys.blocked.remove(key);
+        }
+    }
+
+    // Canonical digits, matching the number keys exactly
+    private String indexKey(String phoneNumber) {
+        long key = canonicalizer.toKey(phoneNumber);
+        return key != 0 ? PhoneNumberCanonicalizer.toDigits(key) : phoneNumber;
+    }
+
+    // Position in history of the newest entry equal to the given one; only user deletions search
+    private int findInHistory(BlockedNumber blockedNumber) {
+        for (int i = history.size() - 1; i >= 0; i--) {
+            if (history.get(i).equals(blockedNumber)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // Saved counters, caught up with entries logged after they were saved, or rebuilt from the history
+    private void loadStatistics() {
+        long since = statistics.load() ? statistics.getLastRecorded() : Long.MIN_VALUE;
+        int caughtUp = 0;
+        for (int i = 0; i < history.size(); i++) {
+            BlockedNumber blockedNumber = history.get(i);
+            if (blockedNumber.getTimestamp() > since) {
+                statistics.record(blockedNumber);
+                caughtUp++;
+            }
+        }
+        if (caughtUp > 0) {
+            Log.d(TAG, "Counted " + caughtUp + " entries missing from saved statistics");
+            scheduleStatisticsSave();
+        }
+    }
+
+    private void scheduleStatisticsSave() {
+        if (statisticsSaveScheduled) {
+            return;
+        }
+        statisticsSaveScheduled = true;
+        writer.schedule(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (BlockedNumberStore.this) {
+                    statisticsSaveScheduled = false;
+                }
+                statistics.save();
+            }
+        }, STATISTICS_SAVE_DELAY_SECONDS, TimeUnit.SECONDS);
+    }
+
+    private void scheduleCompactionIfNeeded() {
+        if (compactionScheduled || logRecords < MIN_COMPACTION_RECORDS
+                || logRecords <= (history.size() + byNumber.size()) * 2) {
+            return;
+        }
+        compactionScheduled = true;
+        scheduleCompaction(COMPACTION_DELAY_SECONDS);
+    }
+
+    private void scheduleCompaction(long delaySeconds) {
+        writer.schedule(new Runnable() {
+            @Override
+            public void run() {
+                compact();
+            }
+        }, delaySeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Rewrite the log as the summaries and the entries still in the history.
+     * Runs on the writer thread;
+     * the file is written without the lock, so blocking a call is never held
+     * up by it.
+     */
+    private void compact() {
+        if (CallStateManager.getInstance().isCallIncoming()) {
+            scheduleCompaction(COMPACTION_RETRY_SECONDS);
+            return;
+        }
+
+        List<BlockedNumber> live = new ArrayList<>();
+        List<NumberSummary> summaries = new ArrayList<>();
+        List<String> dictionary;
+        byte[] drained;
+        int drainedRecords;
+        boolean drainedTruncate;
+        synchronized (this) {
+            evictExpired();
+            pruneSummaries();
+            for (int i = 0; i < history.size(); i++) {
+                live.add(history.get(i));
+            }
+            for (NumberSummary summary : byNumber.values()) {
+                summaries.add(new NumberSummary(summary));
+            }
+            // Later records refer to these ids, so the new log defines the same ones
+            dictionary = new ArrayList<>(reasons);
+            // Everything queued so far, a clear included, is already reflected in the live entries
+            drained = pending.toByteArray();
+            drainedRecords = pendingRecords;
+            drainedTruncate = truncatePending;
+            pending.reset();
+            pendingRecords = 0;
+            truncatePending = false;
+        }
+
+        try {
+            int records = writeLog(dictionary, summaries, live);
+            synchronized (this) {
+                Log.d(TAG, "Compacted log from " + logRecords + " to " + records + " records");
+                logRecords = records + pendingRecords;
+                compactionScheduled = false;
+            }
+            logWritten();
+        } catch (IOException e) {
+            Log.e(TAG, "Compaction failed", e);
+            synchronized (this) {
+                // The old log is still in place; put the drained records back ahead of newer ones
+                byte[] newer = pending.toByteArray();
+                pending.reset();
+                pending.write(drained, 0, drained.length);
+                pending.write(newer, 0, newer.length);
+                pendingRecords += drainedRecords;
+                truncatePending |= drainedTruncate;
+                compactionScheduled = false;
+            }
+            writePending();
+        }
+    }
+
+    // Drop callers not seen within the age limit; their entries have already left the history
+    private void pruneSummaries() {
+        if (maxAgeMillis <= 0) {
+            return;
+        }
+        long cutoff = System.currentTimeMillis() - maxAgeMillis;
+        Iterator<Map.Entry<String, NumberSummary>> summaries = byNumber.entrySet().iterator();
+        while (summaries.hasNext()) {
+            NumberSummary summary = summaries.next().getValue();
+            if (summary.getLastSeen() < cutoff) {
+                summaries.remove();
+                dropKeys(summary);
+                version++;
+            }
+        }
+    }
+
+    /**
+     * Replace the log with one defining the given reasons and holding the
+     * given summaries and entries; returns the number of records written
+     */
+    private int writeLog(List<String> dictionary, List<NumberSummary> summaries, List<BlockedNumber> live)
+            throws IOException {
+        File temp = new File(logFile.getPath() + ".tmp");
+        try {
+            FileOutputStream file = new FileOutputStream(temp);
+            int records;
+            try {
+                BufferedOutputStream out = new BufferedOutputStream(file);
+                BlockedNumberCodec.writeHeader(out);
+                records = writeSnapshot(out, dictionary, summaries, live);
+                out.flush();
+                file.getFD().sync();
+            } finally {
+                file.close();
+            }
+            if (!temp.renameTo(logFile)) {
+                throw new IOException("Cannot replace " + logFile);
+            }
+            return records;
+        } finally {
+            temp.delete();
+        }
+    }
+
+    // Reasons, then summaries, then the entries as events already counted in them
+    private static int writeSnapshot(OutputStream out, List<String> dictionary, List<NumberSummary> summaries,
+            List<BlockedNumber> live) throws IOException {
+        Map<String, Integer> ids = new HashMap<>();
+        for (int i = 0; i < dictionary.size(); i++) {
+            ids.put(dictionary.get(i), i + 1);
+            BlockedNumberCodec.writeReason(out, dictionary.get(i));
+        }
+        for (NumberSummary summary : summaries) {
+            BlockedNumberCodec.writeSummary(out, summary, dictionaryId(ids, summary.getLastReason()));
+        }
+        for (BlockedNumber blockedNumber : live) {
+            BlockedNumberCodec.writeEntry(out, RECORD_EVENT, blockedNumber,
+                    dictionaryId(ids, blockedNumber.getReason()));
+        }
+        return dictionary.size() + summaries.size() + live.size();
+    }
+
+    private static int dictionaryId(Map<String, Integer> ids, String reason) throws IOException {
+        int reasonId = BlockedNumberCodec.reasonId(ids, reason);
+        if (reasonId < 0) {
+            throw new IOException("Reason missing from dictionary: " + reason);
+        }
+        return reasonId;
+    }
+
+    private void replay(int maxEntries) {
+        if (!logFile.exists()) {
+            return;
+        }
+        boolean legacy = false;
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(logFile)));
+            byte[] header = new byte[BlockedNumberCodec.HEADER_BYTES];
+            int read = 0;
+            int count;
+            while (read < header.length && (count = in.read(header, read, header.length - read)) > 0) {
+                read += count;
+            }
+            if (read == 0) {
+                // Empty; the header is written with the first record
+            } else if (read == header.length && BlockedNumberCodec.isHeader(header)) {
+                replayRecords(in);
+            } else {
+                closeQuietly(in);
+                in = new DataInputStream(new BufferedInputStream(new FileInputStream(logFile)));
+                replayLegacyRecords(in);
+                legacy = true;
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to read " + logFile, e);
+        } finally {
+            closeQuietly(in);
+        }
+        history.resize(maxEntries);
+        if (legacy) {
+            upgradeLegacyLog();
+        }
+        Log.d(TAG, "Loaded " + byNumber.size() + " numbers and " + history.size() + " blocked calls from "
+                + logRecords + " records");
+    }
+
+    private void replayRecords(DataInputStream in) throws IOException {
+        // Bytes up to the end of the last whole record
+        long validBytes = BlockedNumberCodec.HEADER_BYTES;
+        try {
+            int type;
+            while ((type = in.read()) >= 0) {
+                byte[] body = BlockedNumberCodec.readBody(in);
+                if (type == BlockedNumberCodec.RECORD_REASON) {
+                    defineReason(BlockedNumberCodec.decodeReason(body));
+                } else if (type == BlockedNumberCodec.RECORD_SUMMARY) {
+                    putSummary(BlockedNumberCodec.decodeSummary(body, reasons));
+                } else if (type == RECORD_ADD || type == RECORD_REMOVE || type == RECORD_EVENT) {
+                    replayed((byte) type, BlockedNumberCodec.decodeEntry(body, reasons));
+                }
+                // Other types come from a newer version and are skipped
+                logRecords++;
+                validBytes += BlockedNumberCodec.recordBytes(body.length);
+            }
+        } catch (IOException e) {
+            // A record cut short by a crash during a write, or damaged; drop it and anything after
+            // it so appends follow the last whole record
+            Log.w(TAG, "Truncating " + logFile + " after " + logRecords + " records", e);
+            RandomAccessFile file = new RandomAccessFile(logFile, "rw");
+            try {
+                file.setLength(validBytes);
+            } finally {
+                file.close();
+            }
+        }
+    }
+
+    // Version 1 logs: header-less records of modified UTF-8 strings and a fixed-width timestamp
+    private void replayLegacyRecords(DataInputStream in) throws IOException {
+        try {
+            int type;
+            while ((type = in.read()) >= 0) {
+                String phoneNumber = in.readUTF();
+                long timestamp = in.readLong();
+                String reason = in.readUTF();
+                String callerInfo = in.readUTF();
+                replayed((byte) type, new BlockedNumber(phoneNumber, timestamp, reason, callerInfo));
+            }
+        } catch (EOFException e) {
+            Log.w(TAG, "Ignoring truncated record at end of " + logFile);
+        }
+    }
+
+    private void replayed(byte type, BlockedNumber blockedNumber) {
+        // Grow rather than evict: a later tombstone may remove an entry and make room
+        if (type != RECORD_REMOVE && history.size() == history.capacity()) {
+            history.resize(history.capacity() * 2);
+        }
+        apply(type, blockedNumber);
+    }
+
+    // Rewrite a version 1 log in the current format, before anything is appended to it
+    private void upgradeLegacyLog() {
+        List<BlockedNumber> live = new ArrayList<>(history.size());
+        for (int i = 0; i < history.size(); i++) {
+            BlockedNumber blockedNumber = history.get(i);
+            live.add(blockedNumber);
+            reasonIdFor(blockedNumber.getReason(), false);
+        }
+        List<NumberSummary> summaries = new ArrayList<>(byNumber.values());
+        for (NumberSummary summary : summaries) {
+            reasonIdFor(summary.getLastReason(), false);
+        }
+        try {
+            logRecords = writeLog(new ArrayList<>(reasons), summaries, live);
+            Log.d(TAG, "Upgraded log to format " + BlockedNumberCodec.VERSION);
+        } catch (IOException e) {
+            // Start the new format from scratch rather than append to the old one
+            Log.e(TAG, "Failed to upgrade " + logFile, e);
+            truncatePending = true;
+            try {
+                logRecords = writeSnapshot(pending, reasons, summaries, live);
+            } catch (IOException unexpected) {
+                // Writing to memory does not fail
+                throw new IllegalStateException(unexpected);
+            }
+            pendingRecords = logRecords;
+            scheduleFlush();
+        }
+    }
+
+    private void migrateLegacyEntries(SharedPreferences legacyPrefs) {
+        Set<String> legacy = legacyPrefs.getStringSet(LEGACY_KEY_BLOCKED_NUMBERS, null);
+        if (legacy == null) {
+            return;
+        }
+
+        // A migration interrupted before the key was removed may already be in the log
+        Set<BlockedNumber> present = new HashSet<>();
+        for (int i = 0; i < history.size(); i++) {
+            present.add(history.get(i));
+        }
+        List<BlockedNumber> migrated = new ArrayList<>();
+        for (String storageString : legacy) {
+            BlockedNumber blockedNumber = BlockedNumber.fromStorageString(storageString);
+            if (blockedNumber != null && !present.contains(blockedNumber)) {
+                migrated.add(blockedNumber);
+            }
+        }
+        Collections.sort(migrated, new Comparator<BlockedNumber>() {
+            @Override
+            public int compare(BlockedNumber b1, BlockedNumber b2) {
+                return Long.compare(b1.getTimestamp(), b2.getTimestamp());
+            }
+        });
+
+        for (BlockedNumber blockedNumber : migrated) {
+            enqueue(RECORD_ADD, blockedNumber);
+            apply(RECORD_ADD, blockedNumber);
+        }
+        if (!writePending()) {
+            // Keep the legacy entries so the migration is retried next time
+            return;
+        }
+        legacyPrefs.edit().remove(LEGACY_KEY_BLOCKED_NUMBERS).commit();
+        Log.d(TAG, "Migrated " + migrated.size() + " blocked numbers from preferences");
+    }
+
+    // Queue a record for the writer; called with the lock held, never touches the disk
+    private void enqueue(byte type, BlockedNumber blockedNumber) {
+        try {
+            int reasonId = reasonIdFor(blockedNumber.getReason(), true);
+            BlockedNumberCodec.writeEntry(pending, type, blockedNumber, reasonId);
+        } catch (IOException e) {
+            // Writing to memory does not fail
+            throw new IllegalStateException(e);
+        }
+        pendingRecords++;
+        logRecords++;
+        scheduleFlush();
+    }
+
+    // Id of a reason, defining it the first time it is seen
+    private int reasonIdFor(String reason, boolean queueDefinition) {
+        int id = BlockedNumberCodec.reasonId(reasonIds, reason);
+        if (id >= 0) {
+            return id;
+        }
+        defineReason(reason);
+        if (queueDefinition) {
+            try {
+                BlockedNumberCodec.writeReason(pending, reason);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            pendingRecords++;
+            logRecords++;
+        }
+        return reasons.size();
+    }
+
+    private void defineReason(String reason) {
+        reasons.add(reason);
+        reasonIds.put(reason, reasons.size());
+    }
+
+    private void scheduleFlush() {
+        scheduleFlush(FLUSH_DELAY_MILLIS);
+    }
+
+    private void scheduleFlush(long delayMillis) {
+        if (flushScheduled) {
+            return;
+        }
+        flushScheduled = true;
+        writer.schedule(new Runnable() {
+            @Override
+            public void run() {
+                writePending();
+            }
+        }, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Append the queued records with one synced write. Runs on the writer
+     * thread, or while the store is opened before the writer has any work.
+     * Records that cannot be written are cut from the file again and put back
+     * at the head of the queue for a retry: later records may refer to the
+     * reasons they define, and the log must never skip them.
+     *
+     * @return false if the records could not be written
+     */
+    private boolean writePending() {
+        byte[] batch;
+        int records;
+        boolean truncate;
+        synchronized (this) {
+            flushScheduled = false;
+            batch = pending.toByteArray();
+            records = pendingRecords;
+            truncate = truncatePending;
+            pending.reset();
+            pendingRecords = 0;
+            truncatePending = false;
+        }
+        if (truncate && logFile.exists() && !logFile.delete()) {
+            Log.e(TAG, "Failed to delete " + logFile);
+        }
+        if (batch.length == 0) {
+            if (truncate) {
+                logWritten();
+            }
+            return true;
+        }
+        long validLength = logFile.length();
+        try {
+            boolean empty = validLength == 0;
+            FileOutputStream out = new FileOutputStream(logFile, true);
+            try {
+                if (empty) {
+                    BlockedNumberCodec.writeHeader(out);
+                }
+                out.write(batch);
+                out.getFD().sync();
+            } finally {
+                out.close();
+            }
+            logWritten();
+            return true;
+        } catch (IOException e) {
+            // The entries stay in memory; the records are kept until they can be written
+            Log.e(TAG, "Failed to write " + records + " records, retrying", e);
+            cutTornWrite(validLength);
+            synchronized (this) {
+                if (truncatePending) {
+                    // Cleared since; the records belong to the old history
+                    return false;
+                }
+                byte[] newer = pending.toByteArray();
+                pending.reset();
+                pending.write(batch, 0, batch.length);
+                pending.write(newer, 0, newer.length);
+                pendingRecords += records;
+                scheduleFlush(WRITE_RETRY_MILLIS);
+            }
+            return false;
+        }
+    }
+
+    // Drop whatever part of a failed append reached the file, so a retry follows the last whole record
+    private void cutTornWrite(long validLength) {
+        try {
+            if (validLength == 0) {
+                if (logFile.exists() && !logFile.delete()) {
+                    throw new IOException("Cannot delete " + logFile);
+                }
+                return;
+            }
+            RandomAccessFile file = new RandomAccessFile(logFile, "rw");
+            try {
+                file.setLength(validLength);
+            } finally {
+                file.close();
+            }
+        } catch (IOException e) {
+            // Replay drops a torn record and everything after it; nothing more can be done here
+            Log.e(TAG, "Failed to cut a partial write from " + logFile, e);
+        }
+    }
+
+    // Writer thread: the log on disk changed
+    private void logWritten() {
+        logLength = logFile.length();
+        keysChanged();
+    }
+
+    private void keysChanged() {
+        Runnable listener = keysListener;
+        if (listener != null) {
+            listener.run();
+        }
+    }
+
+    private static void closeQuietly(DataInputStream in) {
+        if (in != null) {
+            try {
+                in.close();
+            } catch (IOException ignored) {
+                // Nothing left to do with a stream we only read from
+            }
+        }
+    }
+}
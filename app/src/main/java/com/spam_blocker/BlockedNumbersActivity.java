@@ -1,10 +1,20 @@
 package com.spam_blocker;
 
 import android.app.AlertDialog;
+import android.content.Intent;
+import android.net.Uri;
 import android.os.Bundle;
+import android.os.ParcelFileDescriptor;
+import android.text.Editable;
+import android.text.InputType;
+import android.text.TextWatcher;
+import android.util.Log;
+import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
 import android.widget.Button;
+import android.widget.EditText;
+import android.widget.LinearLayout;
 import android.widget.TextView;
 import android.widget.Toast;
 
@@ -12,18 +22,31 @@ import androidx.appcompat.app.AppCompatActivity;
 import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 
-import java.util.Calendar;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.List;
 
 public class BlockedNumbersActivity extends AppCompatActivity {
+    private static final String TAG = "BlockedNumbersActivity";
+    private static final int EXPORT_REQUEST_CODE = 1;
+    private static final int IMPORT_REQUEST_CODE = 2;
+    private static final int MENU_EXPORT = 1;
+    private static final int MENU_IMPORT = 2;
+    private static final int MENU_RETENTION = 3;
+
     private RecyclerView rvBlockedNumbers;
     private TextView tvEmptyBlocked;
     private TextView tvTotalBlocked;
     private TextView tvTodayBlocked;
+    private EditText etSearch;
     private Button btnClearAll;
 
     private BlockedNumbersAdapter adapter;
     private BlockedNumbersManager blockedNumbersManager;
+    private BlockedNumbersPager pager;
+    // Chosen before the document picker opens, used when it returns
+    private TransferFormat exportFormat = TransferFormat.CSV;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -39,7 +62,6 @@ public class BlockedNumbersActivity extends AppCompatActivity {
         initViews();
         setupRecyclerView();
         setupListeners();
-        loadBlockedNumbers();
     }
 
     private void initViews() {
@@ -47,13 +69,22 @@ public class BlockedNumbersActivity extends AppCompatActivity {
         tvEmptyBlocked = findViewById(R.id.tv_empty_blocked);
         tvTotalBlocked = findViewById(R.id.tv_total_blocked);
         tvTodayBlocked = findViewById(R.id.tv_today_blocked);
+        etSearch = findViewById(R.id.et_search);
         btnClearAll = findViewById(R.id.btn_clear_all);
 
         blockedNumbersManager = new BlockedNumbersManager(this);
     }
 
     private void setupRecyclerView() {
-        adapter = new BlockedNumbersAdapter(blockedNumbersManager,
+        pager = new BlockedNumbersPager(blockedNumbersManager, new BlockedNumbersPager.Listener() {
+            @Override
+            public void onSnapshot(List<BlockedNumber> snapshot, int total) {
+                adapter.submitList(snapshot);
+                updateUI(total, snapshot.size());
+                updateStatistics();
+            }
+        });
+        adapter = new BlockedNumbersAdapter(pager,
                 new BlockedNumbersAdapter.OnBlockedNumberDeleteListener() {
                     @Override
                     public void onDelete(BlockedNumber blockedNumber) {
@@ -72,53 +103,46 @@ public class BlockedNumbersActivity extends AppCompatActivity {
                 showClearAllConfirmDialog();
             }
         });
+
+        etSearch.addTextChangedListener(new TextWatcher() {
+            @Override
+            public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+            }
+
+            @Override
+            public void onTextChanged(CharSequence s, int start, int before, int count) {
+            }
+
+            @Override
+            public void afterTextChanged(Editable s) {
+                pager.setQuery(s.toString());
+            }
+        });
     }
 
     private void loadBlockedNumbers() {
-        List<BlockedNumber> blockedNumbers = blockedNumbersManager.getBlockedNumbers();
-        updateUI();
-        updateStatistics(blockedNumbers);
+        pager.refresh();
     }
 
-    private void updateUI() {
-        adapter.notifyDataSetChanged();
-
-        List<BlockedNumber> blockedNumbers = blockedNumbersManager.getBlockedNumbers();
-        if (blockedNumbers.isEmpty()) {
+    private void updateUI(int totalBlocked, int shown) {
+        btnClearAll.setEnabled(totalBlocked > 0);
+        if (shown == 0) {
+            tvEmptyBlocked.setText(totalBlocked > 0 && pager.isSearching()
+                    ? "No blocked numbers match your search."
+                    : "No blocked numbers yet.\nNumbers will appear here when calls are blocked.");
             tvEmptyBlocked.setVisibility(View.VISIBLE);
             rvBlockedNumbers.setVisibility(View.GONE);
-            btnClearAll.setEnabled(false);
         } else {
             tvEmptyBlocked.setVisibility(View.GONE);
             rvBlockedNumbers.setVisibility(View.VISIBLE);
-            btnClearAll.setEnabled(true);
         }
     }
 
-    private void updateStatistics(List<BlockedNumber> blockedNumbers) {
-        int totalBlocked = blockedNumbers.size();
-        int todayBlocked = 0;
-
-        // Calculate today's date range
-        Calendar today = Calendar.getInstance();
-        today.set(Calendar.HOUR_OF_DAY, 0);
-        today.set(Calendar.MINUTE, 0);
-        today.set(Calendar.SECOND, 0);
-        today.set(Calendar.MILLISECOND, 0);
-        long todayStart = today.getTimeInMillis();
-
-        today.add(Calendar.DAY_OF_MONTH, 1);
-        long todayEnd = today.getTimeInMillis();
-
-        // Count today's blocked numbers
-        for (BlockedNumber blockedNumber : blockedNumbers) {
-            if (blockedNumber.getTimestamp() >= todayStart && blockedNumber.getTimestamp() < todayEnd) {
-                todayBlocked++;
-            }
-        }
-
-        tvTotalBlocked.setText(String.valueOf(totalBlocked));
-        tvTodayBlocked.setText(String.valueOf(todayBlocked));
+    private void updateStatistics() {
+        // Counters are kept up to date as calls are blocked; nothing is recounted here
+        BlockStatistics statistics = blockedNumbersManager.getStatistics();
+        tvTotalBlocked.setText(String.valueOf(statistics.getTotal()));
+        tvTodayBlocked.setText(String.valueOf(statistics.getTodayCount()));
     }
 
     private void showDeleteConfirmDialog(final BlockedNumber blockedNumber) {
@@ -126,8 +150,7 @@ public class BlockedNumbersActivity extends AppCompatActivity {
                 .setTitle("Delete Entry")
                 .setMessage("Remove this blocked number entry?\n\nNumber: " + blockedNumber.getPhoneNumber())
                 .setPositiveButton("Delete", (dialog, which) -> {
-                    blockedNumbersManager.removeBlockedNumber(blockedNumber);
-                    loadBlockedNumbers();
+                    pager.remove(blockedNumber);
                     Toast.makeText(BlockedNumbersActivity.this, "Entry deleted", Toast.LENGTH_SHORT).show();
                 })
                 .setNegativeButton("Cancel", null)
@@ -141,26 +164,173 @@ public class BlockedNumbersActivity extends AppCompatActivity {
                 .setMessage("This will permanently delete all " + count
                         + " blocked number entries.\n\nThis action cannot be undone.")
                 .setPositiveButton("Clear All", (dialog, which) -> {
-                    blockedNumbersManager.clearAllBlockedNumbers();
-                    loadBlockedNumbers();
+                    pager.clear();
                     Toast.makeText(BlockedNumbersActivity.this, "All entries cleared", Toast.LENGTH_SHORT).show();
                 })
                 .setNegativeButton("Cancel", null)
                 .show();
     }
 
+    private void showRetentionDialog() {
+        final EditText etMaxEntries = numberField("Most entries kept",
+                blockedNumbersManager.getMaxEntries());
+        final EditText etMaxAgeDays = numberField("Days kept (0 for no limit)",
+                blockedNumbersManager.getMaxAgeDays());
+        LinearLayout fields = new LinearLayout(this);
+        fields.setOrientation(LinearLayout.VERTICAL);
+        int padding = (int) (20 * getResources().getDisplayMetrics().density);
+        fields.setPadding(padding, padding / 2, padding, 0);
+        fields.addView(etMaxEntries);
+        fields.addView(etMaxAgeDays);
+
+        new AlertDialog.Builder(this)
+                .setTitle("History Limits")
+                .setMessage("Older entries beyond these limits are removed from the list. "
+                        + "Per-number totals are kept.")
+                .setView(fields)
+                .setPositiveButton("Save", (dialog, which) -> {
+                    try {
+                        blockedNumbersManager.setRetentionLimits(
+                                Integer.parseInt(etMaxEntries.getText().toString().trim()),
+                                Integer.parseInt(etMaxAgeDays.getText().toString().trim()));
+                        pager.refresh();
+                        Toast.makeText(BlockedNumbersActivity.this, "History limits saved",
+                                Toast.LENGTH_SHORT).show();
+                    } catch (IllegalArgumentException e) {
+                        // NumberFormatException included
+                        Toast.makeText(BlockedNumbersActivity.this, "Enter at least 1 entry and 0 or more days",
+                                Toast.LENGTH_LONG).show();
+                    }
+                })
+                .setNegativeButton("Cancel", null)
+                .show();
+    }
+
+    private EditText numberField(String hint, int value) {
+        EditText field = new EditText(this);
+        field.setInputType(InputType.TYPE_CLASS_NUMBER);
+        field.setHint(hint);
+        field.setText(String.valueOf(value));
+        return field;
+    }
+
     @Override
     protected void onResume() {
         super.onResume();
         loadBlockedNumbers(); // Refresh data when returning to this activity
     }
 
+    @Override
+    protected void onDestroy() {
+        pager.release();
+        super.onDestroy();
+    }
+
+    @Override
+    public boolean onCreateOptionsMenu(Menu menu) {
+        menu.add(Menu.NONE, MENU_EXPORT, Menu.NONE, "Export History");
+        menu.add(Menu.NONE, MENU_IMPORT, Menu.NONE, "Import History");
+        menu.add(Menu.NONE, MENU_RETENTION, Menu.NONE, "History Limits");
+        return true;
+    }
+
     @Override
     public boolean onOptionsItemSelected(MenuItem item) {
         if (item.getItemId() == android.R.id.home) {
             finish();
             return true;
         }
+        if (item.getItemId() == MENU_EXPORT) {
+            TransferFiles.chooseFormat(this, "Export History", new TransferFiles.FormatListener() {
+                @Override
+                public void onFormat(TransferFormat format) {
+                    exportFormat = format;
+                    startActivityForResult(TransferFiles.createDocument("blocked_numbers", format),
+                            EXPORT_REQUEST_CODE);
+                }
+            });
+            return true;
+        }
+        if (item.getItemId() == MENU_IMPORT) {
+            startActivityForResult(TransferFiles.openDocument(), IMPORT_REQUEST_CODE);
+            return true;
+        }
+        if (item.getItemId() == MENU_RETENTION) {
+            showRetentionDialog();
+            return true;
+        }
         return super.onOptionsItemSelected(item);
     }
+
+    @Override
+    protected void onActivityResult(int requestCode, int resultCode, Intent data) {
+        super.onActivityResult(requestCode, resultCode, data);
+        if (resultCode != RESULT_OK || data == null || data.getData() == null) {
+            return;
+        }
+        if (requestCode == EXPORT_REQUEST_CODE) {
+            exportHistory(data.getData(), exportFormat);
+        } else if (requestCode == IMPORT_REQUEST_CODE) {
+            importHistory(data.getData());
+        }
+    }
+
+    private void exportHistory(final Uri uri, final TransferFormat format) {
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                String message;
+                try (ParcelFileDescriptor descriptor = getContentResolver().openFileDescriptor(uri, "wt")) {
+                    if (descriptor == null) {
+                        throw new IOException("Cannot open " + uri);
+                    }
+                    try (FileOutputStream output = new FileOutputStream(descriptor.getFileDescriptor())) {
+                        int count = blockedNumbersManager.exportHistory(output.getChannel(), format);
+                        message = count + " entries exported";
+                    }
+                } catch (IOException e) {
+                    Log.e(TAG, "History export failed", e);
+                    message = "Export failed: " + e.getMessage();
+                }
+                showResult(message);
+            }
+        }).start();
+    }
+
+    /**
+     * Import an exported history on a background thread; the list refreshes when it is done
+     */
+    private void importHistory(final Uri uri) {
+        Toast.makeText(this, "Importing history...", Toast.LENGTH_SHORT).show();
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                String message;
+                try (InputStream input = getContentResolver().openInputStream(uri)) {
+                    if (input == null) {
+                        throw new IOException("Cannot open " + uri);
+                    }
+                    int added = blockedNumbersManager.importHistory(TransferFiles.channel(input), null);
+                    message = added + " entries imported";
+                } catch (IOException e) {
+                    Log.e(TAG, "History import failed", e);
+                    message = "Import failed: " + e.getMessage();
+                }
+                showResult(message);
+            }
+        }).start();
+    }
+
+    private void showResult(final String message) {
+        runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                if (isFinishing() || isDestroyed()) {
+                    return;
+                }
+                pager.refresh();
+                Toast.makeText(BlockedNumbersActivity.this, message, Toast.LENGTH_SHORT).show();
+            }
+        });
+    }
 }
\ No newline at end of file
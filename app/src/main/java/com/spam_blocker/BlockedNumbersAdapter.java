@@ -8,6 +8,8 @@ import android.widget.LinearLayout;
 import android.widget.TextView;
 
 import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.AsyncListDiffer;
+import androidx.recyclerview.widget.DiffUtil;
 import androidx.recyclerview.widget.RecyclerView;
 
 import java.text.SimpleDateFormat;
@@ -15,21 +17,50 @@ import java.util.Date;
 import java.util.List;
 import java.util.Locale;
 
+/**
+ * Shows snapshots from {@link BlockedNumbersPager}. Each new snapshot is diffed
+ * against the current one on a background thread, so a deleted row is removed
+ * on its own and the rest are not rebound.
+ */
 public class BlockedNumbersAdapter extends RecyclerView.Adapter<BlockedNumbersAdapter.BlockedNumberViewHolder> {
 
-    private BlockedNumbersManager blockedNumbersManager;
+    // Request the next page once a row this close to the end of the loaded rows is bound
+    private static final int PREFETCH_DISTANCE = BlockedNumbersPager.PAGE_SIZE / 2;
+
+    private static final DiffUtil.ItemCallback<BlockedNumber> DIFF_CALLBACK =
+            new DiffUtil.ItemCallback<BlockedNumber>() {
+                @Override
+                public boolean areItemsTheSame(@NonNull BlockedNumber oldItem, @NonNull BlockedNumber newItem) {
+                    // Snapshots share the store's entries, so unchanged rows are the same objects
+                    return oldItem.equals(newItem);
+                }
+
+                @Override
+                public boolean areContentsTheSame(@NonNull BlockedNumber oldItem, @NonNull BlockedNumber newItem) {
+                    return oldItem.equals(newItem);
+                }
+            };
+
+    private final AsyncListDiffer<BlockedNumber> differ = new AsyncListDiffer<>(this, DIFF_CALLBACK);
+    private BlockedNumbersPager pager;
     private OnBlockedNumberDeleteListener deleteListener;
 
     public interface OnBlockedNumberDeleteListener {
         void onDelete(BlockedNumber blockedNumber);
     }
 
-    public BlockedNumbersAdapter(BlockedNumbersManager blockedNumbersManager,
-            OnBlockedNumberDeleteListener deleteListener) {
-        this.blockedNumbersManager = blockedNumbersManager;
+    BlockedNumbersAdapter(BlockedNumbersPager pager, OnBlockedNumberDeleteListener deleteListener) {
+        this.pager = pager;
         this.deleteListener = deleteListener;
     }
 
+    /**
+     * Show a new snapshot once it has been diffed against the current one
+     */
+    public void submitList(List<BlockedNumber> snapshot) {
+        differ.submitList(snapshot);
+    }
+
     @NonNull
     @Override
     public BlockedNumberViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
@@ -40,8 +71,10 @@ public class BlockedNumbersAdapter extends RecyclerView.Adapter<BlockedNumbersAd
 
     @Override
     public void onBindViewHolder(@NonNull BlockedNumberViewHolder holder, int position) {
-        List<BlockedNumber> blockedNumbers = blockedNumbersManager.getBlockedNumbers();
-        BlockedNumber blockedNumber = blockedNumbers.get(position);
+        final BlockedNumber blockedNumber = differ.getCurrentList().get(position);
+        if (position >= getItemCount() - PREFETCH_DISTANCE) {
+            pager.loadMore();
+        }
 
         // Set phone number
         String phoneNumber = blockedNumber.getPhoneNumber();
@@ -83,7 +116,7 @@ public class BlockedNumbersAdapter extends RecyclerView.Adapter<BlockedNumbersAd
 
     @Override
     public int getItemCount() {
-        return blockedNumbersManager.getBlockedNumbers().size();
+        return differ.getCurrentList().size();
     }
 
     private String formatTimestamp(long timestamp) {
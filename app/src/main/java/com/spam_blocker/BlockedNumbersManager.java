@@ -1,30 +1,36 @@
 package com.spam_blocker;
 
 import android.content.Context;
-import android.content.SharedPreferences;
+import android.os.SystemClock;
 import android.util.Log;
 
+import java.io.IOException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Set;
 
 /**
- * Manages storage and retrieval of blocked phone numbers
+ * Manages storage and retrieval of blocked phone numbers.
+ * Entries live in the process-wide {@link BlockedNumberStore}.
  */
 public class BlockedNumbersManager {
     private static final String TAG = "BlockedNumbersManager";
-    private static final String PREFS_NAME = "BlockedNumbersPrefs";
-    private static final String KEY_BLOCKED_NUMBERS = "blocked_numbers";
+    private static final String[] TRANSFER_COLUMNS = {"timestamp", "phone_number", "reason", "caller_info"};
+    // Entries read from the store, or committed to it, at a time during an export or import
+    private static final int TRANSFER_BATCH = 500;
 
-    private SharedPreferences prefs;
-    private Context context;
+    /**
+     * Progress of importHistory(), called on the importing thread after every batch
+     */
+    public interface ImportListener {
+        void onProgress(int recordsRead, int entriesAdded, long bytesRead, long elapsedMillis);
+    }
+
+    private final BlockedNumberStore store;
 
     public BlockedNumbersManager(Context context) {
-        this.context = context;
-        this.prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        this.store = BlockedNumberStore.getInstance(context);
     }
 
     /**
@@ -36,18 +42,14 @@ public class BlockedNumbersManager {
             return;
         }
 
+        // Stored as the caller sent it; the store summarizes every formatting of it by canonical key
         BlockedNumber blockedNumber = new BlockedNumber(
                 phoneNumber.trim(),
                 System.currentTimeMillis(),
                 reason,
                 callerInfo);
 
-        Set<String> blockedNumbers = new HashSet<>(prefs.getStringSet(KEY_BLOCKED_NUMBERS, new HashSet<>()));
-        blockedNumbers.add(blockedNumber.toStorageString());
-
-        prefs.edit()
-                .putStringSet(KEY_BLOCKED_NUMBERS, blockedNumbers)
-                .apply();
+        store.add(blockedNumber);
 
         Log.d(TAG, "Added blocked number: " + phoneNumber + " (reason: " + reason + ")");
     }
@@ -56,32 +58,46 @@ public class BlockedNumbersManager {
      * Get all blocked numbers, sorted by most recent first
      */
     public List<BlockedNumber> getBlockedNumbers() {
-        Set<String> blockedNumbersSet = prefs.getStringSet(KEY_BLOCKED_NUMBERS, new HashSet<>());
-        List<BlockedNumber> blockedNumbers = new ArrayList<>();
-
-        for (String storageString : blockedNumbersSet) {
-            BlockedNumber blockedNumber = BlockedNumber.fromStorageString(storageString);
-            if (blockedNumber != null) {
-                blockedNumbers.add(blockedNumber);
-            }
-        }
+        return store.getAll();
+    }
 
-        // Sort by timestamp, most recent first
-        Collections.sort(blockedNumbers, new Comparator<BlockedNumber>() {
-            @Override
-            public int compare(BlockedNumber b1, BlockedNumber b2) {
-                return Long.compare(b2.getTimestamp(), b1.getTimestamp());
-            }
-        });
+    /**
+     * Get one page of blocked numbers, most recent first
+     */
+    public List<BlockedNumber> getBlockedNumbers(int offset, int limit) {
+        return store.getPage(offset, limit);
+    }
 
-        return blockedNumbers;
+    /**
+     * Get one page of the blocked numbers matching a search, most recent first.
+     * Matches number fragments in any format, reasons and caller info.
+     */
+    public List<BlockedNumber> searchBlockedNumbers(String query, int offset, int limit) {
+        if (query == null || query.trim().isEmpty()) {
+            return getBlockedNumbers(offset, limit);
+        }
+        return store.search(query, offset, limit);
     }
 
     /**
      * Get count of blocked numbers
      */
     public int getBlockedCount() {
-        return prefs.getStringSet(KEY_BLOCKED_NUMBERS, new HashSet<>()).size();
+        return store.size();
+    }
+
+    /**
+     * Counters over all blocked calls, maintained as calls are blocked
+     */
+    public BlockStatistics getStatistics() {
+        return store.getStatistics();
+    }
+
+    /**
+     * Changes whenever the history changes, so cached pages can be refreshed
+     */
+    public int getHistoryVersion() {
+        return store.getVersion();
     }
 
     /**
@@ -91,12 +107,7 @@ public class BlockedNumbersManager {
         if (blockedNumber == null)
             return;
 
-        Set<String> blockedNumbers = new HashSet<>(prefs.getStringSet(KEY_BLOCKED_NUMBERS, new HashSet<>()));
-        blockedNumbers.remove(blockedNumber.toStorageString());
-
-        prefs.edit()
-                .putStringSet(KEY_BLOCKED_NUMBERS, blockedNumbers)
-                .apply();
+        store.remove(blockedNumber);
 
         Log.d(TAG, "Removed blocked number: " + blockedNumber.getPhoneNumber());
     }
@@ -105,9 +116,7 @@ public class BlockedNumbersManager {
      * Clear all blocked numbers history
      */
     public void clearAllBlockedNumbers() {
-        prefs.edit()
-                .remove(KEY_BLOCKED_NUMBERS)
-                .apply();
+        store.clear();
 
         Log.d(TAG, "Cleared all blocked numbers history");
     }
@@ -120,32 +129,165 @@ public class BlockedNumbersManager {
             return false;
         }
 
-        List<BlockedNumber> blockedNumbers = getBlockedNumbers();
-        for (BlockedNumber blockedNumber : blockedNumbers) {
-            if (phoneNumber.equals(blockedNumber.getPhoneNumber())) {
-                return true;
-            }
+        return store.contains(phoneNumber);
+    }
+
+    /**
+     * Number of times a phone number has been blocked, including calls since dropped from the history
+     */
+    public int getBlockCount(String phoneNumber) {
+        if (phoneNumber == null) {
+            return 0;
         }
-        return false;
+        return store.count(phoneNumber);
     }
 
     /**
-     * Get blocked numbers for a specific phone number
+     * Block count, first and last time and last reason for a phone number, or null if it was never blocked
+     */
+    public NumberSummary getNumberSummary(String phoneNumber) {
+        if (phoneNumber == null || phoneNumber.trim().isEmpty()) {
+            return null;
+        }
+        return store.getSummary(phoneNumber);
+    }
+
+    /**
+     * Get blocked numbers for a specific phone number still in the history
      */
     public List<BlockedNumber> getBlockedNumbersForPhone(String phoneNumber) {
         if (phoneNumber == null || phoneNumber.trim().isEmpty()) {
             return new ArrayList<>();
         }
 
-        List<BlockedNumber> allBlocked = getBlockedNumbers();
-        List<BlockedNumber> phoneBlocked = new ArrayList<>();
+        return store.getForNumber(phoneNumber);
+    }
 
-        for (BlockedNumber blockedNumber : allBlocked) {
-            if (phoneNumber.equals(blockedNumber.getPhoneNumber())) {
-                phoneBlocked.add(blockedNumber);
+    /**
+     * Write the history to a channel, oldest first, as CSV with a header row
+     * or as NDJSON. Entries are read from the store a chunk at a time, so the
+     * history is never copied whole. The channel is left open.
+     *
+     * @return number of entries written
+     */
+    public int exportHistory(WritableByteChannel channel, TransferFormat format) throws IOException {
+        ChannelRecordWriter writer = new ChannelRecordWriter(channel, format, TRANSFER_COLUMNS);
+        BlockedNumberStore.HistoryCursor cursor = store.openCursor();
+        int count = 0;
+        List<BlockedNumber> chunk;
+        while (!(chunk = cursor.nextChunk(TRANSFER_BATCH)).isEmpty()) {
+            for (BlockedNumber blockedNumber : chunk) {
+                writer.write(blockedNumber.getTimestamp(), blockedNumber.getPhoneNumber(),
+                        blockedNumber.getReason(), blockedNumber.getCallerInfo());
             }
+            count += chunk.size();
+        }
+        writer.finish();
+
+        Log.d(TAG, "Exported " + count + " blocked numbers as " + format + ", "
+                + writer.getBytesWritten() + " bytes");
+        return count;
+    }
+
+    /**
+     * Add the entries of an exported history, CSV or NDJSON as told from the
+     * input. Records are parsed as they are read and committed to the store in
+     * batches; only an 8-byte fingerprint of each entry, kept to skip
+     * duplicates, stays in memory for the length of the import. Entries already in the history or earlier
+     * in the file, entries older than the age limit and records without a
+     * number or timestamp are skipped. Call off the main thread.
+     *
+     * @return number of entries added
+     */
+    public int importHistory(ReadableByteChannel channel, ImportListener listener) throws IOException {
+        long startTime = SystemClock.elapsedRealtime();
+        ChannelRecordReader reader = new ChannelRecordReader(channel, TRANSFER_COLUMNS);
+        // Duplicates can only be in the retained history, which the retention limit bounds, or in the file
+        LongHashSet present = new LongHashSet();
+        for (BlockedNumber blockedNumber : store.getAll()) {
+            present.add(fingerprint(blockedNumber));
+        }
+        List<BlockedNumber> batch = new ArrayList<>(TRANSFER_BATCH);
+        String[] values = new String[TRANSFER_COLUMNS.length];
+        int records = 0;
+        int added = 0;
+        int invalid = 0;
+        while (reader.next(values)) {
+            records++;
+            BlockedNumber blockedNumber = fromTransferRecord(values);
+            if (blockedNumber == null) {
+                invalid++;
+            } else if (present.add(fingerprint(blockedNumber))) {
+                batch.add(blockedNumber);
+            }
+            if (batch.size() == TRANSFER_BATCH) {
+                added += store.addAll(batch);
+                batch.clear();
+                if (listener != null) {
+                    listener.onProgress(records, added, reader.getBytesRead(),
+                            SystemClock.elapsedRealtime() - startTime);
+                }
+            }
+        }
+        if (!batch.isEmpty()) {
+            added += store.addAll(batch);
+        }
+
+        long elapsed = SystemClock.elapsedRealtime() - startTime;
+        Log.d(TAG, "Imported " + added + " blocked numbers from " + records + " " + reader.getFormat()
+                + " records in " + elapsed + " ms, " + (invalid + reader.getSkipped()) + " invalid");
+        if (listener != null) {
+            listener.onProgress(records, added, reader.getBytesRead(), elapsed);
         }
+        return added;
+    }
+
+    // 64-bit FNV-1a over the fields BlockedNumber.equals compares; never 0 or -1, which LongHashSet reserves
+    private static long fingerprint(BlockedNumber blockedNumber) {
+        long hash = 0xcbf29ce484222325L ^ blockedNumber.getTimestamp();
+        String[] fields = {blockedNumber.getPhoneNumber(), blockedNumber.getReason(), blockedNumber.getCallerInfo()};
+        for (String field : fields) {
+            String value = field != null ? field : "";
+            for (int i = 0; i < value.length(); i++) {
+                hash = (hash ^ value.charAt(i)) * 0x100000001b3L;
+            }
+            // Separator, so "ab" + "c" and "a" + "bc" differ
+            hash = (hash ^ 0xffff) * 0x100000001b3L;
+        }
+        return hash == 0 || hash == -1 ? 1 : hash;
+    }
+
+    // Null when the number or timestamp is missing or unreadable
+    private BlockedNumber fromTransferRecord(String[] values) {
+        String phoneNumber = values[1] != null ? values[1].trim() : "";
+        if (values[0] == null || phoneNumber.isEmpty()) {
+            return null;
+        }
+        long timestamp;
+        try {
+            timestamp = Long.parseLong(values[0].trim());
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        if (timestamp <= 0) {
+            return null;
+        }
+        return new BlockedNumber(phoneNumber, timestamp,
+                values[2] != null ? values[2] : "", values[3] != null ? values[3] : "");
+    }
+
+    /**
+     * Limit the history to a number of entries and an age in days (0 for no age limit)
+     */
+    public void setRetentionLimits(int maxEntries, int maxAgeDays) {
+        store.setRetention(maxEntries, maxAgeDays);
+    }
+
+    public int getMaxEntries() {
+        return store.getMaxEntries();
+    }
 
-        return phoneBlocked;
+    public int getMaxAgeDays() {
+        return store.getMaxAgeDays();
     }
-}
\ No newline at end of file
+}
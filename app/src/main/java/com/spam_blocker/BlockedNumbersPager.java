@@ -0,0 +1,240 @@
+package com.spam_blocker;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Pages the blocked-call history into the history screen.
+ *
+ * Pages are read from the store on a background thread and handed to the main
+ * thread as immutable snapshots. A snapshot shares the pages loaded before it,
+ * so binding a row is two list lookups and scrolling further reads only the
+ * next page. When the history changes, the loaded range is read again and
+ * published as a new snapshot for the adapter to diff.
+ *
+ * With a search query set, the pages are the matching entries instead, read
+ * from the store's search index a page at a time as the list scrolls.
+ */
+final class BlockedNumbersPager {
+    static final int PAGE_SIZE = 50;
+
+    interface Listener {
+        /**
+         * Called on the main thread with the rows loaded so far, matching the
+         * query if one is set, and the size of the whole history
+         */
+        void onSnapshot(List<BlockedNumber> snapshot, int total);
+    }
+
+    private final BlockedNumbersManager blockedNumbersManager;
+    private final Listener listener;
+    private final ExecutorService loader = Executors.newSingleThreadExecutor();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    // Set on the main thread, read by the loader
+    private volatile String query = "";
+
+    // Loader thread only; every page but the last is full
+    private final List<List<BlockedNumber>> pages = new ArrayList<>();
+    private int loadedVersion;
+    private String loadedQuery = "";
+    private boolean lastPageFull;
+
+    // Main thread only
+    private boolean loading;
+    private boolean hasMore;
+    private boolean released;
+
+    BlockedNumbersPager(BlockedNumbersManager blockedNumbersManager, Listener listener) {
+        this.blockedNumbersManager = blockedNumbersManager;
+        this.listener = listener;
+    }
+
+    /**
+     * Read the loaded range again, or the first page if nothing is loaded yet
+     */
+    void refresh() {
+        loading = true;
+        loader.execute(new Runnable() {
+            @Override
+            public void run() {
+                load(Math.max(1, pages.size()));
+            }
+        });
+    }
+
+    /**
+     * Show only the entries matching a query, or the whole history for an empty one
+     */
+    void setQuery(String query) {
+        String trimmed = query != null ? query.trim() : "";
+        if (trimmed.equals(this.query)) {
+            return;
+        }
+        this.query = trimmed;
+        loading = true;
+        loader.execute(new Runnable() {
+            @Override
+            public void run() {
+                load(1);
+            }
+        });
+    }
+
+    boolean isSearching() {
+        return !query.isEmpty();
+    }
+
+    /**
+     * Load the next page, unless one is already loading or the history is exhausted
+     */
+    void loadMore() {
+        if (loading || !hasMore) {
+            return;
+        }
+        loading = true;
+        loader.execute(new Runnable() {
+            @Override
+            public void run() {
+                loadNextPage();
+            }
+        });
+    }
+
+    void remove(final BlockedNumber blockedNumber) {
+        loading = true;
+        loader.execute(new Runnable() {
+            @Override
+            public void run() {
+                blockedNumbersManager.removeBlockedNumber(blockedNumber);
+                load(Math.max(1, pages.size()));
+            }
+        });
+    }
+
+    void clear() {
+        loading = true;
+        loader.execute(new Runnable() {
+            @Override
+            public void run() {
+                blockedNumbersManager.clearAllBlockedNumbers();
+                load(1);
+            }
+        });
+    }
+
+    /**
+     * Stop loading; no snapshots are delivered afterwards
+     */
+    void release() {
+        released = true;
+        loader.shutdown();
+    }
+
+    private void loadNextPage() {
+        int version = blockedNumbersManager.getHistoryVersion();
+        String current = query;
+        if (version == loadedVersion && current.equals(loadedQuery)) {
+            List<BlockedNumber> page = blockedNumbersManager.searchBlockedNumbers(current,
+                    pages.size() * PAGE_SIZE, PAGE_SIZE);
+            int total = blockedNumbersManager.getBlockedCount();
+            if (version == blockedNumbersManager.getHistoryVersion()) {
+                if (!page.isEmpty()) {
+                    pages.add(Collections.unmodifiableList(page));
+                }
+                lastPageFull = page.size() == PAGE_SIZE;
+                publish(total);
+                return;
+            }
+        }
+        // Entries shifted, or the query changed, since the loaded pages were read; offsets into them are stale
+        load(pages.size() + 1);
+    }
+
+    private void load(int pageCount) {
+        List<List<BlockedNumber>> loaded = new ArrayList<>(pageCount);
+        String current = query;
+        int version;
+        int total;
+        boolean full;
+        do {
+            loaded.clear();
+            full = false;
+            version = blockedNumbersManager.getHistoryVersion();
+            for (int i = 0; i < pageCount; i++) {
+                List<BlockedNumber> page = blockedNumbersManager.searchBlockedNumbers(current,
+                        i * PAGE_SIZE, PAGE_SIZE);
+                full = page.size() == PAGE_SIZE;
+                if (page.isEmpty()) {
+                    break;
+                }
+                loaded.add(Collections.unmodifiableList(page));
+                if (!full) {
+                    break;
+                }
+            }
+            total = blockedNumbersManager.getBlockedCount();
+        } while (version != blockedNumbersManager.getHistoryVersion());
+
+        pages.clear();
+        pages.addAll(loaded);
+        loadedVersion = version;
+        loadedQuery = current;
+        lastPageFull = full;
+        publish(total);
+    }
+
+    private void publish(final int total) {
+        final Snapshot snapshot = new Snapshot(pages);
+        // Matches are not counted ahead, so there may be more while the last page came back full
+        final boolean more = lastPageFull;
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (released) {
+                    return;
+                }
+                loading = false;
+                hasMore = more;
+                listener.onSnapshot(snapshot, total);
+            }
+        });
+    }
+
+    /**
+     * Read-only list over a fixed set of pages
+     */
+    private static final class Snapshot extends AbstractList<BlockedNumber> {
+        private final List<List<BlockedNumber>> pages;
+        private final int size;
+
+        Snapshot(List<List<BlockedNumber>> pages) {
+            this.pages = new ArrayList<>(pages);
+            int count = 0;
+            for (List<BlockedNumber> page : pages) {
+                count += page.size();
+            }
+            this.size = count;
+        }
+
+        @Override
+        public BlockedNumber get(int index) {
+            if (index < 0 || index >= size) {
+                throw new IndexOutOfBoundsException("Index " + index + ", size " + size);
+            }
+            return pages.get(index / PAGE_SIZE).get(index % PAGE_SIZE);
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+}
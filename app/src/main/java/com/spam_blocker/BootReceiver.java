@@ -0,0 +1,30 @@
+package com.spam_blocker;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.util.Log;
+
+/**
+ * Starts the process after a reboot and keeps it alive until the call
+ * decision index is warm, ready for the first call.
+ */
+public class BootReceiver extends BroadcastReceiver {
+    private static final String TAG = "BootReceiver";
+
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        if (!Intent.ACTION_BOOT_COMPLETED.equals(intent.getAction())) {
+            return;
+        }
+
+        Log.d(TAG, "Boot completed - warming call decision index");
+        final PendingResult result = goAsync();
+        CallDecisionIndex.warmUp(context, new Runnable() {
+            @Override
+            public void run() {
+                result.finish();
+            }
+        });
+    }
+}
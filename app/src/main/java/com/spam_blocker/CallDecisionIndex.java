@@ -0,0 +1,339 @@
+package com.spam_blocker;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Process-wide decision on a ringing call from what is already known about
+ * its number: the imported blocklist, the number rules and the block history.
+ *
+ * Everything it consults stays resident once it is warm: the blocklist is
+ * mapped and read in, the rules are a compiled trie and the history keeps lock-free sets
+ * of the numbers blocked once and more than once. The scoring threshold and
+ * weights are read once and folded into which block counts end a call, and
+ * refolded when they change. Deciding a call is then a few lookups in memory,
+ * with no I/O and no locks.
+ *
+ * The index is warmed in the background by {@link SpamBlockerApplication}
+ * when the process starts and by {@link BootReceiver} after a reboot. Until
+ * it is warm, calls are decided from a {@link DecisionSnapshot} of the same
+ * state, mapped when the index is created, so a call that starts the process
+ * does not wait for the history or the preferences to load. The snapshot is
+ * rewritten in the background a second after any of that state changes. The
+ * time from process start to the first decision is logged and kept in
+ * SpamBlockerPrefs.
+ */
+public final class CallDecisionIndex {
+    private static final String TAG = "CallDecisionIndex";
+    private static final String PREFS_NAME = "SpamBlockerPrefs";
+    private static final String KEY_COLD_START_MILLIS = "cold_start_decision_millis";
+    private static final String KEY_COLD_START_SOURCE = "cold_start_decision_source";
+
+    // Changes arriving within this window are written in one snapshot
+    private static final long SNAPSHOT_DELAY_MILLIS = 1000;
+    // A first decision this soon after the process started is counted as a cold start
+    private static final long COLD_START_WINDOW_MILLIS = 30000;
+
+    private static CallDecisionIndex instance;
+
+    /**
+     * Outcome for one number; calls that are not blocked go on to the screen scan
+     */
+    public static final class Decision {
+        static final Decision ALLOW = new Decision(null, null);
+        static final Decision BLOCKLIST = new Decision("Imported blocklist", "Known spam number");
+        static final Decision REPEAT_CALLER = new Decision("Previously blocked number", "Known spam number");
+
+        private final String reason;
+        private final String callerInfo;
+
+        Decision(String reason, String callerInfo) {
+            this.reason = reason;
+            this.callerInfo = callerInfo;
+        }
+
+        public boolean shouldBlock() {
+            return reason != null;
+        }
+
+        public String getReason() {
+            return reason;
+        }
+
+        public String getCallerInfo() {
+            return callerInfo;
+        }
+    }
+
+    /**
+     * The scorer and the ring-time verdict for each block count; replaced, never modified
+     */
+    private static final class Scoring {
+        final SpamScorer scorer;
+        // Index is the number of earlier blocks, up to BlockedNumberStore.MAX_KEYED_COUNT
+        final boolean[] blocksAtCount = new boolean[BlockedNumberStore.MAX_KEYED_COUNT + 1];
+
+        Scoring(SpamScorer scorer) {
+            this.scorer = scorer;
+            for (int count = 0; count < blocksAtCount.length; count++) {
+                blocksAtCount[count] = scorer.blocksRepeatCaller(count);
+            }
+        }
+    }
+
+    private final Context context;
+    private final File snapshotFile;
+    // Snapshot writes and the cold-start report run here, in order
+    private final ScheduledExecutorService snapshotWriter = Executors.newSingleThreadScheduledExecutor();
+    private final AtomicBoolean decided = new AtomicBoolean();
+    // Used until the live state is loaded, then dropped
+    private volatile DecisionSnapshot cold;
+    // Set once by warm(), together with scoring
+    private volatile boolean warm;
+    private PhoneNumberCanonicalizer canonicalizer;
+    private BlockedNumberStore store;
+    private NumberRules rules;
+    private volatile Scoring scoring;
+    // Guarded by this
+    private boolean snapshotScheduled;
+    // Checksum of the snapshot last written or mapped, so unchanged state is not rewritten
+    private int writtenChecksum;
+
+    // Held in a field: SharedPreferences only keeps a weak reference to listeners
+    private final SharedPreferences.OnSharedPreferenceChangeListener preferenceListener =
+            new SharedPreferences.OnSharedPreferenceChangeListener() {
+                @Override
+                public void onSharedPreferenceChanged(SharedPreferences sharedPreferences, String key) {
+                    if (key == null || SpamScorer.isScoringKey(key)) {
+                        scoring = new Scoring(SpamScorer.fromPreferences(context));
+                        Log.d(TAG, "Scoring preferences changed");
+                    }
+                    // Rules and the country code live here too; unchanged state is not rewritten
+                    scheduleSnapshot();
+                }
+            };
+
+    private CallDecisionIndex(Context context) {
+        this.context = context;
+        snapshotFile = new File(context.getFilesDir(), DecisionSnapshot.FILE_NAME);
+        DecisionSnapshot mapped = DecisionSnapshot.read(snapshotFile);
+        long logLength = new File(context.getFilesDir(), BlockedNumberStore.FILE_NAME).length();
+        if (mapped != null && mapped.getLogLength() == logLength) {
+            cold = mapped;
+            writtenChecksum = mapped.getChecksum();
+            Log.d(TAG, "Mapped decision snapshot");
+        } else if (mapped != null) {
+            Log.d(TAG, "Decision snapshot is stale, log is " + logLength + " bytes, not "
+                    + mapped.getLogLength());
+        }
+    }
+
+    /**
+     * The index, created on first use; creating it only maps the snapshot
+     */
+    public static synchronized CallDecisionIndex getInstance(Context context) {
+        if (instance == null) {
+            instance = new CallDecisionIndex(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    /**
+     * Load the live state and the keywords on a background thread, then run
+     * done, if given, on that thread
+     */
+    public static void warmUp(Context context, final Runnable done) {
+        final Context appContext = context.getApplicationContext();
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                long startTime = SystemClock.elapsedRealtime();
+                try {
+                    getInstance(appContext).warm();
+                    KeywordManager.getInstance(appContext);
+                    Log.d(TAG, "Warm in " + (SystemClock.elapsedRealtime() - startTime) + " ms");
+                } catch (RuntimeException e) {
+                    Log.e(TAG, "Warm-up failed", e);
+                } finally {
+                    if (done != null) {
+                        done.run();
+                    }
+                }
+            }
+        }, "CallDecisionWarmUp").start();
+    }
+
+    // Load the history, rules, blocklist and scoring; the first caller does the work, later ones wait for it
+    private synchronized void warm() {
+        if (warm) {
+            return;
+        }
+        canonicalizer = PhoneNumberCanonicalizer.getInstance(context);
+        store = BlockedNumberStore.getInstance(context);
+        rules = NumberRules.getInstance(context);
+        // Mapping is cheap enough to happen at ring time; reading the pages in is not
+        NumberBlocklist.getInstance(context).load();
+        scoring = new Scoring(SpamScorer.fromPreferences(context));
+        context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE)
+                .registerOnSharedPreferenceChangeListener(preferenceListener);
+        store.setKeysListener(new Runnable() {
+            @Override
+            public void run() {
+                scheduleSnapshot();
+            }
+        });
+        warm = true;
+        cold = null;
+        // Brings a missing or stale snapshot up to date
+        scheduleSnapshot();
+    }
+
+    /**
+     * Decide a ringing call from its number, or null if there is none. Before
+     * the index is warm the snapshot decides, except for numbers that have no
+     * canonical key, which wait for the history to load.
+     */
+    public Decision decide(String phoneNumber) {
+        Decision decision;
+        String source;
+        DecisionSnapshot mapped = cold;
+        long key = mapped != null ? mapped.toKey(phoneNumber) : 0;
+        if (!warm && mapped != null && (key != 0 || phoneNumber == null)) {
+            decision = decide(mapped, phoneNumber, key);
+            source = "snapshot";
+        } else {
+            source = warm ? "resident" : "loaded";
+            warm();
+            decision = decideWarm(phoneNumber);
+        }
+        if (decided.compareAndSet(false, true)) {
+            reportFirstDecision(source);
+        }
+        return decision;
+    }
+
+    private Decision decideWarm(String phoneNumber) {
+        long key = canonicalizer.toKey(phoneNumber);
+        if (NumberBlocklist.getInstance(context).contains(key)) {
+            return Decision.BLOCKLIST;
+        }
+        NumberRule rule = rules.match(key);
+        if (rule != null) {
+            return ruleDecision(rule);
+        }
+        if (phoneNumber == null) {
+            return Decision.ALLOW;
+        }
+        // Numbers without a key are looked up in the history under its lock, still without I/O
+        int count = key != 0
+                ? store.keyedCount(key)
+                : Math.min(store.count(phoneNumber), BlockedNumberStore.MAX_KEYED_COUNT);
+        return scoring.blocksAtCount[count] ? Decision.REPEAT_CALLER : Decision.ALLOW;
+    }
+
+    private Decision decide(DecisionSnapshot mapped, String phoneNumber, long key) {
+        if (NumberBlocklist.getInstance(context).contains(key)) {
+            return Decision.BLOCKLIST;
+        }
+        NumberRule rule = mapped.matchRule(key);
+        if (rule != null) {
+            return ruleDecision(rule);
+        }
+        if (phoneNumber == null) {
+            return Decision.ALLOW;
+        }
+        return mapped.blocksAtCount(mapped.keyedCount(key)) ? Decision.REPEAT_CALLER : Decision.ALLOW;
+    }
+
+    private static Decision ruleDecision(NumberRule rule) {
+        return new Decision("Number rule: " + rule, "Blocked number range");
+    }
+
+    /**
+     * Scorer with the current threshold and weights, for the screen scan
+     */
+    public SpamScorer getScorer() {
+        warm();
+        return scoring.scorer;
+    }
+
+    /**
+     * Time from process start to the first decision at the last cold start,
+     * e.g. "85 ms (snapshot)", or null if there has not been one
+     */
+    public String getColdStartStats() {
+        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        long millis = prefs.getLong(KEY_COLD_START_MILLIS, -1);
+        if (millis < 0) {
+            return null;
+        }
+        return millis + " ms (" + prefs.getString(KEY_COLD_START_SOURCE, "") + ")";
+    }
+
+    // Saved off the ringing thread: writing the preferences loads them first
+    private void reportFirstDecision(final String source) {
+        final long millis = SystemClock.elapsedRealtime() - Process.getStartElapsedRealtime();
+        if (millis > COLD_START_WINDOW_MILLIS) {
+            Log.d(TAG, "First decision " + millis + " ms after process start, not a cold start");
+            return;
+        }
+        Log.i(TAG, "Cold start to first decision: " + millis + " ms (" + source + ")");
+        snapshotWriter.execute(new Runnable() {
+            @Override
+            public void run() {
+                context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE).edit()
+                        .putLong(KEY_COLD_START_MILLIS, millis)
+                        .putString(KEY_COLD_START_SOURCE, source)
+                        .apply();
+            }
+        });
+    }
+
+    private synchronized void scheduleSnapshot() {
+        if (snapshotScheduled || !warm) {
+            return;
+        }
+        snapshotScheduled = true;
+        snapshotWriter.schedule(new Runnable() {
+            @Override
+            public void run() {
+                writeSnapshot();
+            }
+        }, SNAPSHOT_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    private void writeSnapshot() {
+        synchronized (this) {
+            snapshotScheduled = false;
+        }
+        BlockedNumberStore.NumberKeys keys = store.exportKeys();
+        if (keys == null) {
+            // The store calls back once its queued records are in the log
+            return;
+        }
+        NumberRules.Snapshot ruleSnapshot = rules.getSnapshot();
+        ByteBuffer encoded = DecisionSnapshot.encode(keys.logLength, scoring.blocksAtCount, keys.blocked,
+                keys.repeated, ruleSnapshot.trie, ruleSnapshot.rules, canonicalizer.getDefaultCountryCode());
+        int checksum = DecisionSnapshot.checksumOf(encoded);
+        if (checksum == writtenChecksum && snapshotFile.exists()) {
+            return;
+        }
+        try {
+            DecisionSnapshot.write(snapshotFile, encoded);
+            writtenChecksum = checksum;
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to write decision snapshot", e);
+        }
+    }
+}
@@ -13,6 +13,8 @@ import java.lang.reflect.Method;
 
 public class CallReceiver extends BroadcastReceiver {
     private static final String TAG = "CallReceiver";
+    // Longest the main thread waits for a blocked call's record to reach the disk
+    private static final long RECORD_FLUSH_TIMEOUT_MILLIS = 1000;
     private static AudioManager audioManager;
     private static int previousRingerMode;
     private static boolean isCallActive = false;
@@ -61,17 +63,15 @@ public class CallReceiver extends BroadcastReceiver {
             }
         }
 
-        // Check if the number is already in the blocked list
-        if (currentPhoneNumber != null) {
-            BlockedNumbersManager blockedManager = new BlockedNumbersManager(context);
-            if (blockedManager.isNumberBlocked(currentPhoneNumber)) {
-                Log.d(TAG, "Number " + currentPhoneNumber + " is already blocked - ending call immediately");
-                endCall(context, "Previously blocked number", "Known spam number");
-                return; // Don't start accessibility service scan
-            } else {
-                Log.d(TAG, "Number " + currentPhoneNumber + " not in blocked list - starting scan");
-            }
+        // Blocklist, number rules and block history, from memory or the mapped snapshot
+        CallDecisionIndex.Decision decision = CallDecisionIndex.getInstance(context).decide(currentPhoneNumber);
+        if (decision.shouldBlock()) {
+            Log.d(TAG, "Number " + currentPhoneNumber + " blocked (" + decision.getReason()
+                    + ") - ending call immediately");
+            endCall(context, decision.getReason(), decision.getCallerInfo());
+            return; // Don't start accessibility service scan
         }
+        Log.d(TAG, "Number " + currentPhoneNumber + " not known spam - starting scan");
 
         // Notify the accessibility service that a call is incoming
         CallStateManager.getInstance().setCallIncoming(true);
@@ -135,13 +135,8 @@ public class CallReceiver extends BroadcastReceiver {
 
     public static void endCall(Context context, String reason, String callerInfo) {
         Log.d(TAG, "Ending call - spam detected. Reason: " + reason);
-
-        // Store the blocked number
-        if (currentPhoneNumber != null) {
-            BlockedNumbersManager blockedManager = new BlockedNumbersManager(context);
-            blockedManager.addBlockedNumber(currentPhoneNumber, reason, callerInfo);
-            Log.d(TAG, "Stored blocked number: " + currentPhoneNumber);
-        }
+        // Captured first: ending the call leads to an idle broadcast that clears it
+        String phoneNumber = currentPhoneNumber;
 
         try {
             if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.P) {
@@ -164,6 +159,15 @@ public class CallReceiver extends BroadcastReceiver {
         } catch (Exception e) {
             Log.e(TAG, "Failed to end call", e);
         }
+
+        // Store the blocked number once the call is down. The process may be killed once
+        // this returns, so the record is written now rather than after the usual delay.
+        if (phoneNumber != null) {
+            BlockedNumbersManager blockedManager = new BlockedNumbersManager(context);
+            blockedManager.addBlockedNumber(phoneNumber, reason, callerInfo);
+            BlockedNumberStore.getInstance(context).flush(RECORD_FLUSH_TIMEOUT_MILLIS);
+            Log.d(TAG, "Stored blocked number: " + phoneNumber);
+        }
     }
 
     public static String getCurrentPhoneNumber() {
@@ -9,6 +9,7 @@ public class CallStateManager {
     private boolean isCallIncoming = false;
     private boolean hasCheckedCaller = false;
     private long callStartTime = 0;
+    private String callerIdPackage = null;
     
     private CallStateManager() {}
     
@@ -24,6 +25,7 @@ public class CallStateManager {
         if (incoming) {
             callStartTime = System.currentTimeMillis();
             hasCheckedCaller = false;
+            callerIdPackage = null;
             Log.d(TAG, "Call incoming, timer started");
         }
     }
@@ -48,10 +50,22 @@ public class CallStateManager {
         return System.currentTimeMillis() - callStartTime;
     }
     
+    /**
+     * Remember that a caller-ID app showed a window during the current call
+     */
+    public synchronized void setCallerIdPackage(String packageName) {
+        callerIdPackage = packageName;
+    }
+
+    public synchronized String getCallerIdPackage() {
+        return callerIdPackage;
+    }
+
     public synchronized void reset() {
         isCallIncoming = false;
         hasCheckedCaller = false;
         callStartTime = 0;
+        callerIdPackage = null;
         Log.d(TAG, "Call state reset");
     }
 }
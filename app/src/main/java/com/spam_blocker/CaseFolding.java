@@ -0,0 +1,56 @@
+package com.spam_blocker;
+
+/**
+ * Locale-independent case folding through a precomputed table.
+ *
+ * Every UTF-16 unit is mapped once, at class load, to the lowercase form of its
+ * uppercase form. That collapses Turkish dotted/dotless i, final sigma and
+ * similar pairs onto one character, so keywords and screen text fold the same
+ * way regardless of the device locale, and folding a character at scan time is
+ * a single array read.
+ */
+public final class CaseFolding {
+    private static final char[] FOLD = new char[Character.MAX_VALUE + 1];
+
+    static {
+        for (int c = 0; c <= Character.MAX_VALUE; c++) {
+            FOLD[c] = Character.toLowerCase(Character.toUpperCase((char) c));
+        }
+    }
+
+    private CaseFolding() {
+    }
+
+    /**
+     * Fold a single character
+     */
+    public static char fold(char c) {
+        return FOLD[c];
+    }
+
+    /**
+     * Fold a whole string; only used when storing keywords, never on the scan path
+     */
+    public static String fold(String text) {
+        char[] folded = new char[text.length()];
+        for (int i = 0; i < folded.length; i++) {
+            folded[i] = FOLD[text.charAt(i)];
+        }
+        return new String(folded);
+    }
+
+    /**
+     * Check whether text[start, end) equals an already folded string, ignoring case
+     */
+    public static boolean equalsFolded(CharSequence text, int start, int end, String folded) {
+        if (end - start != folded.length()) {
+            return false;
+        }
+        for (int i = start; i < end; i++) {
+            if (FOLD[text.charAt(i)] != folded.charAt(i - start)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
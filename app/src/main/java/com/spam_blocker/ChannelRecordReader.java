@@ -0,0 +1,402 @@
+package com.spam_blocker;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Reads records written by {@link ChannelRecordWriter}, or by hand, from a channel.
+ *
+ * Bytes are read into a fixed direct buffer and decoded into a fixed char
+ * buffer, and records are parsed a character at a time from it, so memory
+ * stays constant whatever the size of the file. The format is taken from the
+ * first character: '{' starts NDJSON, anything else CSV.
+ *
+ * CSV columns are matched by the header row; a file without one is read by
+ * position. Quoted fields may contain commas, quotes and line breaks. NDJSON
+ * lines must be flat objects; other keys are ignored. Records that cannot be
+ * parsed, or are longer than {@link #MAX_RECORD_CHARS}, are skipped and
+ * counted rather than failing the import.
+ */
+final class ChannelRecordReader {
+    static final int MAX_RECORD_CHARS = 64 * 1024;
+
+    private static final int BUFFER_BYTES = 64 * 1024;
+    private static final int BUFFER_CHARS = 16 * 1024;
+    private static final int END = -1;
+    // Nothing pushed back
+    private static final int NONE = -2;
+
+    private final ReadableByteChannel channel;
+    private final String[] columns;
+    private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    private final ByteBuffer bytes = ByteBuffer.allocateDirect(BUFFER_BYTES);
+    private final CharBuffer chars = CharBuffer.allocate(BUFFER_CHARS);
+    private boolean endOfInput;
+    private boolean needBytes = true;
+    private int pushedBack = NONE;
+    private long bytesRead;
+
+    private final TransferFormat format;
+    // CSV field index of each column, or -1 if the file has no such column
+    private int[] csvIndexes;
+    private final List<String> fields = new ArrayList<>();
+    private final StringBuilder text = new StringBuilder(256);
+    private boolean tooLong;
+    private int skipped;
+
+    /**
+     * Start reading records with the given columns
+     */
+    ChannelRecordReader(ReadableByteChannel channel, String... columns) throws IOException {
+        this.channel = channel;
+        this.columns = columns;
+        bytes.flip();
+        chars.flip();
+
+        int c = read();
+        if (c == '\uFEFF') {
+            c = read();
+        }
+        while (c == ' ' || c == '\t' || c == '\r' || c == '\n') {
+            c = read();
+        }
+        unread(c);
+        format = c == '{' ? TransferFormat.NDJSON : TransferFormat.CSV;
+    }
+
+    TransferFormat getFormat() {
+        return format;
+    }
+
+    /**
+     * Read the next record into values, one per column, null where the record
+     * has none; false at the end of the input
+     */
+    boolean next(String[] values) throws IOException {
+        while (true) {
+            Arrays.fill(values, null);
+            int result = format == TransferFormat.CSV ? nextCsv(values) : nextJson(values);
+            if (result == END) {
+                return false;
+            }
+            if (result > 0) {
+                return true;
+            }
+            // Blank lines and the CSV header are not records; malformed ones were counted
+        }
+    }
+
+    /**
+     * Records skipped because they could not be parsed
+     */
+    int getSkipped() {
+        return skipped;
+    }
+
+    long getBytesRead() {
+        return bytesRead;
+    }
+
+    // 1 for a record, 0 for a line that is not one, END at the end of the input
+    private int nextCsv(String[] values) throws IOException {
+        if (!readCsvRecord()) {
+            return END;
+        }
+        if (fields.size() == 1 && fields.get(0).isEmpty()) {
+            return 0;
+        }
+        if (tooLong) {
+            skipped++;
+            return 0;
+        }
+        if (csvIndexes == null) {
+            csvIndexes = new int[columns.length];
+            boolean header = false;
+            for (int i = 0; i < columns.length; i++) {
+                csvIndexes[i] = -1;
+                for (int j = 0; j < fields.size(); j++) {
+                    if (fields.get(j).trim().toLowerCase(Locale.ROOT).equals(columns[i])) {
+                        csvIndexes[i] = j;
+                        header = true;
+                    }
+                }
+            }
+            if (header) {
+                return 0;
+            }
+            // No header; columns are in their usual order
+            for (int i = 0; i < columns.length; i++) {
+                csvIndexes[i] = i;
+            }
+        }
+        for (int i = 0; i < columns.length; i++) {
+            int index = csvIndexes[i];
+            if (index >= 0 && index < fields.size()) {
+                values[i] = fields.get(index);
+            }
+        }
+        return 1;
+    }
+
+    // Fields of the next CSV record, up to an unquoted line break; false at the end of the input
+    private boolean readCsvRecord() throws IOException {
+        fields.clear();
+        text.setLength(0);
+        tooLong = false;
+        int c = read();
+        if (c == END) {
+            return false;
+        }
+        boolean quoted = false;
+        boolean fieldStart = true;
+        int length = 0;
+        for (; c != END; c = read()) {
+            if (quoted) {
+                if (c == '"') {
+                    int following = read();
+                    if (following != '"') {
+                        quoted = false;
+                        unread(following);
+                        continue;
+                    }
+                }
+                length = append(c, length);
+                continue;
+            }
+            if (c == '"' && fieldStart) {
+                quoted = true;
+                fieldStart = false;
+            } else if (c == ',') {
+                fields.add(text.toString());
+                text.setLength(0);
+                fieldStart = true;
+            } else if (c == '\n') {
+                break;
+            } else if (c != '\r') {
+                length = append(c, length);
+                fieldStart = false;
+            }
+        }
+        fields.add(text.toString());
+        return true;
+    }
+
+    // 1 for a record, 0 for a line that is not one, END at the end of the input
+    private int nextJson(String[] values) throws IOException {
+        int c = skipWhitespace();
+        if (c == END) {
+            return END;
+        }
+        if (c == '\n') {
+            return 0;
+        }
+        tooLong = false;
+        if (c != '{' || !readJsonObject(values) || tooLong) {
+            skipped++;
+            skipLine();
+            return 0;
+        }
+        c = skipWhitespace();
+        if (c != '\n' && c != END) {
+            skipped++;
+            skipLine();
+            return 0;
+        }
+        return 1;
+    }
+
+    // Members of a flat object whose '{' has been read; false if it is malformed
+    private boolean readJsonObject(String[] values) throws IOException {
+        int c = skipWhitespace();
+        if (c == '}') {
+            return true;
+        }
+        while (true) {
+            if (c != '"') {
+                return malformed(c);
+            }
+            String key = readJsonString();
+            if (key == null) {
+                return false;
+            }
+            c = skipWhitespace();
+            if (c != ':') {
+                return malformed(c);
+            }
+            c = skipWhitespace();
+            String value;
+            if (c == '"') {
+                value = readJsonString();
+                if (value == null) {
+                    return false;
+                }
+            } else {
+                value = readJsonLiteral(c);
+                if (value == null) {
+                    return false;
+                }
+            }
+            for (int i = 0; i < columns.length; i++) {
+                if (columns[i].equals(key)) {
+                    values[i] = "null".equals(value) && c != '"' ? null : value;
+                }
+            }
+            c = skipWhitespace();
+            if (c == '}') {
+                return true;
+            }
+            if (c != ',') {
+                return malformed(c);
+            }
+            c = skipWhitespace();
+        }
+    }
+
+    // Leave a line break that ended a malformed record to end it
+    private boolean malformed(int c) {
+        unread(c);
+        return false;
+    }
+
+    // A string whose opening quote has been read; null if it is malformed
+    private String readJsonString() throws IOException {
+        text.setLength(0);
+        int length = 0;
+        for (int c = read(); ; c = read()) {
+            if (c == END || c == '\n') {
+                unread(c);
+                return null;
+            }
+            if (c == '"') {
+                return text.toString();
+            }
+            if (c == '\\') {
+                c = read();
+                switch (c) {
+                    case 'n':
+                        c = '\n';
+                        break;
+                    case 'r':
+                        c = '\r';
+                        break;
+                    case 't':
+                        c = '\t';
+                        break;
+                    case 'b':
+                        c = '\b';
+                        break;
+                    case 'f':
+                        c = '\f';
+                        break;
+                    case 'u':
+                        int code = 0;
+                        for (int i = 0; i < 4; i++) {
+                            int digit = Character.digit(read(), 16);
+                            if (digit < 0) {
+                                return null;
+                            }
+                            code = code * 16 + digit;
+                        }
+                        c = code;
+                        break;
+                    case '"':
+                    case '\\':
+                    case '/':
+                        break;
+                    default:
+                        unread(c);
+                        return null;
+                }
+            }
+            length = append(c, length);
+        }
+    }
+
+    // A number, true, false or null starting with c; null for anything else, nested values included
+    private String readJsonLiteral(int c) throws IOException {
+        text.setLength(0);
+        while (c != END && (Character.isLetterOrDigit(c) || c == '-' || c == '+' || c == '.')) {
+            if (text.length() < 32) {
+                text.append((char) c);
+            }
+            c = read();
+        }
+        unread(c);
+        return text.length() > 0 ? text.toString() : null;
+    }
+
+    private int append(int c, int length) {
+        if (length < MAX_RECORD_CHARS) {
+            text.append((char) c);
+        } else {
+            tooLong = true;
+        }
+        return length + 1;
+    }
+
+    // Next character that is not a space or tab
+    private int skipWhitespace() throws IOException {
+        int c;
+        do {
+            c = read();
+        } while (c == ' ' || c == '\t' || c == '\r');
+        return c;
+    }
+
+    private void skipLine() throws IOException {
+        int c;
+        do {
+            c = read();
+        } while (c != '\n' && c != END);
+    }
+
+    private void unread(int c) {
+        pushedBack = c;
+    }
+
+    private int read() throws IOException {
+        if (pushedBack != NONE) {
+            int c = pushedBack;
+            pushedBack = NONE;
+            return c;
+        }
+        if (!chars.hasRemaining() && !fill()) {
+            return END;
+        }
+        return chars.get();
+    }
+
+    // Decode more characters, reading from the channel as needed; false at the end of the input
+    private boolean fill() throws IOException {
+        chars.clear();
+        while (chars.position() == 0 && !endOfInput) {
+            if (needBytes) {
+                bytes.compact();
+                int n = channel.read(bytes);
+                bytes.flip();
+                if (n < 0) {
+                    decoder.decode(bytes, chars, true);
+                    decoder.flush(chars);
+                    endOfInput = true;
+                    break;
+                }
+                bytesRead += n;
+            }
+            // Underflow: the bytes left, if any, end in part of a character
+            needBytes = decoder.decode(bytes, chars, false).isUnderflow();
+        }
+        chars.flip();
+        return chars.hasRemaining();
+    }
+}
@@ -0,0 +1,177 @@
+package com.spam_blocker;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes records as CSV rows or NDJSON lines to a channel.
+ *
+ * Each record is formatted into one reused builder and encoded as UTF-8 into
+ * a fixed direct buffer, which is written to the channel whenever it fills,
+ * so memory stays constant however many records are written. The channel is
+ * left open; call {@link #finish} to write what is still buffered.
+ */
+final class ChannelRecordWriter {
+    private static final int BUFFER_BYTES = 64 * 1024;
+
+    private final WritableByteChannel channel;
+    private final TransferFormat format;
+    private final String[] columns;
+    private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    private final ByteBuffer bytes = ByteBuffer.allocateDirect(BUFFER_BYTES);
+    private final StringBuilder line = new StringBuilder(256);
+    private long bytesWritten;
+
+    /**
+     * Start a file with the given columns; a CSV file gets its header row here
+     */
+    ChannelRecordWriter(WritableByteChannel channel, TransferFormat format, String... columns) throws IOException {
+        this.channel = channel;
+        this.format = format;
+        this.columns = columns;
+        if (format == TransferFormat.CSV) {
+            for (int i = 0; i < columns.length; i++) {
+                if (i > 0) {
+                    line.append(',');
+                }
+                appendCsv(columns[i]);
+            }
+            endLine();
+        }
+    }
+
+    /**
+     * Write one record, a value per column; numbers are written unquoted in NDJSON
+     */
+    void write(Object... values) throws IOException {
+        if (values.length != columns.length) {
+            throw new IllegalArgumentException(values.length + " values for " + columns.length + " columns");
+        }
+        if (format == TransferFormat.CSV) {
+            for (int i = 0; i < values.length; i++) {
+                if (i > 0) {
+                    line.append(',');
+                }
+                if (values[i] != null) {
+                    appendCsv(String.valueOf(values[i]));
+                }
+            }
+        } else {
+            line.append('{');
+            for (int i = 0; i < values.length; i++) {
+                if (i > 0) {
+                    line.append(',');
+                }
+                appendJsonString(columns[i]);
+                line.append(':');
+                if (values[i] == null) {
+                    line.append("null");
+                } else if (values[i] instanceof Number) {
+                    line.append(values[i]);
+                } else {
+                    appendJsonString(String.valueOf(values[i]));
+                }
+            }
+            line.append('}');
+        }
+        endLine();
+    }
+
+    /**
+     * Write everything still buffered to the channel
+     */
+    void finish() throws IOException {
+        encoder.encode(CharBuffer.allocate(0), bytes, true);
+        while (encoder.flush(bytes).isOverflow()) {
+            drain();
+        }
+        drain();
+    }
+
+    long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    private void endLine() throws IOException {
+        line.append('\n');
+        // A line ends in a newline, so no surrogate pair is ever split across two encodes
+        CharBuffer chars = CharBuffer.wrap(line);
+        CoderResult result;
+        while ((result = encoder.encode(chars, bytes, false)).isOverflow()) {
+            drain();
+        }
+        if (result.isError()) {
+            result.throwException();
+        }
+        line.setLength(0);
+    }
+
+    private void drain() throws IOException {
+        bytes.flip();
+        while (bytes.hasRemaining()) {
+            bytesWritten += channel.write(bytes);
+        }
+        bytes.clear();
+    }
+
+    // Quoted only when it has to be: a comma, quote or line break inside, or spaces at either end
+    private void appendCsv(String value) {
+        boolean quote = !value.isEmpty() && (value.charAt(0) == ' ' || value.charAt(value.length() - 1) == ' ');
+        for (int i = 0; i < value.length() && !quote; i++) {
+            char c = value.charAt(i);
+            quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!quote) {
+            line.append(value);
+            return;
+        }
+        line.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"') {
+                line.append('"');
+            }
+            line.append(c);
+        }
+        line.append('"');
+    }
+
+    private void appendJsonString(String value) {
+        line.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    line.append("\\\"");
+                    break;
+                case '\\':
+                    line.append("\\\\");
+                    break;
+                case '\n':
+                    line.append("\\n");
+                    break;
+                case '\r':
+                    line.append("\\r");
+                    break;
+                case '\t':
+                    line.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        line.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        line.append(c);
+                    }
+            }
+        }
+        line.append('"');
+    }
+}
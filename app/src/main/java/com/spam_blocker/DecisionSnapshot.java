@@ -0,0 +1,264 @@
+package com.spam_blocker;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Compiled ring-time decision state, so a call that starts the process can be
+ * decided before the history log is replayed or the preferences are parsed.
+ *
+ * The file holds the canonical keys of the numbers blocked once or more and
+ * of those blocked more than once, the number-rule trie with the rules it was
+ * compiled from, which block counts end a call under the scoring settings, and
+ * the default country code the keys were made with. It is memory-mapped
+ * read-only and used in place; the key lists are binary-searched without
+ * copying. A CRC-32 over everything after the checksum is verified when the
+ * file is opened, and writes go to a temporary file that is renamed over the old
+ * one, so a torn or damaged file is never used.
+ *
+ * The header records the length of the history log the keys were read from.
+ * A file whose length no longer matches is stale, for example because the
+ * process died after blocking a call but before the file was rewritten, and
+ * is not used.
+ */
+final class DecisionSnapshot {
+    private static final String TAG = "DecisionSnapshot";
+    public static final String FILE_NAME = "decision.bin";
+
+    private static final int MAGIC = 0x31534453; // "SDS1" little-endian
+    private static final int VERSION = 1;
+    // int magic, int version, int bodyBytes, int crc32, long logLength
+    private static final int HEADER_BYTES = 24;
+    // The checksum covers the log length and the body
+    private static final int CHECKED_OFFSET = 16;
+    // int verdicts, int blockedCount, int repeatedCount, int reserved
+    private static final int BODY_HEADER_BYTES = 16;
+
+    private final long logLength;
+    private final int checksum;
+    private final int verdicts;
+    private final LongBuffer blocked;
+    private final LongBuffer repeated;
+    private final DigitTrie trie;
+    // The country code, then the rules by trie id
+    private final KeywordTable strings;
+    private final PhoneNumberCanonicalizer canonicalizer;
+
+    private DecisionSnapshot(ByteBuffer buffer) {
+        checksum = buffer.getInt(12);
+        logLength = buffer.getLong(16);
+        buffer.position(HEADER_BYTES);
+        verdicts = buffer.getInt();
+        int blockedCount = buffer.getInt();
+        int repeatedCount = buffer.getInt();
+        buffer.getInt();
+        blocked = slice(buffer, buffer.position(), blockedCount * 8).asLongBuffer();
+        buffer.position(buffer.position() + blockedCount * 8);
+        repeated = slice(buffer, buffer.position(), repeatedCount * 8).asLongBuffer();
+        buffer.position(buffer.position() + repeatedCount * 8);
+        trie = DigitTrie.read(buffer);
+        strings = KeywordTable.read(buffer);
+        if (strings.size() < 1) {
+            throw new IllegalArgumentException("No country code");
+        }
+        canonicalizer = PhoneNumberCanonicalizer.forCountryCode(strings.get(0));
+    }
+
+    /**
+     * Length of the history log the number keys were read from
+     */
+    long getLogLength() {
+        return logLength;
+    }
+
+    int getChecksum() {
+        return checksum;
+    }
+
+    /**
+     * Key of a phone number made with the country code of the snapshot, so it
+     * matches the keys in it
+     */
+    long toKey(String phoneNumber) {
+        return canonicalizer.toKey(phoneNumber);
+    }
+
+    /**
+     * Times a key was blocked, counting no further than
+     * {@link BlockedNumberStore#MAX_KEYED_COUNT}. Allocation-free.
+     */
+    int keyedCount(long key) {
+        if (key == 0) {
+            return 0;
+        }
+        return contains(repeated, key) ? BlockedNumberStore.MAX_KEYED_COUNT : contains(blocked, key) ? 1 : 0;
+    }
+
+    /**
+     * Rule with the longest prefix matching a key, or null
+     */
+    NumberRule matchRule(long key) {
+        if (key == 0) {
+            return null;
+        }
+        int id = trie.longestMatch(key);
+        if (id == DigitTrie.NO_MATCH || id + 1 >= strings.size()) {
+            return null;
+        }
+        return NumberRule.fromStorageString(strings.get(id + 1));
+    }
+
+    /**
+     * Whether a caller blocked this many times before is blocked when it rings
+     */
+    boolean blocksAtCount(int count) {
+        return (verdicts & (1 << count)) != 0;
+    }
+
+    /**
+     * Encode a snapshot; rules must be in the order of the ids in the trie
+     */
+    static ByteBuffer encode(long logLength, boolean[] blocksAtCount, long[] blocked, long[] repeated,
+            DigitTrie trie, List<NumberRule> rules, String countryCode) {
+        String[] strings = new String[rules.size() + 1];
+        strings[0] = countryCode;
+        for (int i = 0; i < rules.size(); i++) {
+            strings[i + 1] = rules.get(i).toStorageString();
+        }
+        KeywordTable table = KeywordTable.of(strings);
+
+        int bodyBytes = BODY_HEADER_BYTES + (blocked.length + repeated.length) * 8 + trie.byteSize()
+                + table.byteSize();
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + bodyBytes).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.position(HEADER_BYTES);
+        int verdicts = 0;
+        for (int count = 0; count < blocksAtCount.length; count++) {
+            if (blocksAtCount[count]) {
+                verdicts |= 1 << count;
+            }
+        }
+        buffer.putInt(verdicts).putInt(blocked.length).putInt(repeated.length).putInt(0);
+        buffer.asLongBuffer().put(blocked).put(repeated);
+        buffer.position(buffer.position() + (blocked.length + repeated.length) * 8);
+        trie.writeTo(buffer);
+        ByteBuffer tableBytes = table.toBuffer();
+        buffer.put(tableBytes);
+
+        buffer.putInt(0, MAGIC).putInt(4, VERSION).putInt(8, bodyBytes).putLong(16, logLength);
+        buffer.putInt(12, (int) checksum(buffer, CHECKED_OFFSET, buffer.capacity() - CHECKED_OFFSET));
+        buffer.clear();
+        return buffer;
+    }
+
+    /**
+     * Checksum of an encoded snapshot, for telling whether it changed
+     */
+    static int checksumOf(ByteBuffer encoded) {
+        return encoded.getInt(12);
+    }
+
+    /**
+     * Replace the file with an encoded snapshot
+     */
+    static void write(File file, ByteBuffer encoded) throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        RandomAccessFile out = new RandomAccessFile(temp, "rw");
+        try {
+            out.setLength(0);
+            FileChannel channel = out.getChannel();
+            ByteBuffer data = encoded.duplicate();
+            while (data.hasRemaining()) {
+                channel.write(data);
+            }
+            channel.force(true);
+        } finally {
+            out.close();
+        }
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            throw new IOException("Cannot replace " + file);
+        }
+        Log.d(TAG, "Wrote " + file.length() + " bytes");
+    }
+
+    /**
+     * Map a snapshot file, or return null if it is missing, from another
+     * version, damaged or unreadable
+     */
+    static DecisionSnapshot read(File file) {
+        if (!file.exists()) {
+            return null;
+        }
+        try {
+            MappedByteBuffer mapped;
+            RandomAccessFile in = new RandomAccessFile(file, "r");
+            try {
+                // The mapping stays valid after the file is closed
+                mapped = in.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, in.length());
+            } finally {
+                in.close();
+            }
+
+            ByteBuffer buffer = mapped.order(ByteOrder.LITTLE_ENDIAN);
+            if (buffer.remaining() < HEADER_BYTES || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION
+                    || buffer.getInt(8) != buffer.remaining() - HEADER_BYTES) {
+                Log.w(TAG, "Ignoring decision snapshot with unknown format");
+                return null;
+            }
+            if ((int) checksum(buffer, CHECKED_OFFSET, buffer.remaining() - CHECKED_OFFSET) != buffer.getInt(12)) {
+                Log.w(TAG, "Ignoring decision snapshot with a bad checksum");
+                return null;
+            }
+            return new DecisionSnapshot(buffer);
+        } catch (IOException | RuntimeException e) {
+            Log.w(TAG, "Cannot read decision snapshot", e);
+            return null;
+        }
+    }
+
+    private static boolean contains(LongBuffer keys, long key) {
+        int low = 0;
+        int high = keys.limit() - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            long value = keys.get(mid);
+            if (value < key) {
+                low = mid + 1;
+            } else if (value > key) {
+                high = mid - 1;
+            } else {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // CRC32.update(ByteBuffer) needs API 26, so the bytes go through a small array
+    private static long checksum(ByteBuffer buffer, int offset, int length) {
+        CRC32 crc = new CRC32();
+        ByteBuffer data = slice(buffer, offset, length);
+        byte[] chunk = new byte[8192];
+        while (data.hasRemaining()) {
+            int count = Math.min(chunk.length, data.remaining());
+            data.get(chunk, 0, count);
+            crc.update(chunk, 0, count);
+        }
+        return crc.getValue();
+    }
+
+    private static ByteBuffer slice(ByteBuffer buffer, int offset, int length) {
+        ByteBuffer view = buffer.duplicate();
+        view.limit(offset + length).position(offset);
+        return view.slice().order(ByteOrder.LITTLE_ENDIAN);
+    }
+}
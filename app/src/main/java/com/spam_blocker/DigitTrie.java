@@ -0,0 +1,129 @@
+package com.spam_blocker;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Trie over phone number digits with 10-way nodes, answering which stored
+ * prefix is the longest one a number starts with.
+ *
+ * Nodes are rows of ten child slots in one int array, so a lookup is one
+ * array read per digit: bounded by the length of the number, independent of
+ * how many prefixes are stored, and allocation-free. Prefixes and numbers are
+ * both in canonical form (see {@link PhoneNumberCanonicalizer}).
+ */
+final class DigitTrie {
+    public static final int NO_MATCH = -1;
+
+    private static final int ROOT = 0;
+
+    // children[node * 10 + digit] is the child node, or 0 (the root is never a child)
+    private int[] children;
+    // Id stored at each node, or NO_MATCH
+    private int[] ids;
+    private int nodeCount;
+
+    DigitTrie() {
+        children = new int[16 * 10];
+        ids = new int[16];
+        Arrays.fill(ids, NO_MATCH);
+        nodeCount = 1;
+    }
+
+    private DigitTrie(int[] children, int[] ids, int nodeCount) {
+        this.children = children;
+        this.ids = ids;
+        this.nodeCount = nodeCount;
+    }
+
+    /**
+     * Layout: int nodeCount, int[nodeCount * 10] children, int[nodeCount] ids,
+     * padded to 8 bytes
+     */
+    int byteSize() {
+        int bytes = 4 + nodeCount * 11 * 4;
+        return (bytes + 7) & ~7;
+    }
+
+    void writeTo(ByteBuffer out) {
+        int start = out.position();
+        out.putInt(nodeCount);
+        out.asIntBuffer().put(children, 0, nodeCount * 10).put(ids, 0, nodeCount);
+        out.position(start + byteSize());
+    }
+
+    /**
+     * Read a trie written by {@link #writeTo} at the buffer's position and advance past it
+     */
+    static DigitTrie read(ByteBuffer in) {
+        int start = in.position();
+        int nodeCount = in.getInt();
+        if (nodeCount < 1) {
+            throw new IllegalArgumentException("Trie without a root");
+        }
+        int[] children = new int[nodeCount * 10];
+        int[] ids = new int[nodeCount];
+        in.asIntBuffer().get(children).get(ids);
+        for (int child : children) {
+            if (child < 0 || child >= nodeCount) {
+                throw new IllegalArgumentException("Trie child out of range: " + child);
+            }
+        }
+        DigitTrie trie = new DigitTrie(children, ids, nodeCount);
+        in.position(start + trie.byteSize());
+        return trie;
+    }
+
+    /**
+     * Store an id under a prefix of canonical digits. When two ids share a
+     * prefix the first one is kept.
+     */
+    void add(String prefix, int id) {
+        int node = ROOT;
+        for (int i = 0; i < prefix.length(); i++) {
+            int slot = node * 10 + (prefix.charAt(i) - '0');
+            if (children[slot] == 0) {
+                // Allocate before indexing: newNode() may replace the array
+                int child = newNode();
+                children[slot] = child;
+            }
+            node = children[slot];
+        }
+        if (ids[node] == NO_MATCH) {
+            ids[node] = id;
+        }
+    }
+
+    /**
+     * Id of the longest stored prefix of a canonical number key, or NO_MATCH
+     */
+    int longestMatch(long key) {
+        int count = PhoneNumberCanonicalizer.digitCount(key);
+        int node = ROOT;
+        int best = NO_MATCH;
+        for (int i = 0; i < count; i++) {
+            node = children[node * 10 + PhoneNumberCanonicalizer.digitAt(key, i)];
+            if (node == 0) {
+                break;
+            }
+            if (ids[node] != NO_MATCH) {
+                best = ids[node];
+            }
+        }
+        return best;
+    }
+
+    int getNodeCount() {
+        return nodeCount;
+    }
+
+    private int newNode() {
+        if (nodeCount == ids.length) {
+            int capacity = nodeCount * 2;
+            children = Arrays.copyOf(children, capacity * 10);
+            ids = Arrays.copyOf(ids, capacity);
+            Arrays.fill(ids, nodeCount, capacity, NO_MATCH);
+        }
+        return nodeCount++;
+    }
+}
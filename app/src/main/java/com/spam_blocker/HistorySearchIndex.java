@@ -0,0 +1,238 @@
+package com.spam_blocker;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Trigram index over the blocked-call history, for substring search by
+ * number fragment, reason or caller info.
+ *
+ * Each entry gets an id in the order it was added, and every three-character
+ * sequence of its searchable text maps to the ascending ids of the entries
+ * containing it. A query of three or more characters intersects the lists of
+ * its trigrams, newest first, and confirms each candidate with a substring
+ * check, so a page of results touches only as many entries as it needs.
+ * Shorter queries scan the entries directly.
+ *
+ * Removed entries leave a gap that queries skip; the ids are renumbered once
+ * gaps outnumber entries. Not thread-safe; the store calls it under its lock.
+ */
+final class HistorySearchIndex {
+    private static final int MIN_CAPACITY = 64;
+    private static final int MIN_QUERY_FOR_INDEX = 3;
+
+    private final Map<Long, Postings> postings = new HashMap<>();
+    // By id; null once removed
+    private BlockedNumber[] entries = new BlockedNumber[MIN_CAPACITY];
+    private int nextId;
+    private int live;
+    // Lowest id that may still be live
+    private int oldest;
+
+    void add(BlockedNumber blockedNumber) {
+        if (nextId == entries.length) {
+            if (live <= nextId / 2) {
+                renumber();
+            } else {
+                entries = Arrays.copyOf(entries, entries.length * 2);
+            }
+        }
+        int id = nextId++;
+        entries[id] = blockedNumber;
+        live++;
+        addTrigrams(id, document(blockedNumber));
+    }
+
+    /**
+     * Drop an entry; the oldest is found at once, others by a scan from the newest
+     */
+    void remove(BlockedNumber blockedNumber) {
+        while (oldest < nextId && entries[oldest] == null) {
+            oldest++;
+        }
+        int id = -1;
+        if (oldest < nextId && entries[oldest] == blockedNumber) {
+            id = oldest;
+        } else {
+            for (int i = nextId - 1; i > oldest; i--) {
+                if (entries[i] == blockedNumber) {
+                    id = i;
+                    break;
+                }
+            }
+        }
+        if (id < 0) {
+            return;
+        }
+        entries[id] = null;
+        live--;
+        if (nextId > MIN_CAPACITY && live < (nextId - oldest) / 2) {
+            renumber();
+        }
+    }
+
+    void clear() {
+        postings.clear();
+        entries = new BlockedNumber[MIN_CAPACITY];
+        nextId = 0;
+        live = 0;
+        oldest = 0;
+    }
+
+    /**
+     * Entries whose number, reason or caller info contains the query, most recent first
+     */
+    List<BlockedNumber> search(String query, int offset, int limit) {
+        List<BlockedNumber> page = new ArrayList<>(Math.min(limit, live));
+        String normalized = normalize(query);
+        if (normalized.isEmpty() || limit <= 0) {
+            return page;
+        }
+        if (normalized.length() < MIN_QUERY_FOR_INDEX) {
+            for (int id = nextId - 1; id >= oldest && page.size() < limit; id--) {
+                if (entries[id] != null && document(entries[id]).contains(normalized) && offset-- <= 0) {
+                    page.add(entries[id]);
+                }
+            }
+            return page;
+        }
+
+        List<Postings> lists = new ArrayList<>();
+        for (long trigram : trigrams(normalized)) {
+            Postings list = postings.get(trigram);
+            if (list == null) {
+                return page;
+            }
+            lists.add(list);
+        }
+        // Walk the shortest list and look each id up in the others
+        Postings shortest = lists.get(0);
+        for (Postings list : lists) {
+            if (list.size < shortest.size) {
+                shortest = list;
+            }
+        }
+        for (int i = shortest.size - 1; i >= 0 && page.size() < limit; i--) {
+            int id = shortest.ids[i];
+            BlockedNumber candidate = entries[id];
+            if (candidate == null || !inAll(lists, id)) {
+                continue;
+            }
+            // Shared trigrams do not make a substring; confirm it
+            if (document(candidate).contains(normalized) && offset-- <= 0) {
+                page.add(candidate);
+            }
+        }
+        return page;
+    }
+
+    /**
+     * Lower-case the query; a query that looks like a phone number is reduced
+     * to its digits, the form numbers are indexed in
+     */
+    static String normalize(String query) {
+        if (query == null) {
+            return "";
+        }
+        String trimmed = query.trim().toLowerCase(Locale.ROOT);
+        boolean hasDigit = false;
+        StringBuilder digits = new StringBuilder(trimmed.length());
+        for (int i = 0; i < trimmed.length(); i++) {
+            char c = trimmed.charAt(i);
+            if (c >= '0' && c <= '9') {
+                hasDigit = true;
+                digits.append(c);
+            } else if ("+-() .".indexOf(c) < 0) {
+                return trimmed;
+            }
+        }
+        return hasDigit ? digits.toString() : trimmed;
+    }
+
+    // Digits of the number, reason and caller info, lower-cased and separated so no match spans two fields
+    private static String document(BlockedNumber blockedNumber) {
+        StringBuilder document = new StringBuilder(64);
+        String phoneNumber = blockedNumber.getPhoneNumber();
+        for (int i = 0; i < phoneNumber.length(); i++) {
+            char c = phoneNumber.charAt(i);
+            if (c >= '0' && c <= '9') {
+                document.append(c);
+            }
+        }
+        document.append('\n');
+        if (blockedNumber.getReason() != null) {
+            document.append(blockedNumber.getReason().toLowerCase(Locale.ROOT));
+        }
+        document.append('\n');
+        String callerInfo = blockedNumber.getCallerInfo();
+        if (callerInfo != null) {
+            document.append(callerInfo.toLowerCase(Locale.ROOT));
+        }
+        return document.toString();
+    }
+
+    private static Set<Long> trigrams(String text) {
+        Set<Long> trigrams = new HashSet<>();
+        for (int i = 0; i + MIN_QUERY_FOR_INDEX <= text.length(); i++) {
+            trigrams.add((long) text.charAt(i) << 32 | (long) text.charAt(i + 1) << 16 | text.charAt(i + 2));
+        }
+        return trigrams;
+    }
+
+    private void addTrigrams(int id, String document) {
+        for (long trigram : trigrams(document)) {
+            Postings list = postings.get(trigram);
+            if (list == null) {
+                list = new Postings();
+                postings.put(trigram, list);
+            }
+            list.add(id);
+        }
+    }
+
+    private static boolean inAll(List<Postings> lists, int id) {
+        for (Postings list : lists) {
+            if (Arrays.binarySearch(list.ids, 0, list.size, id) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Give the live entries consecutive ids again and rebuild the lists without the gaps
+    private void renumber() {
+        BlockedNumber[] remaining = new BlockedNumber[live];
+        int count = 0;
+        for (int id = oldest; id < nextId; id++) {
+            if (entries[id] != null) {
+                remaining[count++] = entries[id];
+            }
+        }
+        clear();
+        entries = new BlockedNumber[Math.max(MIN_CAPACITY, count * 2)];
+        for (BlockedNumber blockedNumber : remaining) {
+            add(blockedNumber);
+        }
+    }
+
+    /**
+     * Ascending ids of the entries containing one trigram
+     */
+    private static final class Postings {
+        int[] ids = new int[4];
+        int size;
+
+        void add(int id) {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+            }
+            ids[size++] = id;
+        }
+    }
+}
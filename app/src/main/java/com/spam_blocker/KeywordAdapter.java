@@ -14,14 +14,17 @@ import java.util.List;
 public class KeywordAdapter extends RecyclerView.Adapter<KeywordAdapter.KeywordViewHolder> {
     
     private KeywordManager keywordManager;
+    private NumberRules numberRules;
     private OnKeywordDeleteListener deleteListener;
 
     public interface OnKeywordDeleteListener {
         void onDelete(String keyword);
     }
 
-    public KeywordAdapter(KeywordManager keywordManager, OnKeywordDeleteListener deleteListener) {
+    public KeywordAdapter(KeywordManager keywordManager, NumberRules numberRules,
+            OnKeywordDeleteListener deleteListener) {
         this.keywordManager = keywordManager;
+        this.numberRules = numberRules;
         this.deleteListener = deleteListener;
     }
 
@@ -35,8 +38,11 @@ public class KeywordAdapter extends RecyclerView.Adapter<KeywordAdapter.KeywordV
 
     @Override
     public void onBindViewHolder(@NonNull KeywordViewHolder holder, int position) {
-        List<String> keywords = keywordManager.getKeywords();
-        String keyword = keywords.get(position);
+        // Keyword entries first, then number rules
+        List<String> keywords = keywordManager.getAllEntries();
+        String keyword = position < keywords.size()
+                ? keywords.get(position)
+                : numberRules.getEntries().get(position - keywords.size());
         holder.tvKeyword.setText(keyword);
         holder.btnDelete.setOnClickListener(new View.OnClickListener() {
             @Override
@@ -50,7 +56,7 @@ public class KeywordAdapter extends RecyclerView.Adapter<KeywordAdapter.KeywordV
 
     @Override
     public int getItemCount() {
-        return keywordManager.getKeywords().size();
+        return keywordManager.getAllEntries().size() + numberRules.getEntries().size();
     }
 
     static class KeywordViewHolder extends RecyclerView.ViewHolder {
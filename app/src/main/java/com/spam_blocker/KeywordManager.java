@@ -2,61 +2,630 @@ package com.spam_blocker;
 
 import android.content.Context;
 import android.content.SharedPreferences;
+import android.os.SystemClock;
+import android.util.Log;
 
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
+/**
+ * Process-wide owner of the blocked keywords and pattern rules.
+ *
+ * The current keywords, rules and their compiled matcher form one immutable
+ * snapshot behind a volatile field: scanning threads read it with a single
+ * load and never lock. Writers build a new snapshot and publish it whole.
+ * Changes made to SpamBlockerPrefs behind the manager's back are picked up by
+ * a preference listener, so running services see them without being recreated.
+ *
+ * Every published snapshot is also written to a {@link KeywordStore} file.
+ * On startup that file is memory-mapped and matching starts at once; the
+ * keyword list in the preferences is only parsed when the file is missing or
+ * its generation turns out to be stale.
+ */
 public class KeywordManager {
+    private static final String TAG = "KeywordManager";
     private static final String PREFS_NAME = "SpamBlockerPrefs";
     private static final String KEY_KEYWORDS = "blocked_keywords";
-    
-    private SharedPreferences prefs;
-    private Set<String> keywords;
+    private static final String KEY_PATTERNS = "blocked_patterns";
+    // Bumped on every change; the keyword file records the generation it was compiled from
+    private static final String KEY_GENERATION = "keyword_generation";
+    // Prefilter sizing for large keyword lists
+    private static final String KEY_PREFILTER_FP_RATE = "prefilter_fp_rate";
+    private static final String KEY_PREFILTER_MAX_KB = "prefilter_max_kb";
 
-    public KeywordManager(Context context) {
+    private static final int IMPORT_PROGRESS_LINES = 1000;
+    private static final String[] TRANSFER_COLUMNS = {"type", "value"};
+    private static final String TYPE_KEYWORD = "keyword";
+    private static final String TYPE_PATTERN = "pattern";
+    // Keywords published at a time by importEntries(); each publish rewrites the whole list
+    private static final int IMPORT_BATCH = 50000;
+
+    private static KeywordManager instance;
+
+    private final SharedPreferences prefs;
+    private final File keywordFile;
+    // Keyword file writes and the startup generation check run here, in order
+    private final ExecutorService storeExecutor = Executors.newSingleThreadExecutor();
+    private volatile Snapshot snapshot;
+
+    // Held in a field: SharedPreferences only keeps a weak reference to listeners
+    private final SharedPreferences.OnSharedPreferenceChangeListener preferenceListener =
+            new SharedPreferences.OnSharedPreferenceChangeListener() {
+                @Override
+                public void onSharedPreferenceChanged(SharedPreferences sharedPreferences, String key) {
+                    if (key == null || KEY_KEYWORDS.equals(key) || KEY_PATTERNS.equals(key)
+                            || KEY_GENERATION.equals(key) || KEY_PREFILTER_FP_RATE.equals(key)
+                            || KEY_PREFILTER_MAX_KB.equals(key)) {
+                        reloadIfChanged();
+                    }
+                }
+            };
+
+    /**
+     * Progress of importKeywords(), called on the importing thread
+     */
+    public interface ImportListener {
+        void onProgress(int linesRead, int keywordsAdded, long bytesRead, long totalBytes, long elapsedMillis);
+    }
+
+    /**
+     * Immutable view of the keyword configuration; replaced, never modified
+     */
+    private static final class Snapshot {
+        final KeywordMatcher matcher;
+        final List<PatternRule> rules;
+        final long generation;
+        private Set<String> keywords;
+        private List<String> entries;
+
+        Snapshot(KeywordMatcher matcher, List<PatternRule> rules, long generation, Set<String> keywords) {
+            this.matcher = matcher;
+            this.rules = Collections.unmodifiableList(rules);
+            this.generation = generation;
+            this.keywords = keywords != null ? Collections.unmodifiableSet(keywords) : null;
+        }
+
+        // Decoded from the matcher on first use when the snapshot was mapped from the keyword file
+        synchronized Set<String> keywords() {
+            if (keywords == null) {
+                keywords = Collections.unmodifiableSet(new HashSet<>(matcher.getKeywords()));
+            }
+            return keywords;
+        }
+
+        boolean hasEntries() {
+            return matcher.size() > 0 || !rules.isEmpty();
+        }
+
+        synchronized List<String> entries() {
+            if (entries == null) {
+                List<String> allEntries = new ArrayList<>(keywords());
+                for (PatternRule rule : rules) {
+                    allEntries.add(rule.toStorageString());
+                }
+                entries = Collections.unmodifiableList(allEntries);
+            }
+            return entries;
+        }
+    }
+
+    private KeywordManager(Context context) {
         prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
-        loadKeywords();
+        keywordFile = new File(context.getFilesDir(), KeywordStore.FILE_NAME);
+
+        KeywordStore.Contents stored = KeywordStore.read(keywordFile);
+        if (stored != null) {
+            snapshot = new Snapshot(stored.getMatcher(), stored.getRules(), stored.getGeneration(), null);
+            Log.d(TAG, "Mapped keyword file, generation " + stored.getGeneration());
+            // Reading the generation waits for the preferences to load, so check it off this thread
+            storeExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    reloadIfChanged();
+                }
+            });
+        } else {
+            snapshot = load();
+            scheduleWrite(snapshot);
+        }
+        prefs.registerOnSharedPreferenceChangeListener(preferenceListener);
+    }
+
+    public static synchronized KeywordManager getInstance(Context context) {
+        if (instance == null) {
+            instance = new KeywordManager(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private Snapshot load() {
+        return compile(readKeywords(), readRules(), prefs.getLong(KEY_GENERATION, 0));
+    }
+
+    private Set<String> readKeywords() {
+        Set<String> keywords = new HashSet<>();
+        // Older entries were lowercased with the default locale; fold them the same way as new ones
+        for (String keyword : prefs.getStringSet(KEY_KEYWORDS, new HashSet<>())) {
+            keywords.add(CaseFolding.fold(keyword));
+        }
+        return keywords;
+    }
+
+    private List<PatternRule> readRules() {
+        List<PatternRule> rules = new ArrayList<>();
+        for (String storageString : prefs.getStringSet(KEY_PATTERNS, new HashSet<>())) {
+            PatternRule rule = PatternRule.fromStorageString(storageString);
+            if (rule != null) {
+                rules.add(rule);
+            }
+        }
+        return rules;
+    }
+
+    private double prefilterFalsePositiveRate() {
+        return prefs.getFloat(KEY_PREFILTER_FP_RATE, (float) KeywordMatcher.DEFAULT_PREFILTER_FALSE_POSITIVE_RATE);
     }
 
-    private void loadKeywords() {
-        keywords = new HashSet<>(prefs.getStringSet(KEY_KEYWORDS, new HashSet<>()));
+    private int prefilterMaxBytes() {
+        return prefs.getInt(KEY_PREFILTER_MAX_KB, KeywordMatcher.DEFAULT_PREFILTER_MAX_BYTES / 1024) * 1024;
     }
 
-    public void addKeyword(String keyword) {
+    private Snapshot compile(Set<String> keywords, List<PatternRule> rules, long generation) {
+        double falsePositiveRate = prefilterFalsePositiveRate();
+        int maxBytes = prefilterMaxBytes();
+        KeywordMatcher matcher;
+        try {
+            matcher = KeywordMatcher.compile(keywords, rules, falsePositiveRate, maxBytes);
+        } catch (IllegalArgumentException e) {
+            // Never lose keyword matching because of a stored rule that no longer compiles
+            Log.w(TAG, "Pattern rules failed to compile, matching keywords only", e);
+            matcher = KeywordMatcher.compile(keywords, Collections.<PatternRule>emptyList(), falsePositiveRate,
+                    maxBytes);
+        }
+        return new Snapshot(matcher, rules, generation, keywords);
+    }
+
+    /**
+     * Rebuild the snapshot when the stored configuration differs from the
+     * published one. Our own writes carry the generation we just published and
+     * are skipped without touching the keyword list.
+     */
+    private synchronized void reloadIfChanged() {
+        Snapshot current = snapshot;
+        if (prefs.getLong(KEY_GENERATION, 0) == current.generation
+                && prefilterFalsePositiveRate() == current.matcher.getPrefilterFalsePositiveRate()
+                && prefilterMaxBytes() == current.matcher.getPrefilterMaxBytes()) {
+            return;
+        }
+        Snapshot loaded = load();
+        snapshot = loaded;
+        scheduleWrite(loaded);
+        Log.d(TAG, "Keyword snapshot reloaded: " + loaded.matcher.size() + " keywords, "
+                + loaded.rules.size() + " rules");
+    }
+
+    public synchronized void addKeyword(String keyword) {
         if (keyword != null && !keyword.trim().isEmpty()) {
-            keywords.add(keyword.trim().toLowerCase());
-            save();
+            Snapshot current = snapshot;
+            String folded = CaseFolding.fold(keyword.trim());
+            if (!current.keywords().contains(folded)) {
+                Set<String> updated = new HashSet<>(current.keywords());
+                updated.add(folded);
+                publishAdded(current, updated, Collections.singletonList(folded));
+            }
         }
     }
 
-    public void removeKeyword(String keyword) {
+    public synchronized void removeKeyword(String keyword) {
         if (keyword != null) {
-            keywords.remove(keyword.trim().toLowerCase());
-            save();
+            Snapshot current = snapshot;
+            String folded = CaseFolding.fold(keyword.trim());
+            if (current.keywords().contains(folded)) {
+                Set<String> updated = new HashSet<>(current.keywords());
+                updated.remove(folded);
+                publish(current, updated, current.rules);
+            }
         }
     }
 
-    public List<String> getKeywords() {
-        return new ArrayList<>(keywords);
+    /**
+     * Stream keywords from a text file, one per line, and add them in a single
+     * write. Lines are trimmed and case-folded as they are read, blank lines and
+     * lines starting with '#' are skipped, and duplicates (within the file or
+     * of stored keywords) are dropped. Call off the main thread.
+     *
+     * @param totalBytes size of the input for progress reporting, or -1 if unknown
+     * @return number of keywords added
+     */
+    public int importKeywords(InputStream input, long totalBytes, ImportListener listener) throws IOException {
+        long startTime = SystemClock.elapsedRealtime();
+        CountingInputStream counter = new CountingInputStream(input);
+        BufferedReader reader = new BufferedReader(new InputStreamReader(counter, StandardCharsets.UTF_8));
+
+        Set<String> known = snapshot.keywords();
+        Set<String> seen = new HashSet<>();
+        List<String> added = new ArrayList<>();
+        int lines = 0;
+        String line;
+        while ((line = reader.readLine()) != null) {
+            lines++;
+            String keyword = line.trim();
+            if (!keyword.isEmpty() && keyword.charAt(0) != '#') {
+                String folded = CaseFolding.fold(keyword);
+                if (!known.contains(folded) && seen.add(folded)) {
+                    added.add(folded);
+                }
+            }
+            if (listener != null && lines % IMPORT_PROGRESS_LINES == 0) {
+                listener.onProgress(lines, added.size(), counter.getCount(), totalBytes,
+                        SystemClock.elapsedRealtime() - startTime);
+            }
+        }
+
+        if (!added.isEmpty()) {
+            addKeywords(added);
+        }
+
+        long elapsed = SystemClock.elapsedRealtime() - startTime;
+        Log.d(TAG, "Imported " + added.size() + " keywords from " + lines + " lines in " + elapsed + " ms");
+        if (listener != null) {
+            listener.onProgress(lines, added.size(), counter.getCount(), totalBytes, elapsed);
+        }
+        return added.size();
     }
 
-    public boolean containsKeyword(String text) {
-        if (text == null || text.isEmpty()) {
-            return false;
+    /**
+     * Write the keywords and pattern rules to a channel as CSV with a header
+     * row or as NDJSON, one record per entry: type "keyword" with the keyword,
+     * or type "pattern" with the rule in its storage form. The channel is
+     * left open.
+     *
+     * @return number of entries written
+     */
+    public int exportEntries(WritableByteChannel channel, TransferFormat format) throws IOException {
+        Snapshot current = snapshot;
+        ChannelRecordWriter writer = new ChannelRecordWriter(channel, format, TRANSFER_COLUMNS);
+        for (String keyword : current.keywords()) {
+            writer.write(TYPE_KEYWORD, keyword);
+        }
+        for (PatternRule rule : current.rules) {
+            writer.write(TYPE_PATTERN, rule.toStorageString());
+        }
+        writer.finish();
+
+        int count = current.keywords().size() + current.rules.size();
+        Log.d(TAG, "Exported " + count + " keywords and rules as " + format);
+        return count;
+    }
+
+    /**
+     * Add the entries of an exported keyword list, CSV or NDJSON as told from
+     * the input. Records are parsed as they are read and keywords published in
+     * batches of {@link #IMPORT_BATCH}. A record without a type is read like
+     * typed input, so a rule is recognized by its wildcard or "re:" prefix.
+     * Rules are compiled and published once at the end; those that do not
+     * compile are skipped. Call off the main thread.
+     *
+     * @param totalBytes size of the input for progress reporting, or -1 if unknown
+     * @return number of keywords and rules added
+     */
+    public int importEntries(ReadableByteChannel channel, long totalBytes, ImportListener listener)
+            throws IOException {
+        long startTime = SystemClock.elapsedRealtime();
+        ChannelRecordReader reader = new ChannelRecordReader(channel, TRANSFER_COLUMNS);
+        Set<String> batch = new LinkedHashSet<>();
+        Set<PatternRule> rules = new LinkedHashSet<>();
+        String[] values = new String[TRANSFER_COLUMNS.length];
+        int records = 0;
+        int added = 0;
+        int invalid = 0;
+        while (reader.next(values)) {
+            records++;
+            String type = values[0] != null ? values[0].trim() : "";
+            String value = values[1] != null ? values[1].trim() : "";
+            PatternRule rule = TYPE_PATTERN.equals(type) ? PatternRule.fromStorageString(value)
+                    : type.isEmpty() ? PatternRule.parse(value) : null;
+            if (value.isEmpty() || (TYPE_PATTERN.equals(type) && rule == null)) {
+                invalid++;
+            } else if (rule != null) {
+                if (!snapshot.rules.contains(rule)) {
+                    rules.add(rule);
+                }
+            } else {
+                String folded = CaseFolding.fold(value);
+                if (!snapshot.keywords().contains(folded)) {
+                    batch.add(folded);
+                }
+            }
+
+            if (batch.size() == IMPORT_BATCH) {
+                added += addKeywords(batch);
+                batch.clear();
+            }
+            if (listener != null && records % IMPORT_PROGRESS_LINES == 0) {
+                listener.onProgress(records, added + batch.size() + rules.size(), reader.getBytesRead(), totalBytes,
+                        SystemClock.elapsedRealtime() - startTime);
+            }
+        }
+        added += addKeywords(batch);
+        int ruleCount = rules.size();
+        added += addPatternRules(rules);
+        invalid += ruleCount - rules.size();
+
+        long elapsed = SystemClock.elapsedRealtime() - startTime;
+        Log.d(TAG, "Imported " + added + " keywords and rules from " + records + " " + reader.getFormat()
+                + " records in " + elapsed + " ms, " + (invalid + reader.getSkipped()) + " invalid");
+        if (listener != null) {
+            listener.onProgress(records, added, reader.getBytesRead(), totalBytes, elapsed);
         }
-        
-        String lowerText = text.toLowerCase();
+        return added;
+    }
+
+    // Publish folded keywords in one write; returns how many were new
+    private synchronized int addKeywords(Collection<String> keywords) {
+        Snapshot current = snapshot;
+        Set<String> updated = new HashSet<>(current.keywords());
+        List<String> fresh = new ArrayList<>(keywords.size());
         for (String keyword : keywords) {
-            if (lowerText.contains(keyword)) {
-                return true;
+            if (updated.add(keyword)) {
+                fresh.add(keyword);
             }
         }
-        return false;
+        publishAdded(current, updated, fresh);
+        return fresh.size();
     }
 
-    private void save() {
-        prefs.edit().putStringSet(KEY_KEYWORDS, keywords).apply();
+    public List<String> getKeywords() {
+        return new ArrayList<>(snapshot.keywords());
+    }
+
+    /**
+     * Add a wildcard or regex rule. The whole rule set is compiled first so an
+     * invalid or too complex rule is rejected before it is stored.
+     *
+     * @throws IllegalArgumentException if the rule cannot be compiled
+     */
+    public synchronized void addPatternRule(PatternRule rule) {
+        Snapshot current = snapshot;
+        if (rule == null || current.rules.contains(rule)) {
+            return;
+        }
+        List<PatternRule> updated = new ArrayList<>(current.rules);
+        updated.add(rule);
+        PatternAutomaton.compile(updated);
+        publish(current, new HashSet<>(current.keywords()), updated);
+    }
+
+    /**
+     * Publish imported rules with one compile. If the set does not compile,
+     * the rules at fault are found and removed from the given collection, so
+     * it ends up holding what was stored.
+     *
+     * @return number of rules added
+     */
+    private synchronized int addPatternRules(Collection<PatternRule> rules) {
+        Snapshot current = snapshot;
+        rules.removeAll(current.rules);
+        List<PatternRule> updated = new ArrayList<>(current.rules);
+        updated.addAll(rules);
+        if (!rules.isEmpty() && !compiles(updated)) {
+            // Drop rules that are invalid on their own, then those that make the set too complex
+            for (Iterator<PatternRule> it = rules.iterator(); it.hasNext(); ) {
+                if (!compiles(Collections.singletonList(it.next()))) {
+                    it.remove();
+                }
+            }
+            updated = new ArrayList<>(current.rules);
+            updated.addAll(rules);
+            if (!compiles(updated)) {
+                updated = new ArrayList<>(current.rules);
+                for (Iterator<PatternRule> it = rules.iterator(); it.hasNext(); ) {
+                    updated.add(it.next());
+                    if (!compiles(updated)) {
+                        updated.remove(updated.size() - 1);
+                        it.remove();
+                    }
+                }
+            }
+        }
+        if (rules.isEmpty()) {
+            return 0;
+        }
+        publish(current, new HashSet<>(current.keywords()), updated);
+        return rules.size();
+    }
+
+    private static boolean compiles(List<PatternRule> rules) {
+        try {
+            PatternAutomaton.compile(rules);
+            return true;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    public synchronized void removePatternRule(PatternRule rule) {
+        Snapshot current = snapshot;
+        if (rule != null && current.rules.contains(rule)) {
+            List<PatternRule> updated = new ArrayList<>(current.rules);
+            updated.remove(rule);
+            publish(current, new HashSet<>(current.keywords()), updated);
+        }
+    }
+
+    public List<PatternRule> getPatternRules() {
+        return new ArrayList<>(snapshot.rules);
+    }
+
+    /**
+     * Prefilter hit/miss counters for sizing, or null when no prefilter is in use
+     */
+    public String getPrefilterStats() {
+        NgramBloomFilter prefilter = snapshot.matcher.getPrefilter();
+        if (prefilter == null) {
+            return null;
+        }
+        return prefilter.getSizeBytes() / 1024 + " KB, " + prefilter.getHashCount() + " hashes: "
+                + prefilter.getRejectedCount() + " rejected, " + prefilter.getPassedCount() + " passed, "
+                + prefilter.getFalsePositiveCount() + " false positives";
+    }
+
+    /**
+     * Keywords followed by pattern rules in their storage form, for display.
+     * The list is read-only and shared until the next change.
+     */
+    public List<String> getAllEntries() {
+        return snapshot.entries();
+    }
+
+    /**
+     * Whether any keyword or rule is set, without decoding the keywords
+     */
+    public boolean hasEntries() {
+        return snapshot.hasEntries();
+    }
+
+    /**
+     * Remove an entry as returned by getAllEntries()
+     */
+    public void removeEntry(String entry) {
+        if (entry != null && snapshot.keywords().contains(entry)) {
+            removeKeyword(entry);
+        } else {
+            removePatternRule(PatternRule.fromStorageString(entry));
+        }
+    }
+
+    public boolean containsKeyword(CharSequence text) {
+        if (text == null || text.length() == 0) {
+            return false;
+        }
+
+        return snapshot.matcher.matches(text);
+    }
+
+    /**
+     * Scan the text once and fill the given match with the first keyword hit,
+     * its offset and the original text it was found in
+     */
+    public boolean findKeyword(CharSequence text, KeywordMatch match) {
+        if (text == null || text.length() == 0) {
+            match.reset();
+            return false;
+        }
+
+        return snapshot.matcher.find(text, match);
+    }
+
+    /**
+     * Publish a keyword set that only grew, extending the current matcher with
+     * the added keywords instead of recompiling all of them when that is cheaper
+     */
+    private void publishAdded(Snapshot current, Set<String> keywords, List<String> added) {
+        if (added.isEmpty()) {
+            return;
+        }
+        if (current.matcher.canExtend(added.size())) {
+            persist(new Snapshot(current.matcher.extend(added), current.rules, current.generation + 1, keywords));
+        } else {
+            persist(compile(keywords, current.rules, current.generation + 1));
+        }
+    }
+
+    private void publish(Snapshot current, Set<String> keywords, List<PatternRule> rules) {
+        persist(compile(keywords, rules, current.generation + 1));
+    }
+
+    private void persist(Snapshot updated) {
+        // Publish first so matching reflects the change immediately
+        snapshot = updated;
+
+        Set<String> patterns = new HashSet<>();
+        for (PatternRule rule : updated.rules) {
+            patterns.add(rule.toStorageString());
+        }
+        prefs.edit()
+                .putStringSet(KEY_KEYWORDS, new HashSet<>(updated.keywords()))
+                .putStringSet(KEY_PATTERNS, patterns)
+                .putLong(KEY_GENERATION, updated.generation)
+                .apply();
+        scheduleWrite(updated);
+    }
+
+    /**
+     * Write the snapshot to the keyword file in the background, unless a newer
+     * one has been published by the time the write would start
+     */
+    private void scheduleWrite(final Snapshot written) {
+        storeExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (snapshot != written) {
+                    return;
+                }
+                try {
+                    KeywordStore.write(keywordFile, written.generation, written.matcher, written.rules);
+                } catch (IOException e) {
+                    Log.e(TAG, "Failed to write keyword file", e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Counts bytes consumed from the underlying stream for progress reporting
+     */
+    private static final class CountingInputStream extends FilterInputStream {
+        private long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int n = super.read(buffer, offset, length);
+            if (n > 0) {
+                count += n;
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
+        }
+
+        long getCount() {
+            return count;
+        }
     }
 }
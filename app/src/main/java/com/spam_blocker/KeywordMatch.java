@@ -0,0 +1,73 @@
+package com.spam_blocker;
+
+/**
+ * Reusable result of a keyword scan: which keyword matched, where it matched
+ * and the text it was found in. Callers keep one instance and pass it to
+ * every scan so a hit never allocates.
+ */
+public class KeywordMatch {
+    private String keyword;
+    private int start = -1;
+    private int end = -1;
+    private CharSequence sourceText;
+    // Scratch space for the matcher, kept here so repeated scans do not allocate
+    private int[] positions;
+
+    /**
+     * Keyword (or pattern rule) that matched, or null if the last scan found nothing
+     */
+    public String getKeyword() {
+        return keyword;
+    }
+
+    /**
+     * Offset of the first matched character in the source text, or -1 for a
+     * pattern rule match where only the end is known
+     */
+    public int getStart() {
+        return start;
+    }
+
+    /**
+     * Offset just past the last matched character in the source text
+     */
+    public int getEnd() {
+        return end;
+    }
+
+    /**
+     * Text the keyword was found in
+     */
+    public CharSequence getSourceText() {
+        return sourceText;
+    }
+
+    public boolean isFound() {
+        return keyword != null;
+    }
+
+    /**
+     * Ring buffer of at least the given size, a power of two
+     */
+    int[] positionBuffer(int minSize) {
+        if (positions == null || positions.length < minSize) {
+            int size = Integer.highestOneBit(Math.max(minSize, 1));
+            positions = new int[size < minSize ? size << 1 : size];
+        }
+        return positions;
+    }
+
+    void set(String keyword, int start, int end, CharSequence sourceText) {
+        this.keyword = keyword;
+        this.start = start;
+        this.end = end;
+        this.sourceText = sourceText;
+    }
+
+    public void reset() {
+        keyword = null;
+        start = -1;
+        end = -1;
+        sourceText = null;
+    }
+}
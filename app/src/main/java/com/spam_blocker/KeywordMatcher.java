@@ -0,0 +1,395 @@
+package com.spam_blocker;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Immutable multi-keyword matcher. A text is scanned once, in time linear in
+ * its length, regardless of how many keywords were compiled in. Each character
+ * drives up to three automata in the same pass:
+ * <ul>
+ * <li>an Aho-Corasick automaton over the case-folded keywords,</li>
+ * <li>the combined DFA of the pattern rules, when there are any,</li>
+ * <li>an Aho-Corasick automaton over the keywords as seen through
+ * {@link TextNormalizer}, fed by the normalized character stream so obfuscated
+ * labels such as "L0AN 0ffer" or "s.p.a.m" still match. Separators are left
+ * out of that stream, so a hit there only counts if it starts and ends on a
+ * word boundary of the text; "Chris Pamela" does not read as "spam".</li>
+ * </ul>
+ * Large keyword lists also get an {@link NgramBloomFilter} that rejects most
+ * texts before the keyword automata run.
+ *
+ * Adding keywords does not require a full rebuild: {@link #extend} layers a
+ * small delta matcher over this one until the delta grows large enough that
+ * compiling everything again is worth it.
+ */
+public class KeywordMatcher {
+    // Very short keywords are left out of obfuscation-tolerant matching: once
+    // separators are dropped they would match across word boundaries too easily
+    private static final int MIN_NORMALIZED_LENGTH = 4;
+    // Word starts are tracked for this many normalized characters; longer hits
+    // do not count, and the keyword still matches exactly
+    private static final int MAX_NORMALIZED_HIT_LENGTH = Long.SIZE;
+
+    // Below this many keywords the automata are cheap enough on their own
+    private static final int PREFILTER_MIN_KEYWORDS = 256;
+    public static final double DEFAULT_PREFILTER_FALSE_POSITIVE_RATE = 0.001;
+    public static final int DEFAULT_PREFILTER_MAX_BYTES = 256 * 1024;
+
+    // A delta may grow to this fraction of the base before a full rebuild is due
+    private static final int MAX_DELTA_DIVISOR = 8;
+    private static final int MIN_DELTA_LIMIT = 64;
+
+    // Section header: int flags, int prefilterMaxBytes, double prefilterFalsePositiveRate
+    private static final int SECTION_HEADER_BYTES = 16;
+    private static final int FLAG_NORMALIZED = 1;
+    private static final int FLAG_PREFILTER = 1 << 1;
+    private static final int FLAG_DELTA = 1 << 2;
+
+    private final KeywordTable keywords;
+    private final KeywordTrie exact;
+    private final KeywordTrie normalized;
+    private final PatternAutomaton patterns;
+    private final NgramBloomFilter prefilter;
+    private final double prefilterFalsePositiveRate;
+    private final int prefilterMaxBytes;
+    // Keywords added since this matcher was compiled, or null
+    private final KeywordMatcher delta;
+
+    private KeywordMatcher(KeywordTable keywords, KeywordTrie exact, KeywordTrie normalized,
+            PatternAutomaton patterns, NgramBloomFilter prefilter, double prefilterFalsePositiveRate,
+            int prefilterMaxBytes, KeywordMatcher delta) {
+        this.keywords = keywords;
+        this.exact = exact;
+        this.normalized = normalized;
+        this.patterns = patterns;
+        this.prefilter = prefilter;
+        this.prefilterFalsePositiveRate = prefilterFalsePositiveRate;
+        this.prefilterMaxBytes = prefilterMaxBytes;
+        this.delta = delta;
+    }
+
+    /**
+     * Compile a set of already normalized (trimmed, case-folded) keywords
+     */
+    public static KeywordMatcher compile(Collection<String> keywordSet) {
+        return compile(keywordSet, Collections.<PatternRule>emptyList());
+    }
+
+    /**
+     * Compile keywords together with pattern rules
+     *
+     * @throws IllegalArgumentException if the pattern rules cannot be compiled
+     */
+    public static KeywordMatcher compile(Collection<String> keywordSet, List<PatternRule> rules) {
+        return compile(keywordSet, rules, DEFAULT_PREFILTER_FALSE_POSITIVE_RATE, DEFAULT_PREFILTER_MAX_BYTES);
+    }
+
+    /**
+     * Compile keywords together with pattern rules, sizing the prefilter for the
+     * given per-probe false-positive rate within the given memory budget
+     *
+     * @throws IllegalArgumentException if the pattern rules cannot be compiled
+     */
+    public static KeywordMatcher compile(Collection<String> keywordSet, List<PatternRule> rules,
+            double prefilterFalsePositiveRate, int prefilterMaxBytes) {
+        List<String> keywordList = new ArrayList<>(keywordSet.size());
+        for (String keyword : keywordSet) {
+            if (keyword != null && !keyword.isEmpty()) {
+                keywordList.add(keyword);
+            }
+        }
+        String[] keywords = keywordList.toArray(new String[0]);
+
+        int[] ids = new int[keywords.length];
+        String[] normalizedKeywords = new String[keywords.length];
+        for (int k = 0; k < keywords.length; k++) {
+            ids[k] = k;
+            String normalizedKeyword = TextNormalizer.normalize(keywords[k]);
+            normalizedKeywords[k] = normalizedKeyword.length() >= MIN_NORMALIZED_LENGTH ? normalizedKeyword : null;
+        }
+
+        KeywordTrie exact = KeywordTrie.build(keywords, ids);
+        KeywordTrie normalized = KeywordTrie.build(normalizedKeywords, ids);
+        PatternAutomaton patterns = rules.isEmpty() ? null : PatternAutomaton.compile(rules);
+        NgramBloomFilter prefilter = keywords.length < PREFILTER_MIN_KEYWORDS ? null
+                : NgramBloomFilter.build(keywords, normalizedKeywords, prefilterFalsePositiveRate, prefilterMaxBytes);
+        return new KeywordMatcher(KeywordTable.of(keywords), exact, normalized.isEmpty() ? null : normalized,
+                patterns, prefilter, prefilterFalsePositiveRate, prefilterMaxBytes, null);
+    }
+
+    /**
+     * Read a matcher section written by writeTo() at the buffer's position and
+     * advance past it. The automata are used in place, so a memory-mapped
+     * buffer is shared rather than copied; only the pattern rules, which are
+     * stored as text, are compiled here.
+     *
+     * @throws IllegalArgumentException if the pattern rules cannot be compiled
+     */
+    static KeywordMatcher read(ByteBuffer buffer, List<PatternRule> rules) {
+        ByteBuffer header = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        int flags = header.getInt(buffer.position());
+        int prefilterMaxBytes = header.getInt(buffer.position() + 4);
+        double prefilterFalsePositiveRate = header.getDouble(buffer.position() + 8);
+        buffer.position(buffer.position() + SECTION_HEADER_BYTES);
+
+        KeywordTable keywords = KeywordTable.read(buffer);
+        KeywordTrie exact = KeywordTrie.read(buffer);
+        KeywordTrie normalized = (flags & FLAG_NORMALIZED) != 0 ? KeywordTrie.read(buffer) : null;
+        NgramBloomFilter prefilter = (flags & FLAG_PREFILTER) != 0 ? NgramBloomFilter.read(buffer) : null;
+        KeywordMatcher delta = (flags & FLAG_DELTA) != 0
+                ? read(buffer, Collections.<PatternRule>emptyList()) : null;
+        PatternAutomaton patterns = rules.isEmpty() ? null : PatternAutomaton.compile(rules);
+        return new KeywordMatcher(keywords, exact, normalized, patterns, prefilter, prefilterFalsePositiveRate,
+                prefilterMaxBytes, delta);
+    }
+
+    /**
+     * Write the keyword automata, prefilter and any delta as one section.
+     * Pattern rules are not included; pass them to read() again.
+     */
+    void writeTo(WritableByteChannel channel) throws IOException {
+        int flags = (normalized != null ? FLAG_NORMALIZED : 0) | (prefilter != null ? FLAG_PREFILTER : 0)
+                | (delta != null ? FLAG_DELTA : 0);
+        ByteBuffer header = ByteBuffer.allocate(SECTION_HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(flags).putInt(prefilterMaxBytes).putDouble(prefilterFalsePositiveRate);
+        header.flip();
+        while (header.hasRemaining()) {
+            channel.write(header);
+        }
+
+        keywords.writeTo(channel);
+        exact.writeTo(channel);
+        if (normalized != null) {
+            normalized.writeTo(channel);
+        }
+        if (prefilter != null) {
+            prefilter.writeTo(channel);
+        }
+        if (delta != null) {
+            delta.writeTo(channel);
+        }
+    }
+
+    /**
+     * Whether adding this many keywords through extend() is still cheaper than
+     * compiling the whole set again
+     */
+    public boolean canExtend(int addedCount) {
+        int deltaSize = delta != null ? delta.size() : 0;
+        return deltaSize + addedCount <= Math.max(MIN_DELTA_LIMIT, keywords.size() / MAX_DELTA_DIVISOR);
+    }
+
+    /**
+     * Return a matcher that also finds the given keywords, which must be
+     * normalized and not already present. Only the added keywords, plus any
+     * earlier delta, are compiled; this matcher's automata are shared.
+     */
+    public KeywordMatcher extend(Collection<String> addedKeywords) {
+        List<String> deltaKeywords = new ArrayList<>(addedKeywords);
+        if (delta != null) {
+            deltaKeywords.addAll(delta.keywords.toList());
+        }
+        KeywordMatcher newDelta = compile(deltaKeywords, Collections.<PatternRule>emptyList(),
+                prefilterFalsePositiveRate, prefilterMaxBytes);
+        return new KeywordMatcher(keywords, exact, normalized, patterns, prefilter, prefilterFalsePositiveRate,
+                prefilterMaxBytes, newDelta);
+    }
+
+    /**
+     * Check whether the text contains any keyword, ignoring case
+     */
+    public boolean matches(CharSequence text) {
+        return find(text, null);
+    }
+
+    /**
+     * Scan the text once, case-folding and normalizing on the fly, and record
+     * the first keyword hit into the given match, if one is supplied. No
+     * intermediate string is built; offsets refer to the text as given. The
+     * match is reset when nothing is found.
+     */
+    public boolean find(CharSequence text, KeywordMatch result) {
+        if (result != null) {
+            result.reset();
+        }
+        if (text == null) {
+            return false;
+        }
+        if (scan(text, result)) {
+            return true;
+        }
+        return delta != null && delta.scan(text, result);
+    }
+
+    private boolean scan(CharSequence text, KeywordMatch result) {
+        if (keywords.size() == 0 && patterns == null) {
+            return false;
+        }
+
+        // Pattern rules are not covered by the prefilter and still run on a rejected text
+        boolean scanKeywords = prefilter == null || prefilter.mightMatch(text);
+        if (!scanKeywords && patterns == null) {
+            return false;
+        }
+
+        // Source offsets of the most recent normalized characters, so a hit in
+        // the normalized stream can be mapped back to where it started
+        int[] positions = null;
+        int positionMask = 0;
+        if (result != null && normalized != null) {
+            positions = result.positionBuffer(normalized.getMaxLength());
+            positionMask = positions.length - 1;
+        }
+
+        int state = KeywordTrie.ROOT;
+        int normalizedState = KeywordTrie.ROOT;
+        int normalizedCount = 0;
+        char previousNormalized = TextNormalizer.DROP;
+        // Bit k is set if the normalized character k places back began a word of the text
+        long wordStarts = 0;
+        boolean atWordStart = true;
+        int patternState = patterns != null ? patterns.getStartState() : 0;
+
+        for (int i = 0; i < text.length(); i++) {
+            char raw = text.charAt(i);
+            char c = CaseFolding.fold(raw);
+
+            if (scanKeywords) {
+                state = exact.step(state, c);
+                int hit = exact.matchedId(state);
+                if (hit != KeywordTrie.NO_MATCH) {
+                    if (result != null) {
+                        result.set(keywords.get(hit), i + 1 - exact.matchedLength(state), i + 1, text);
+                    }
+                    return true;
+                }
+            }
+
+            if (patterns != null) {
+                patternState = patterns.step(patternState, c);
+                int rule = patterns.acceptedRule(patternState);
+                if (rule != PatternAutomaton.NO_MATCH) {
+                    if (result != null) {
+                        // The DFA only knows where a rule ends, not where it started
+                        result.set(patterns.getRule(rule).getPattern(), -1, i + 1, text);
+                    }
+                    return true;
+                }
+            }
+
+            if (scanKeywords && normalized != null) {
+                char n = TextNormalizer.map(raw);
+                if (n == TextNormalizer.SEPARATOR) {
+                    atWordStart = true;
+                    continue;
+                }
+                if (n == TextNormalizer.DROP) {
+                    continue;
+                }
+                if (n == previousNormalized) {
+                    // A collapsed repeat: a match starting here should start at its last copy
+                    if (positions != null) {
+                        positions[(normalizedCount - 1) & positionMask] = i;
+                    }
+                    if (atWordStart) {
+                        wordStarts |= 1;
+                        atWordStart = false;
+                    }
+                    continue;
+                }
+                previousNormalized = n;
+                if (positions != null) {
+                    positions[normalizedCount & positionMask] = i;
+                }
+                normalizedCount++;
+                wordStarts = (wordStarts << 1) | (atWordStart ? 1 : 0);
+                // A symbol read as a letter, as in "!FREE", may be leading punctuation instead
+                atWordStart &= !Character.isLetterOrDigit(raw);
+                normalizedState = normalized.step(normalizedState, n);
+                int hit = normalized.matchedId(normalizedState);
+                if (hit != KeywordTrie.NO_MATCH) {
+                    int length = normalized.matchedLength(normalizedState);
+                    if (length <= MAX_NORMALIZED_HIT_LENGTH && (wordStarts & (1L << (length - 1))) != 0
+                            && endsWord(text, i + 1, n)) {
+                        if (result != null) {
+                            result.set(keywords.get(hit), positions[(normalizedCount - length) & positionMask],
+                                    i + 1, text);
+                        }
+                        return true;
+                    }
+                }
+            }
+        }
+
+        if (scanKeywords && prefilter != null) {
+            prefilter.recordFalsePositive();
+        }
+        return false;
+    }
+
+    // Whether a normalized hit whose last character is last also ends a word:
+    // only repeats of that character, invisible characters and symbols that may
+    // be trailing punctuation ("0ffer!") come before a separator or the end
+    private static boolean endsWord(CharSequence text, int from, char last) {
+        for (int i = from; i < text.length(); i++) {
+            char raw = text.charAt(i);
+            char n = TextNormalizer.map(raw);
+            if (n == TextNormalizer.SEPARATOR) {
+                return true;
+            }
+            if (n != TextNormalizer.DROP && n != last && Character.isLetterOrDigit(raw)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Number of keywords compiled into this matcher
+     */
+    public int size() {
+        return keywords.size() + (delta != null ? delta.size() : 0);
+    }
+
+    /**
+     * All keywords, including those added through extend(). Decoded on each
+     * call, so not for the scan path.
+     */
+    public List<String> getKeywords() {
+        List<String> all = keywords.toList();
+        if (delta != null) {
+            all.addAll(delta.getKeywords());
+        }
+        return all;
+    }
+
+    public double getPrefilterFalsePositiveRate() {
+        return prefilterFalsePositiveRate;
+    }
+
+    public int getPrefilterMaxBytes() {
+        return prefilterMaxBytes;
+    }
+
+    /**
+     * Number of pattern rules compiled into this matcher
+     */
+    public int getRuleCount() {
+        return patterns != null ? patterns.size() : 0;
+    }
+
+    /**
+     * Prefilter in front of the keyword automata, or null when the list is too
+     * small (or has keywords too short) to use one
+     */
+    public NgramBloomFilter getPrefilter() {
+        return prefilter;
+    }
+}
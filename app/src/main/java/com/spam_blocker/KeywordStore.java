@@ -0,0 +1,154 @@
+package com.spam_blocker;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compiled keyword file, so services can start matching without parsing the
+ * keyword list out of SharedPreferences.
+ *
+ * The file holds the pattern rules as text followed by the compiled matcher
+ * sections (keyword table, double-array tries, prefilter). It is memory-mapped
+ * read-only and used in place: nothing is copied onto the heap, and every
+ * component in the process shares the same page-cache pages. Writes go to a
+ * temporary file that is renamed over the old one, so a reader never sees a
+ * half-written file.
+ */
+public class KeywordStore {
+    private static final String TAG = "KeywordStore";
+    public static final String FILE_NAME = "keywords.bin";
+
+    private static final int MAGIC = 0x314b5753; // "SWK1" little-endian
+    private static final int VERSION = 1;
+    // int magic, int version, long generation
+    private static final int HEADER_BYTES = 16;
+
+    /**
+     * Contents of a keyword file
+     */
+    public static class Contents {
+        private final long generation;
+        private final KeywordMatcher matcher;
+        private final List<PatternRule> rules;
+
+        Contents(long generation, KeywordMatcher matcher, List<PatternRule> rules) {
+            this.generation = generation;
+            this.matcher = matcher;
+            this.rules = rules;
+        }
+
+        /**
+         * Generation of the keyword list this file was compiled from
+         */
+        public long getGeneration() {
+            return generation;
+        }
+
+        public KeywordMatcher getMatcher() {
+            return matcher;
+        }
+
+        public List<PatternRule> getRules() {
+            return rules;
+        }
+    }
+
+    private KeywordStore() {
+    }
+
+    /**
+     * Write the compiled matcher and the rules it was compiled with
+     */
+    public static void write(File file, long generation, KeywordMatcher matcher, List<PatternRule> rules)
+            throws IOException {
+        String[] storageStrings = new String[rules.size()];
+        for (int i = 0; i < storageStrings.length; i++) {
+            storageStrings[i] = rules.get(i).toStorageString();
+        }
+
+        File temp = new File(file.getPath() + ".tmp");
+        RandomAccessFile out = new RandomAccessFile(temp, "rw");
+        try {
+            out.setLength(0);
+            FileChannel channel = out.getChannel();
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(MAGIC).putInt(VERSION).putLong(generation);
+            header.flip();
+            while (header.hasRemaining()) {
+                channel.write(header);
+            }
+            KeywordTable.of(storageStrings).writeTo(channel);
+            matcher.writeTo(channel);
+            channel.force(true);
+        } finally {
+            out.close();
+        }
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            throw new IOException("Cannot replace " + file);
+        }
+        Log.d(TAG, "Wrote " + file.length() + " bytes, generation " + generation);
+    }
+
+    /**
+     * Map a keyword file, or return null if it is missing, from another
+     * version or unreadable
+     */
+    public static Contents read(File file) {
+        if (!file.exists()) {
+            return null;
+        }
+        try {
+            MappedByteBuffer mapped;
+            RandomAccessFile in = new RandomAccessFile(file, "r");
+            try {
+                // The mapping stays valid after the file is closed
+                mapped = in.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, in.length());
+            } finally {
+                in.close();
+            }
+
+            ByteBuffer buffer = mapped.order(ByteOrder.LITTLE_ENDIAN);
+            if (buffer.remaining() < HEADER_BYTES || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+                Log.w(TAG, "Ignoring keyword file with unknown format");
+                return null;
+            }
+            long generation = buffer.getLong(8);
+            buffer.position(HEADER_BYTES);
+
+            KeywordTable storageStrings = KeywordTable.read(buffer);
+            List<PatternRule> rules = new ArrayList<>();
+            for (int i = 0; i < storageStrings.size(); i++) {
+                PatternRule rule = PatternRule.fromStorageString(storageStrings.get(i));
+                if (rule != null) {
+                    rules.add(rule);
+                }
+            }
+
+            int matcherStart = buffer.position();
+            KeywordMatcher matcher;
+            try {
+                matcher = KeywordMatcher.read(buffer, rules);
+            } catch (IllegalArgumentException e) {
+                // Same fallback as compiling: keep keyword matching if the rules no longer compile
+                Log.w(TAG, "Pattern rules failed to compile, matching keywords only", e);
+                buffer.position(matcherStart);
+                matcher = KeywordMatcher.read(buffer, new ArrayList<PatternRule>());
+            }
+            return new Contents(generation, matcher, rules);
+        } catch (IOException | RuntimeException e) {
+            // A truncated or corrupt file is rebuilt from the preferences
+            Log.w(TAG, "Cannot read keyword file", e);
+            return null;
+        }
+    }
+}
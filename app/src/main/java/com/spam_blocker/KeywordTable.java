@@ -0,0 +1,120 @@
+package com.spam_blocker;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keyword strings by id, stored back to back in one little-endian buffer.
+ * A string is only materialized when it is asked for, so a mapped table costs
+ * nothing until a keyword actually matches.
+ */
+final class KeywordTable {
+    // int count, int totalChars
+    private static final int HEADER_BYTES = 8;
+
+    private final ByteBuffer data;
+    private final IntBuffer offsets;
+    private final CharBuffer chars;
+    private final int count;
+
+    /**
+     * Layout: int count, int totalChars, int[count + 1] offsets, char[totalChars]
+     */
+    private KeywordTable(ByteBuffer data) {
+        this.data = data;
+        this.count = data.getInt(0);
+        int totalChars = data.getInt(4);
+        int offsetBytes = (count + 1) * 4;
+        offsets = slice(data, HEADER_BYTES, offsetBytes).asIntBuffer();
+        chars = slice(data, HEADER_BYTES + offsetBytes, totalChars * 2).asCharBuffer();
+    }
+
+    static KeywordTable of(String[] keywords) {
+        int totalChars = 0;
+        for (String keyword : keywords) {
+            totalChars += keyword.length();
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(sectionBytes(keywords.length, totalChars))
+                .order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(keywords.length).putInt(totalChars);
+        int offset = 0;
+        for (String keyword : keywords) {
+            buffer.putInt(offset);
+            offset += keyword.length();
+        }
+        buffer.putInt(offset);
+        CharBuffer out = buffer.asCharBuffer();
+        for (String keyword : keywords) {
+            out.put(keyword);
+        }
+        buffer.clear();
+        return new KeywordTable(buffer);
+    }
+
+    /**
+     * Read a table section at the buffer's position and advance past it
+     */
+    static KeywordTable read(ByteBuffer buffer) {
+        ByteBuffer header = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        int bytes = sectionBytes(header.getInt(buffer.position()), header.getInt(buffer.position() + 4));
+        KeywordTable table = new KeywordTable(slice(buffer, buffer.position(), bytes));
+        buffer.position(buffer.position() + bytes);
+        return table;
+    }
+
+    void writeTo(WritableByteChannel channel) throws IOException {
+        ByteBuffer out = toBuffer();
+        while (out.hasRemaining()) {
+            channel.write(out);
+        }
+    }
+
+    /**
+     * The encoded section, for writing into a larger buffer
+     */
+    ByteBuffer toBuffer() {
+        ByteBuffer out = data.duplicate();
+        out.clear();
+        return out;
+    }
+
+    String get(int id) {
+        int start = offsets.get(id);
+        int end = offsets.get(id + 1);
+        return chars.subSequence(start, end).toString();
+    }
+
+    int size() {
+        return count;
+    }
+
+    List<String> toList() {
+        List<String> list = new ArrayList<>(count);
+        for (int id = 0; id < count; id++) {
+            list.add(get(id));
+        }
+        return list;
+    }
+
+    int byteSize() {
+        return data.capacity();
+    }
+
+    private static int sectionBytes(int count, int totalChars) {
+        // Padded so the next section stays 8-byte aligned
+        int bytes = HEADER_BYTES + (count + 1) * 4 + totalChars * 2;
+        return (bytes + 7) & ~7;
+    }
+
+    private static ByteBuffer slice(ByteBuffer buffer, int offset, int length) {
+        ByteBuffer view = buffer.duplicate();
+        view.limit(offset + length).position(offset);
+        return view.slice().order(ByteOrder.LITTLE_ENDIAN);
+    }
+}
@@ -0,0 +1,386 @@
+package com.spam_blocker;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Aho-Corasick automaton over a set of strings. Each string carries an id that
+ * is reported when the automaton reaches the end of it.
+ *
+ * The goto function is a double-array trie: characters are first mapped to
+ * dense codes, and the child of state s for code c is t = base[s] + c, valid
+ * when check[t] == s. All arrays live in one little-endian buffer, so a trie
+ * built in memory and one memory-mapped from a keyword file are read the same way.
+ */
+final class KeywordTrie {
+    static final int ROOT = 0;
+    static final int NO_MATCH = -1;
+
+    private static final int ALPHABET = Character.MAX_VALUE + 1;
+    private static final int FREE = -1;
+    // int size, int maxLength, int alphabetSize, int padding
+    private static final int HEADER_BYTES = 16;
+
+    private final ByteBuffer data;
+    private final CharBuffer codes;
+    private final IntBuffer base;
+    private final IntBuffer check;
+    private final IntBuffer fail;
+    // Id of the string recognised in this state (directly or through the fail chain)
+    private final IntBuffer match;
+    private final IntBuffer matchLength;
+    private final int size;
+    private final int maxLength;
+    // Characters at or above this have no code
+    private final int alphabetSize;
+
+    /**
+     * Layout: int size, int maxLength, int alphabetSize, padding,
+     * char[alphabetSize] codes (padded to 4 bytes), then base, check, fail,
+     * match and matchLength as int[size] each
+     */
+    private KeywordTrie(ByteBuffer data) {
+        this.data = data;
+        this.size = data.getInt(0);
+        this.maxLength = data.getInt(4);
+        this.alphabetSize = data.getInt(8);
+        int offset = HEADER_BYTES;
+        codes = slice(data, offset, alphabetSize * 2).asCharBuffer();
+        offset += codeBytes(alphabetSize);
+        base = slice(data, offset, size * 4).asIntBuffer();
+        offset += size * 4;
+        check = slice(data, offset, size * 4).asIntBuffer();
+        offset += size * 4;
+        fail = slice(data, offset, size * 4).asIntBuffer();
+        offset += size * 4;
+        match = slice(data, offset, size * 4).asIntBuffer();
+        offset += size * 4;
+        matchLength = slice(data, offset, size * 4).asIntBuffer();
+    }
+
+    /**
+     * Build the automaton; strings[i] is reported as ids[i]. Empty strings are
+     * skipped, and of equal strings the first one wins.
+     */
+    static KeywordTrie build(final String[] strings, int[] ids) {
+        int count = 0;
+        Integer[] order = new Integer[strings.length];
+        int[] frequency = new int[ALPHABET];
+        int maxLength = 0;
+        for (int k = 0; k < strings.length; k++) {
+            String string = strings[k];
+            if (string == null || string.isEmpty()) {
+                continue;
+            }
+            order[count++] = k;
+            for (int i = 0; i < string.length(); i++) {
+                frequency[string.charAt(i)]++;
+            }
+            maxLength = Math.max(maxLength, string.length());
+        }
+
+        // Sorted strings put the children of every node in one contiguous range
+        Arrays.sort(order, 0, count, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                int result = strings[a].compareTo(strings[b]);
+                return result != 0 ? result : Integer.compare(a, b);
+            }
+        });
+        String[] sorted = new String[count];
+        int[] sortedIds = new int[count];
+        for (int i = 0; i < count; i++) {
+            sorted[i] = strings[order[i]];
+            sortedIds[i] = ids[order[i]];
+        }
+
+        return new Builder(assignCodes(frequency), sorted, sortedIds, maxLength).build();
+    }
+
+    /**
+     * Read a trie section at the buffer's position and advance past it. The
+     * section is used in place, so a mapped buffer is never copied.
+     */
+    static KeywordTrie read(ByteBuffer buffer) {
+        ByteBuffer header = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        int bytes = sectionBytes(header.getInt(buffer.position()), header.getInt(buffer.position() + 8));
+        KeywordTrie trie = new KeywordTrie(slice(buffer, buffer.position(), bytes));
+        buffer.position(buffer.position() + bytes);
+        return trie;
+    }
+
+    void writeTo(WritableByteChannel channel) throws IOException {
+        ByteBuffer out = data.duplicate();
+        out.clear();
+        while (out.hasRemaining()) {
+            channel.write(out);
+        }
+    }
+
+    int byteSize() {
+        return data.capacity();
+    }
+
+    int step(int state, char c) {
+        int code = c < alphabetSize ? codes.get(c) : 0;
+        if (code == 0) {
+            // No string contains this character, so every state falls back to the root
+            return ROOT;
+        }
+        while (true) {
+            int target = base.get(state) + code;
+            if (target < size && check.get(target) == state) {
+                return target;
+            }
+            if (state == ROOT) {
+                return ROOT;
+            }
+            state = fail.get(state);
+        }
+    }
+
+    /**
+     * Id of the string that ends in this state, or NO_MATCH
+     */
+    int matchedId(int state) {
+        return match.get(state);
+    }
+
+    /**
+     * Length of the string reported by matchedId()
+     */
+    int matchedLength(int state) {
+        return matchLength.get(state);
+    }
+
+    /**
+     * Length of the longest string in the automaton
+     */
+    int getMaxLength() {
+        return maxLength;
+    }
+
+    boolean isEmpty() {
+        return maxLength == 0;
+    }
+
+    private static int sectionBytes(int size, int alphabetSize) {
+        // Padded so the next section stays 8-byte aligned
+        int bytes = HEADER_BYTES + codeBytes(alphabetSize) + 5 * size * 4;
+        return (bytes + 7) & ~7;
+    }
+
+    private static int codeBytes(int alphabetSize) {
+        return (alphabetSize * 2 + 3) & ~3;
+    }
+
+    private static ByteBuffer slice(ByteBuffer buffer, int offset, int length) {
+        ByteBuffer view = buffer.duplicate();
+        view.limit(offset + length).position(offset);
+        return view.slice().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    // Most frequent characters get the smallest codes, which keeps the arrays dense
+    private static char[] assignCodes(final int[] frequency) {
+        Integer[] used = new Integer[ALPHABET];
+        int usedCount = 0;
+        for (int c = 0; c < ALPHABET; c++) {
+            if (frequency[c] > 0) {
+                used[usedCount++] = c;
+            }
+        }
+        Arrays.sort(used, 0, usedCount, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return Integer.compare(frequency[b], frequency[a]);
+            }
+        });
+        char[] codes = new char[ALPHABET];
+        for (int i = 0; i < usedCount; i++) {
+            codes[used[i]] = (char) (i + 1);
+        }
+        return codes;
+    }
+
+    /**
+     * Places the trie breadth-first. Fail links and matches are filled in as
+     * each child is placed: everything they depend on is shallower and so
+     * already final.
+     */
+    private static final class Builder {
+        private final char[] codes;
+        private final String[] strings;
+        private final int[] ids;
+        private final int maxLength;
+
+        private int[] base = new int[1024];
+        private int[] check = new int[1024];
+        private int[] fail = new int[1024];
+        private int[] match = new int[1024];
+        private int[] matchLength = new int[1024];
+        private int size = 1;
+        // Where the search for a free base starts; advanced past regions that are nearly full
+        private int nextCheck = 1;
+
+        Builder(char[] codes, String[] strings, int[] ids, int maxLength) {
+            this.codes = codes;
+            this.strings = strings;
+            this.ids = ids;
+            this.maxLength = maxLength;
+            Arrays.fill(check, FREE);
+            check[ROOT] = ROOT;
+            match[ROOT] = NO_MATCH;
+        }
+
+        KeywordTrie build() {
+            // Each entry: state, first string, end of strings, depth
+            ArrayDeque<int[]> queue = new ArrayDeque<>();
+            queue.add(new int[] { ROOT, 0, strings.length, 0 });
+            int[] groupStart = new int[Math.max(1, strings.length) + 1];
+            int[] groupCodes = new int[Math.max(1, strings.length)];
+
+            while (!queue.isEmpty()) {
+                int[] node = queue.poll();
+                int state = node[0];
+                int end = node[2];
+                int depth = node[3];
+
+                // Strings ending at this node sort first; the rest group by their next character
+                int i = node[1];
+                while (i < end && strings[i].length() == depth) {
+                    i++;
+                }
+                int groups = 0;
+                for (; i < end; i++) {
+                    char c = strings[i].charAt(depth);
+                    if (groups == 0 || strings[groupStart[groups - 1]].charAt(depth) != c) {
+                        groupStart[groups] = i;
+                        groupCodes[groups] = codes[c];
+                        groups++;
+                    }
+                }
+                if (groups == 0) {
+                    continue;
+                }
+                groupStart[groups] = end;
+
+                int b = findBase(groupCodes, groups);
+                base[state] = b;
+                for (int g = 0; g < groups; g++) {
+                    check[b + groupCodes[g]] = state;
+                }
+                size = Math.max(size, b + maxCode(groupCodes, groups) + 1);
+
+                for (int g = 0; g < groups; g++) {
+                    int child = b + groupCodes[g];
+                    int first = groupStart[g];
+                    char c = strings[first].charAt(depth);
+                    fail[child] = state == ROOT ? ROOT : step(fail[state], c);
+                    if (strings[first].length() == depth + 1) {
+                        match[child] = ids[first];
+                        matchLength[child] = depth + 1;
+                    } else {
+                        match[child] = match[fail[child]];
+                        matchLength[child] = matchLength[fail[child]];
+                    }
+                    queue.add(new int[] { child, first, groupStart[g + 1], depth + 1 });
+                }
+            }
+            return new KeywordTrie(toBuffer());
+        }
+
+        private int step(int state, char c) {
+            int code = codes[c];
+            while (true) {
+                int target = base[state] + code;
+                if (target < size && check[target] == state) {
+                    return target;
+                }
+                if (state == ROOT) {
+                    return ROOT;
+                }
+                state = fail[state];
+            }
+        }
+
+        // First base at or after nextCheck whose child slots are all free
+        private int findBase(int[] groupCodes, int groups) {
+            int minCode = Integer.MAX_VALUE;
+            for (int g = 0; g < groups; g++) {
+                minCode = Math.min(minCode, groupCodes[g]);
+            }
+            int topCode = maxCode(groupCodes, groups);
+            int start = Math.max(nextCheck, minCode + 1);
+            int position = start;
+            int occupied = 0;
+            while (true) {
+                ensureCapacity(position - minCode + topCode + 1);
+                if (check[position] != FREE) {
+                    occupied++;
+                } else {
+                    int b = position - minCode;
+                    boolean fits = true;
+                    for (int g = 0; g < groups; g++) {
+                        if (check[b + groupCodes[g]] != FREE) {
+                            fits = false;
+                            break;
+                        }
+                    }
+                    if (fits) {
+                        // Stop rescanning a region that is almost full; its few holes are lost
+                        if (occupied >= (position - start + 1) * 0.95) {
+                            nextCheck = position;
+                        }
+                        return b;
+                    }
+                }
+                position++;
+            }
+        }
+
+        private static int maxCode(int[] groupCodes, int groups) {
+            int max = 0;
+            for (int g = 0; g < groups; g++) {
+                max = Math.max(max, groupCodes[g]);
+            }
+            return max;
+        }
+
+        private void ensureCapacity(int capacity) {
+            if (capacity <= check.length) {
+                return;
+            }
+            int newLength = Math.max(capacity, check.length * 2);
+            int oldLength = check.length;
+            base = Arrays.copyOf(base, newLength);
+            check = Arrays.copyOf(check, newLength);
+            fail = Arrays.copyOf(fail, newLength);
+            match = Arrays.copyOf(match, newLength);
+            matchLength = Arrays.copyOf(matchLength, newLength);
+            Arrays.fill(check, oldLength, newLength, FREE);
+        }
+
+        private ByteBuffer toBuffer() {
+            int alphabetSize = codes.length;
+            while (alphabetSize > 0 && codes[alphabetSize - 1] == 0) {
+                alphabetSize--;
+            }
+            ByteBuffer buffer = ByteBuffer.allocate(sectionBytes(size, alphabetSize)).order(ByteOrder.LITTLE_ENDIAN);
+            buffer.putInt(size).putInt(maxLength).putInt(alphabetSize).putInt(0);
+            buffer.asCharBuffer().put(codes, 0, alphabetSize);
+            buffer.position(HEADER_BYTES + codeBytes(alphabetSize));
+            IntBuffer ints = buffer.asIntBuffer();
+            ints.put(base, 0, size).put(check, 0, size).put(fail, 0, size).put(match, 0, size)
+                    .put(matchLength, 0, size);
+            buffer.clear();
+            return buffer;
+        }
+    }
+}
@@ -0,0 +1,190 @@
+package com.spam_blocker;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Open-addressing hash set of primitive longs.
+ *
+ * Keys live directly in one array with linear probing, so an entry costs
+ * 8 bytes divided by the load factor and no objects. One thread may add and
+ * remove while any number of threads call {@link #contains} without locking:
+ * slots are written with volatile stores, removal leaves a tombstone instead
+ * of moving keys a reader may be probing past, and growing builds a new table
+ * that is published in one volatile write.
+ *
+ * The values 0 and -1 mark empty and removed slots and cannot be stored.
+ */
+public final class LongHashSet {
+    private static final long EMPTY = 0;
+    private static final long REMOVED = -1;
+    private static final int MIN_CAPACITY = 16;
+    // Grow once live keys plus tombstones fill three quarters of the table
+    private static final int MAX_LOAD_PERCENT = 75;
+
+    private volatile AtomicLongArray table;
+    // Written only by the writer thread
+    private int size;
+    private int used;
+
+    public LongHashSet() {
+        this(MIN_CAPACITY);
+    }
+
+    public LongHashSet(int expectedSize) {
+        table = new AtomicLongArray(capacityFor(expectedSize));
+    }
+
+    /**
+     * Lock-free; safe to call concurrently with the writer
+     */
+    public boolean contains(long key) {
+        checkKey(key);
+        AtomicLongArray slots = table;
+        int mask = slots.length() - 1;
+        for (int i = mix(key) & mask; ; i = (i + 1) & mask) {
+            long slot = slots.get(i);
+            if (slot == key) {
+                return true;
+            }
+            if (slot == EMPTY) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Add a key; returns false if it was already present. Writer thread only.
+     */
+    public boolean add(long key) {
+        checkKey(key);
+        AtomicLongArray slots = table;
+        int mask = slots.length() - 1;
+        int free = -1;
+        int i = mix(key) & mask;
+        for (; ; i = (i + 1) & mask) {
+            long slot = slots.get(i);
+            if (slot == key) {
+                return false;
+            }
+            if (slot == EMPTY) {
+                break;
+            }
+            if (slot == REMOVED && free < 0) {
+                free = i;
+            }
+        }
+
+        if (free >= 0) {
+            // Reuse the tombstone; the key was not found further along the chain
+            slots.set(free, key);
+        } else {
+            slots.set(i, key);
+            used++;
+        }
+        size++;
+        if (used * 100L > slots.length() * (long) MAX_LOAD_PERCENT) {
+            rehash(capacityFor(size));
+        }
+        return true;
+    }
+
+    /**
+     * Remove a key; returns false if it was not present. Writer thread only.
+     */
+    public boolean remove(long key) {
+        checkKey(key);
+        AtomicLongArray slots = table;
+        int mask = slots.length() - 1;
+        for (int i = mix(key) & mask; ; i = (i + 1) & mask) {
+            long slot = slots.get(i);
+            if (slot == key) {
+                slots.set(i, REMOVED);
+                size--;
+                return true;
+            }
+            if (slot == EMPTY) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Remove every key. Writer thread only.
+     */
+    public void clear() {
+        table = new AtomicLongArray(MIN_CAPACITY);
+        size = 0;
+        used = 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * The keys in ascending order. Writer thread only.
+     */
+    public long[] toSortedArray() {
+        AtomicLongArray slots = table;
+        long[] keys = new long[size];
+        int count = 0;
+        for (int i = 0; i < slots.length(); i++) {
+            long key = slots.get(i);
+            if (key != EMPTY && key != REMOVED) {
+                keys[count++] = key;
+            }
+        }
+        Arrays.sort(keys);
+        return keys;
+    }
+
+    /**
+     * Approximate heap footprint of the key table
+     */
+    public long getSizeBytes() {
+        return table.length() * 8L;
+    }
+
+    private void rehash(int capacity) {
+        AtomicLongArray old = table;
+        AtomicLongArray slots = new AtomicLongArray(capacity);
+        int mask = capacity - 1;
+        for (int j = 0; j < old.length(); j++) {
+            long key = old.get(j);
+            if (key == EMPTY || key == REMOVED) {
+                continue;
+            }
+            int i = mix(key) & mask;
+            while (slots.get(i) != EMPTY) {
+                i = (i + 1) & mask;
+            }
+            // Not yet visible to readers, so plain stores are enough
+            slots.lazySet(i, key);
+        }
+        table = slots;
+        used = size;
+    }
+
+    // Power of two that keeps the expected size at or below half full
+    private static int capacityFor(int expectedSize) {
+        int capacity = MIN_CAPACITY;
+        while (capacity < expectedSize * 2L) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+
+    // Final step of SplitMix64, so keys that differ only in low digits spread across the table
+    private static int mix(long key) {
+        key = (key ^ (key >>> 30)) * 0xbf58476d1ce4e5b9L;
+        key = (key ^ (key >>> 27)) * 0x94d049bb133111ebL;
+        return (int) (key ^ (key >>> 31));
+    }
+
+    private static void checkKey(long key) {
+        if (key == EMPTY || key == REMOVED) {
+            throw new IllegalArgumentException("Reserved key: " + key);
+        }
+    }
+}
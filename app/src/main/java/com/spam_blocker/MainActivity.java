@@ -4,11 +4,15 @@ import android.Manifest;
 import android.content.Intent;
 import android.content.pm.PackageManager;
 import android.os.Build;
+import android.net.Uri;
 import android.os.Bundle;
+import android.os.ParcelFileDescriptor;
 import android.provider.Settings;
+import android.util.Log;
 import android.view.View;
 import android.widget.Button;
 import android.widget.EditText;
+import android.widget.ProgressBar;
 import android.widget.TextView;
 import android.widget.Toast;
 
@@ -18,8 +22,16 @@ import androidx.core.content.ContextCompat;
 import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
 public class MainActivity extends AppCompatActivity {
+    private static final String TAG = "MainActivity";
     private static final int PERMISSION_REQUEST_CODE = 1;
+    private static final int IMPORT_REQUEST_CODE = 2;
+    private static final int IMPORT_NUMBERS_REQUEST_CODE = 3;
+    private static final int EXPORT_REQUEST_CODE = 4;
 
     private EditText etKeyword;
     private Button btnAddKeyword;
@@ -27,6 +39,13 @@ public class MainActivity extends AppCompatActivity {
     private Button btnBlockedNumbers;
     private Button btnDndAccess;
     private Button btnTestBlocking;
+    private Button btnImportKeywords;
+    private Button btnExportKeywords;
+    private Button btnImportNumbers;
+    private EditText etCountryCode;
+    private Button btnSaveCountryCode;
+    private ProgressBar pbImport;
+    private TextView tvImportStatus;
     private RecyclerView rvKeywords;
     private TextView tvServiceStatus;
     private TextView tvDndStatus;
@@ -34,13 +53,17 @@ public class MainActivity extends AppCompatActivity {
 
     private KeywordAdapter keywordAdapter;
     private KeywordManager keywordManager;
+    private NumberRules numberRules;
+    // Chosen before the document picker opens, used when it returns
+    private TransferFormat exportFormat = TransferFormat.CSV;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_main);
 
-        keywordManager = new KeywordManager(this);
+        keywordManager = KeywordManager.getInstance(this);
+        numberRules = NumberRules.getInstance(this);
 
         // Add some test blocked numbers for demonstration (only add once)
         addTestBlockedNumbers();
@@ -59,6 +82,14 @@ public class MainActivity extends AppCompatActivity {
         btnBlockedNumbers = findViewById(R.id.btn_blocked_numbers);
         btnDndAccess = findViewById(R.id.btn_dnd_access);
         btnTestBlocking = findViewById(R.id.btn_test_blocking);
+        btnImportKeywords = findViewById(R.id.btn_import_keywords);
+        btnExportKeywords = findViewById(R.id.btn_export_keywords);
+        btnImportNumbers = findViewById(R.id.btn_import_numbers);
+        etCountryCode = findViewById(R.id.et_country_code);
+        btnSaveCountryCode = findViewById(R.id.btn_save_country_code);
+        etCountryCode.setText(PhoneNumberCanonicalizer.getInstance(this).getDefaultCountryCode());
+        pbImport = findViewById(R.id.pb_import);
+        tvImportStatus = findViewById(R.id.tv_import_status);
         rvKeywords = findViewById(R.id.rv_keywords);
         tvServiceStatus = findViewById(R.id.tv_service_status);
         tvDndStatus = findViewById(R.id.tv_dnd_status);
@@ -66,10 +97,15 @@ public class MainActivity extends AppCompatActivity {
     }
 
     private void setupRecyclerView() {
-        keywordAdapter = new KeywordAdapter(keywordManager, new KeywordAdapter.OnKeywordDeleteListener() {
+        keywordAdapter = new KeywordAdapter(keywordManager, numberRules, new KeywordAdapter.OnKeywordDeleteListener() {
             @Override
             public void onDelete(String keyword) {
-                keywordManager.removeKeyword(keyword);
+                NumberRule numberRule = NumberRule.fromStorageString(keyword);
+                if (numberRule != null) {
+                    numberRules.removeRule(numberRule);
+                } else {
+                    keywordManager.removeEntry(keyword);
+                }
                 updateUI();
                 Toast.makeText(MainActivity.this, "Keyword removed", Toast.LENGTH_SHORT).show();
             }
@@ -84,10 +120,30 @@ public class MainActivity extends AppCompatActivity {
             public void onClick(View v) {
                 String keyword = etKeyword.getText().toString().trim();
                 if (!keyword.isEmpty()) {
-                    keywordManager.addKeyword(keyword);
+                    NumberRule numberRule = NumberRule.parse(keyword);
+                    if (numberRule != null) {
+                        numberRules.addRule(numberRule);
+                        etKeyword.setText("");
+                        updateUI();
+                        Toast.makeText(MainActivity.this, "Number rule added", Toast.LENGTH_SHORT).show();
+                        return;
+                    }
+                    PatternRule rule = PatternRule.parse(keyword);
+                    if (rule != null) {
+                        try {
+                            keywordManager.addPatternRule(rule);
+                        } catch (IllegalArgumentException e) {
+                            Toast.makeText(MainActivity.this, "Invalid pattern: " + e.getMessage(),
+                                    Toast.LENGTH_LONG).show();
+                            return;
+                        }
+                    } else {
+                        keywordManager.addKeyword(keyword);
+                    }
                     etKeyword.setText("");
                     updateUI();
-                    Toast.makeText(MainActivity.this, "Keyword added", Toast.LENGTH_SHORT).show();
+                    Toast.makeText(MainActivity.this, rule != null ? "Pattern added" : "Keyword added",
+                            Toast.LENGTH_SHORT).show();
                 } else {
                     Toast.makeText(MainActivity.this, "Please enter a keyword", Toast.LENGTH_SHORT).show();
                 }
@@ -132,6 +188,216 @@ public class MainActivity extends AppCompatActivity {
                 testBlockingFunctionality();
             }
         });
+
+        btnImportKeywords.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                startActivityForResult(TransferFiles.openDocument(), IMPORT_REQUEST_CODE);
+            }
+        });
+
+        btnExportKeywords.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                TransferFiles.chooseFormat(MainActivity.this, "Export Keywords", new TransferFiles.FormatListener() {
+                    @Override
+                    public void onFormat(TransferFormat format) {
+                        exportFormat = format;
+                        startActivityForResult(TransferFiles.createDocument("spam_blocker_keywords", format),
+                                EXPORT_REQUEST_CODE);
+                    }
+                });
+            }
+        });
+
+        btnImportNumbers.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                Intent intent = new Intent(Intent.ACTION_OPEN_DOCUMENT);
+                intent.addCategory(Intent.CATEGORY_OPENABLE);
+                intent.setType("text/*");
+                startActivityForResult(intent, IMPORT_NUMBERS_REQUEST_CODE);
+            }
+        });
+
+        btnSaveCountryCode.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                try {
+                    PhoneNumberCanonicalizer.setDefaultCountryCode(MainActivity.this,
+                            etCountryCode.getText().toString());
+                    Toast.makeText(MainActivity.this, "Default country code saved", Toast.LENGTH_SHORT).show();
+                } catch (IllegalArgumentException e) {
+                    Toast.makeText(MainActivity.this, e.getMessage(), Toast.LENGTH_LONG).show();
+                }
+            }
+        });
+    }
+
+    @Override
+    protected void onActivityResult(int requestCode, int resultCode, Intent data) {
+        super.onActivityResult(requestCode, resultCode, data);
+        if (requestCode == IMPORT_REQUEST_CODE && resultCode == RESULT_OK && data != null && data.getData() != null) {
+            importKeywords(data.getData());
+        } else if (requestCode == IMPORT_NUMBERS_REQUEST_CODE && resultCode == RESULT_OK && data != null
+                && data.getData() != null) {
+            importNumbers(data.getData());
+        } else if (requestCode == EXPORT_REQUEST_CODE && resultCode == RESULT_OK && data != null
+                && data.getData() != null) {
+            exportKeywords(data.getData(), exportFormat);
+        }
+    }
+
+    /**
+     * Write the keywords and rules to the chosen document on a background thread
+     */
+    private void exportKeywords(final Uri uri, final TransferFormat format) {
+        btnExportKeywords.setEnabled(false);
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                String message;
+                try (ParcelFileDescriptor descriptor = getContentResolver().openFileDescriptor(uri, "wt")) {
+                    if (descriptor == null) {
+                        throw new IOException("Cannot open " + uri);
+                    }
+                    try (FileOutputStream output = new FileOutputStream(descriptor.getFileDescriptor())) {
+                        int count = keywordManager.exportEntries(output.getChannel(), format);
+                        message = count + " keywords and rules exported";
+                    }
+                } catch (IOException e) {
+                    Log.e(TAG, "Keyword export failed", e);
+                    message = "Export failed: " + e.getMessage();
+                }
+
+                final String result = message;
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        btnExportKeywords.setEnabled(true);
+                        Toast.makeText(MainActivity.this, result, Toast.LENGTH_SHORT).show();
+                    }
+                });
+            }
+        }).start();
+    }
+
+    /**
+     * Replace the imported spam number list on a background thread
+     */
+    private void importNumbers(final Uri uri) {
+        btnImportNumbers.setEnabled(false);
+        pbImport.setIndeterminate(true);
+        pbImport.setVisibility(View.VISIBLE);
+        tvImportStatus.setText("Importing numbers...");
+        tvImportStatus.setVisibility(View.VISIBLE);
+
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                String message;
+                try (InputStream input = getContentResolver().openInputStream(uri)) {
+                    if (input == null) {
+                        throw new IOException("Cannot open " + uri);
+                    }
+                    int count = NumberBlocklist.importNumbers(MainActivity.this, input);
+                    message = count + " spam numbers in blocklist";
+                } catch (IOException e) {
+                    Log.e(TAG, "Number import failed", e);
+                    message = "Import failed: " + e.getMessage();
+                }
+
+                final String result = message;
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        btnImportNumbers.setEnabled(true);
+                        pbImport.setVisibility(View.GONE);
+                        tvImportStatus.setText(result);
+                        Toast.makeText(MainActivity.this, result, Toast.LENGTH_SHORT).show();
+                    }
+                });
+            }
+        }).start();
+    }
+
+    /**
+     * Import a keyword list on a background thread, reporting progress and
+     * throughput below the import button. CSV and NDJSON exports are read as
+     * typed records; any other file as one keyword per line.
+     */
+    private void importKeywords(final Uri uri) {
+        btnImportKeywords.setEnabled(false);
+        pbImport.setIndeterminate(true);
+        pbImport.setVisibility(View.VISIBLE);
+        tvImportStatus.setText("Importing...");
+        tvImportStatus.setVisibility(View.VISIBLE);
+
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                long totalBytes = -1;
+                try (ParcelFileDescriptor descriptor = getContentResolver().openFileDescriptor(uri, "r")) {
+                    if (descriptor != null) {
+                        totalBytes = descriptor.getStatSize();
+                    }
+                } catch (IOException e) {
+                    Log.w(TAG, "Could not determine import size", e);
+                }
+
+                KeywordManager.ImportListener progress = new KeywordManager.ImportListener() {
+                    @Override
+                    public void onProgress(final int linesRead, final int keywordsAdded, final long bytesRead,
+                            final long totalBytes, final long elapsedMillis) {
+                        runOnUiThread(new Runnable() {
+                            @Override
+                            public void run() {
+                                showImportProgress(linesRead, keywordsAdded, bytesRead, totalBytes, elapsedMillis);
+                            }
+                        });
+                    }
+                };
+
+                String message;
+                try (InputStream input = getContentResolver().openInputStream(uri)) {
+                    if (input == null) {
+                        throw new IOException("Cannot open " + uri);
+                    }
+                    int added;
+                    if (TransferFormat.forFileName(TransferFiles.displayName(getContentResolver(), uri)) != null) {
+                        added = keywordManager.importEntries(TransferFiles.channel(input), totalBytes, progress);
+                    } else {
+                        added = keywordManager.importKeywords(input, totalBytes, progress);
+                    }
+                    message = added + " keywords imported";
+                } catch (IOException e) {
+                    Log.e(TAG, "Keyword import failed", e);
+                    message = "Import failed: " + e.getMessage();
+                }
+
+                final String result = message;
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        btnImportKeywords.setEnabled(true);
+                        pbImport.setVisibility(View.GONE);
+                        updateUI();
+                        Toast.makeText(MainActivity.this, result, Toast.LENGTH_SHORT).show();
+                    }
+                });
+            }
+        }).start();
+    }
+
+    private void showImportProgress(int linesRead, int keywordsAdded, long bytesRead, long totalBytes,
+            long elapsedMillis) {
+        if (totalBytes > 0) {
+            pbImport.setIndeterminate(false);
+            pbImport.setProgress((int) (bytesRead * 1000 / totalBytes));
+        }
+        long linesPerSecond = elapsedMillis > 0 ? linesRead * 1000L / elapsedMillis : linesRead;
+        tvImportStatus.setText(linesRead + " lines read, " + keywordsAdded + " new keywords ("
+                + linesPerSecond + " lines/s)");
     }
 
     private void checkPermissions() {
@@ -173,7 +439,7 @@ public class MainActivity extends AppCompatActivity {
     private void updateUI() {
         keywordAdapter.notifyDataSetChanged();
 
-        if (keywordManager.getKeywords().isEmpty()) {
+        if (!keywordManager.hasEntries() && numberRules.getEntries().isEmpty()) {
             tvEmptyKeywords.setVisibility(View.VISIBLE);
             rvKeywords.setVisibility(View.GONE);
         } else {
@@ -276,13 +542,29 @@ public class MainActivity extends AppCompatActivity {
                 .append("\n\n");
 
         // Check keywords
-        KeywordManager keywordManager = new KeywordManager(this);
         result.append("Keywords (").append(keywordManager.getKeywords().size()).append("):\n");
         for (String keyword : keywordManager.getKeywords()) {
             result.append("- ").append(keyword).append("\n");
         }
+        result.append("Patterns (").append(keywordManager.getPatternRules().size()).append("):\n");
+        for (PatternRule rule : keywordManager.getPatternRules()) {
+            result.append("- ").append(rule.toStorageString()).append("\n");
+        }
+        result.append("Number rules (").append(numberRules.getRules().size()).append("):\n");
+        for (NumberRule numberRule : numberRules.getRules()) {
+            result.append("- ").append(numberRule.toStorageString()).append("\n");
+        }
+        String prefilterStats = keywordManager.getPrefilterStats();
+        if (prefilterStats != null) {
+            result.append("Prefilter: ").append(prefilterStats).append("\n");
+        }
         result.append("\n");
 
+        String coldStartStats = CallDecisionIndex.getInstance(this).getColdStartStats();
+        if (coldStartStats != null) {
+            result.append("Cold start to first decision: ").append(coldStartStats).append("\n\n");
+        }
+
         // Check blocked numbers
         BlockedNumbersManager blockedManager = new BlockedNumbersManager(this);
         result.append("Blocked Numbers History (").append(blockedManager.getBlockedCount()).append("):\n");
@@ -0,0 +1,256 @@
+package com.spam_blocker;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Probabilistic prefilter in front of the keyword automata.
+ *
+ * One trigram of every keyword is added to a Bloom filter, both in its
+ * case-folded form and in its {@link TextNormalizer} form. A text that contains
+ * a keyword necessarily contains that trigram, so a text none of whose trigrams
+ * hit the filter can be rejected without touching the automata. Each keyword
+ * contributes its rarest trigram across the list, which keeps common grams such
+ * as "the" or "ing" out of the filter. The filter is
+ * sized from the requested false-positive rate per probe but never exceeds the
+ * given memory budget.
+ */
+public class NgramBloomFilter {
+    static final int GRAM = 3;
+
+    // Separates normalized trigrams from folded ones inside the same bit array
+    private static final long NORMALIZED_TAG = 1L << 48;
+    private static final int MIN_BITS = 1 << 10;
+
+    // int hashCount, int words
+    private static final int HEADER_BYTES = 8;
+
+    private final ByteBuffer data;
+    private final LongBuffer bits;
+    private final long mask;
+    private final int hashCount;
+
+    private final AtomicLong passed = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong falsePositives = new AtomicLong();
+
+    /**
+     * Layout: int hashCount, int words, long[words] bits
+     */
+    private NgramBloomFilter(ByteBuffer data) {
+        this.data = data;
+        this.hashCount = data.getInt(0);
+        int words = data.getInt(4);
+        ByteBuffer view = data.duplicate();
+        view.position(HEADER_BYTES);
+        this.bits = view.slice().order(ByteOrder.LITTLE_ENDIAN).asLongBuffer();
+        this.mask = (long) words * 64 - 1;
+    }
+
+    /**
+     * Build the filter, or return null when it cannot help: a keyword shorter
+     * than a trigram can match without any trigram hit.
+     *
+     * @param keywords           case-folded keywords
+     * @param normalizedKeywords their normalized forms (null entries are skipped)
+     * @param falsePositiveRate  target false-positive rate of a single probe
+     * @param maxBytes           memory budget for the bit array
+     */
+    public static NgramBloomFilter build(String[] keywords, String[] normalizedKeywords, double falsePositiveRate,
+            int maxBytes) {
+        int items = 0;
+        for (String keyword : keywords) {
+            if (keyword.length() < GRAM) {
+                return null;
+            }
+            items++;
+        }
+        for (String keyword : normalizedKeywords) {
+            if (keyword != null) {
+                if (keyword.length() < GRAM) {
+                    return null;
+                }
+                items++;
+            }
+        }
+        if (items == 0) {
+            return null;
+        }
+
+        // m = -n ln p / (ln 2)^2, rounded up to a power of two and capped by the budget
+        double optimalBits = -items * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2));
+        long budgetBits = Math.max((long) maxBytes * 8, MIN_BITS);
+        long size = MIN_BITS;
+        while (size < optimalBits && size * 2 <= budgetBits) {
+            size *= 2;
+        }
+        int hashCount = (int) Math.max(1, Math.min(16, Math.round((double) size / items * Math.log(2))));
+
+        Map<Long, Integer> frequency = new HashMap<>();
+        countTrigrams(keywords, 0, frequency);
+        countTrigrams(normalizedKeywords, NORMALIZED_TAG, frequency);
+
+        int words = (int) (size / 64);
+        ByteBuffer data = ByteBuffer.allocate(HEADER_BYTES + words * 8).order(ByteOrder.LITTLE_ENDIAN);
+        data.putInt(0, hashCount).putInt(4, words);
+        NgramBloomFilter filter = new NgramBloomFilter(data);
+        filter.addRarestTrigrams(keywords, 0, frequency);
+        filter.addRarestTrigrams(normalizedKeywords, NORMALIZED_TAG, frequency);
+        return filter;
+    }
+
+    private static void countTrigrams(String[] keywords, long tag, Map<Long, Integer> frequency) {
+        for (String keyword : keywords) {
+            if (keyword == null) {
+                continue;
+            }
+            for (int i = 0; i + GRAM <= keyword.length(); i++) {
+                Long gram = pack(keyword, i) | tag;
+                Integer count = frequency.get(gram);
+                frequency.put(gram, count == null ? 1 : count + 1);
+            }
+        }
+    }
+
+    private void addRarestTrigrams(String[] keywords, long tag, Map<Long, Integer> frequency) {
+        for (String keyword : keywords) {
+            if (keyword == null) {
+                continue;
+            }
+            long rarest = 0;
+            int rarestCount = Integer.MAX_VALUE;
+            for (int i = 0; i + GRAM <= keyword.length(); i++) {
+                long gram = pack(keyword, i) | tag;
+                int count = frequency.get(gram);
+                if (count < rarestCount) {
+                    rarest = gram;
+                    rarestCount = count;
+                }
+            }
+            add(rarest);
+        }
+    }
+
+    /**
+     * Read a filter section at the buffer's position and advance past it
+     */
+    static NgramBloomFilter read(ByteBuffer buffer) {
+        ByteBuffer view = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        int bytes = HEADER_BYTES + view.getInt(buffer.position() + 4) * 8;
+        view.limit(buffer.position() + bytes);
+        NgramBloomFilter filter = new NgramBloomFilter(view.slice().order(ByteOrder.LITTLE_ENDIAN));
+        buffer.position(buffer.position() + bytes);
+        return filter;
+    }
+
+    void writeTo(WritableByteChannel channel) throws IOException {
+        ByteBuffer out = data.duplicate();
+        out.clear();
+        while (out.hasRemaining()) {
+            channel.write(out);
+        }
+    }
+
+    /**
+     * Check whether any trigram of the text, folded or normalized, may belong to
+     * a keyword. Updates the pass/reject counters.
+     */
+    public boolean mightMatch(CharSequence text) {
+        long folded = 0;
+        long normalized = 0;
+        int foldedCount = 0;
+        int normalizedCount = 0;
+        char previousNormalized = TextNormalizer.DROP;
+
+        for (int i = 0; i < text.length(); i++) {
+            char raw = text.charAt(i);
+            folded = ((folded << 16) | CaseFolding.fold(raw)) & 0xffffffffffffL;
+            if (++foldedCount >= GRAM && contains(folded)) {
+                passed.incrementAndGet();
+                return true;
+            }
+
+            char n = TextNormalizer.map(raw);
+            if (n != TextNormalizer.DROP && n != TextNormalizer.SEPARATOR && n != previousNormalized) {
+                previousNormalized = n;
+                normalized = ((normalized << 16) | n) & 0xffffffffffffL;
+                if (++normalizedCount >= GRAM && contains(normalized | NORMALIZED_TAG)) {
+                    passed.incrementAndGet();
+                    return true;
+                }
+            }
+        }
+        rejected.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * Record that a text let through by the filter matched nothing
+     */
+    void recordFalsePositive() {
+        falsePositives.incrementAndGet();
+    }
+
+    public long getPassedCount() {
+        return passed.get();
+    }
+
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+
+    public long getFalsePositiveCount() {
+        return falsePositives.get();
+    }
+
+    public int getSizeBytes() {
+        return bits.capacity() * 8;
+    }
+
+    public int getHashCount() {
+        return hashCount;
+    }
+
+    private void add(long gram) {
+        long h1 = mix(gram);
+        long h2 = mix(h1) | 1;
+        for (int i = 0; i < hashCount; i++) {
+            long bit = (h1 + i * h2) & mask;
+            int word = (int) (bit >>> 6);
+            bits.put(word, bits.get(word) | (1L << bit));
+        }
+    }
+
+    private boolean contains(long gram) {
+        long h1 = mix(gram);
+        long h2 = mix(h1) | 1;
+        for (int i = 0; i < hashCount; i++) {
+            long bit = (h1 + i * h2) & mask;
+            if ((bits.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Trigram at the offset, laid out like the rolling value in mightMatch()
+    private static long pack(String text, int offset) {
+        return ((long) text.charAt(offset) << 32) | ((long) text.charAt(offset + 1) << 16) | text.charAt(offset + 2);
+    }
+
+    // 64-bit finalizer from MurmurHash3
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
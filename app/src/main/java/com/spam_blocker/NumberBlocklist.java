@@ -0,0 +1,321 @@
+package com.spam_blocker;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Imported list of known spam numbers, kept apart from the user's own block
+ * history.
+ *
+ * The list is a file of canonical number keys (see
+ * {@link PhoneNumberCanonicalizer}) sorted ascending, preceded by a sparse
+ * index holding the first key of every block of {@value #BLOCK_SIZE}. The file
+ * is memory-mapped and searched in place: opening it parses nothing, and a
+ * lookup is a binary search over the small index followed by one inside a
+ * single block, without allocating. Opening does not read the file either;
+ * {@link #load} pages it in, off the ringing path. The numbers themselves are
+ * kept in a text file beside it, so the keys can be made again when the
+ * default country code changes.
+ */
+public final class NumberBlocklist {
+    private static final String TAG = "NumberBlocklist";
+    public static final String FILE_NAME = "blocklist.bin";
+    // The imported numbers as written, for keying them again
+    public static final String SOURCE_FILE_NAME = "blocklist.txt";
+
+    private static final int MAGIC = 0x314c4253; // "SBL1" little-endian
+    // 2: keys from PhoneNumberCanonicalizer
+    private static final int VERSION = 2;
+    // int magic, int version, int count, int indexCount
+    private static final int HEADER_BYTES = 16;
+    private static final int BLOCK_SIZE = 256;
+
+    private static final NumberBlocklist EMPTY = new NumberBlocklist(new long[0]);
+
+    private static volatile NumberBlocklist instance;
+    // Serializes imports and re-keys; lookups never wait on it
+    private static final Object BUILD_LOCK = new Object();
+
+    // Null for a list built in memory
+    private final MappedByteBuffer mapped;
+    private final LongBuffer index;
+    private final LongBuffer keys;
+    private final int count;
+
+    private NumberBlocklist(ByteBuffer buffer) {
+        mapped = buffer instanceof MappedByteBuffer ? (MappedByteBuffer) buffer : null;
+        count = buffer.getInt(8);
+        int indexCount = buffer.getInt(12);
+        index = slice(buffer, HEADER_BYTES, indexCount * 8).asLongBuffer();
+        keys = slice(buffer, HEADER_BYTES + indexCount * 8, count * 8).asLongBuffer();
+    }
+
+    private NumberBlocklist(long[] sortedKeys) {
+        this(encode(sortedKeys, sortedKeys.length));
+    }
+
+    /**
+     * Current list, mapped on first use; empty if nothing has been imported
+     */
+    public static NumberBlocklist getInstance(Context context) {
+        NumberBlocklist current = instance;
+        if (current != null) {
+            return current;
+        }
+        synchronized (NumberBlocklist.class) {
+            if (instance == null) {
+                NumberBlocklist mapped = open(new File(context.getFilesDir(), FILE_NAME));
+                instance = mapped != null ? mapped : EMPTY;
+            }
+            return instance;
+        }
+    }
+
+    /**
+     * Whether a canonical number key is on the list. Allocation-free.
+     */
+    public boolean contains(long key) {
+        if (key == 0 || count == 0) {
+            return false;
+        }
+        // Last block whose first key is <= key
+        int low = 0;
+        int high = index.limit() - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (index.get(mid) <= key) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+
+        int from = low * BLOCK_SIZE;
+        int to = Math.min(from + BLOCK_SIZE, count) - 1;
+        while (from <= to) {
+            int mid = (from + to) >>> 1;
+            long value = keys.get(mid);
+            if (value < key) {
+                from = mid + 1;
+            } else if (value > key) {
+                to = mid - 1;
+            } else {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Read the mapped file into memory so lookups do not wait on page faults.
+     * Reads the whole file; call while warming up, never while a call rings.
+     */
+    void load() {
+        if (mapped != null) {
+            mapped.load();
+        }
+    }
+
+    /**
+     * Replace the list with the numbers in a text file, one per line, in any
+     * format the canonicalizer accepts. Blank lines, lines starting with '#'
+     * and anything after a ',' or ';' are ignored. The numbers are kept as
+     * written next to the keys, so the list can be keyed again.
+     *
+     * @return number of distinct numbers in the new list
+     */
+    public static int importNumbers(Context context, InputStream input) throws IOException {
+        File source = new File(context.getFilesDir(), SOURCE_FILE_NAME);
+        File temp = new File(source.getPath() + ".tmp");
+        synchronized (BUILD_LOCK) {
+            int distinct;
+            try (Writer copy = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(temp),
+                    StandardCharsets.UTF_8))) {
+                distinct = build(context, input, copy);
+            }
+            if (!temp.renameTo(source)) {
+                // Numbers from an older import must not come back on the next re-key
+                temp.delete();
+                source.delete();
+                throw new IOException("Cannot replace " + source);
+            }
+            return distinct;
+        }
+    }
+
+    /**
+     * Key the imported numbers again after the default country code changed.
+     * Reads the whole list; call off the main thread.
+     */
+    static void rekey(Context context) throws IOException {
+        File source = new File(context.getFilesDir(), SOURCE_FILE_NAME);
+        synchronized (BUILD_LOCK) {
+            if (!source.exists()) {
+                Log.w(TAG, "Blocklist imported without its numbers; import it again to re-key it");
+                return;
+            }
+            try (InputStream input = new FileInputStream(source)) {
+                build(context, input, null);
+            }
+        }
+    }
+
+    // Key, write and publish the numbers read from input, copying each accepted number to copy if given
+    private static int build(Context context, InputStream input, Writer copy) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8));
+        long[] keys = new long[1024];
+        int size = 0;
+        int skipped = 0;
+        PhoneNumberCanonicalizer canonicalizer = PhoneNumberCanonicalizer.getInstance(context);
+        StringBuilder number = new StringBuilder();
+        String line;
+        while ((line = reader.readLine()) != null) {
+            number.setLength(0);
+            boolean hasDigits = false;
+            for (int i = 0; i < line.length(); i++) {
+                char c = line.charAt(i);
+                if (c == ',' || c == ';' || c == '#') {
+                    break;
+                }
+                hasDigits |= c >= '0' && c <= '9';
+                number.append(c);
+            }
+            long key = canonicalizer.toKey(number);
+            if (key == 0) {
+                if (hasDigits) {
+                    skipped++;
+                }
+                continue;
+            }
+            if (size == keys.length) {
+                keys = Arrays.copyOf(keys, size * 2);
+            }
+            keys[size++] = key;
+            if (copy != null) {
+                copy.append(number).append('\n');
+            }
+        }
+
+        Arrays.sort(keys, 0, size);
+        int distinct = 0;
+        for (int i = 0; i < size; i++) {
+            if (distinct == 0 || keys[i] != keys[distinct - 1]) {
+                keys[distinct++] = keys[i];
+            }
+        }
+
+        File file = new File(context.getFilesDir(), FILE_NAME);
+        write(file, keys, distinct);
+        NumberBlocklist imported = open(file);
+        if (imported != null) {
+            // Importing runs in the background; a warm index should stay warm
+            imported.load();
+        }
+        synchronized (NumberBlocklist.class) {
+            instance = imported != null ? imported : EMPTY;
+        }
+        Log.d(TAG, "Keyed " + distinct + " numbers, skipped " + skipped);
+        return distinct;
+    }
+
+    /**
+     * Map a blocklist file, or return null if it is missing or unreadable
+     */
+    static NumberBlocklist open(File file) {
+        if (!file.exists()) {
+            return null;
+        }
+        try {
+            MappedByteBuffer mapped;
+            RandomAccessFile in = new RandomAccessFile(file, "r");
+            try {
+                mapped = in.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, in.length());
+            } finally {
+                in.close();
+            }
+            ByteBuffer buffer = mapped.order(ByteOrder.LITTLE_ENDIAN);
+            if (buffer.remaining() < HEADER_BYTES || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION
+                    || buffer.remaining() != fileBytes(buffer.getInt(8))) {
+                Log.w(TAG, "Ignoring blocklist file with unknown format");
+                return null;
+            }
+            NumberBlocklist blocklist = new NumberBlocklist(buffer);
+            Log.d(TAG, "Mapped blocklist with " + blocklist.count + " numbers");
+            return blocklist;
+        } catch (IOException | RuntimeException e) {
+            Log.w(TAG, "Cannot read blocklist file", e);
+            return null;
+        }
+    }
+
+    static void write(File file, long[] sortedKeys, int count) throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        RandomAccessFile out = new RandomAccessFile(temp, "rw");
+        try {
+            out.setLength(0);
+            FileChannel channel = out.getChannel();
+            ByteBuffer buffer = encode(sortedKeys, count);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
+        } finally {
+            out.close();
+        }
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            throw new IOException("Cannot replace " + file);
+        }
+    }
+
+    private static ByteBuffer encode(long[] sortedKeys, int count) {
+        int indexCount = indexCount(count);
+        ByteBuffer buffer = ByteBuffer.allocate(fileBytes(count)).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(MAGIC).putInt(VERSION).putInt(count).putInt(indexCount);
+        for (int block = 0; block < indexCount; block++) {
+            buffer.putLong(sortedKeys[block * BLOCK_SIZE]);
+        }
+        for (int i = 0; i < count; i++) {
+            buffer.putLong(sortedKeys[i]);
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private static int indexCount(int count) {
+        return (count + BLOCK_SIZE - 1) / BLOCK_SIZE;
+    }
+
+    private static int fileBytes(int count) {
+        return HEADER_BYTES + (indexCount(count) + count) * 8;
+    }
+
+    private static ByteBuffer slice(ByteBuffer buffer, int offset, int length) {
+        ByteBuffer view = buffer.duplicate();
+        view.limit(offset + length).position(offset);
+        return view.slice().order(ByteOrder.LITTLE_ENDIAN);
+    }
+}
@@ -0,0 +1,205 @@
+package com.spam_blocker;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A rule that blocks a whole block of phone numbers by prefix, e.g. "+1800*",
+ * or by a range of prefixes, e.g. "+91140-+91149" for every number starting
+ * with 91140 through 91149. Both bounds of a range have the same number of
+ * digits. Rules keep the form they were entered in; they are canonicalized
+ * when compiled into a {@link DigitTrie}.
+ */
+public class NumberRule {
+    private static final String STORAGE_PREFIX = "num:";
+
+    // Bounds as '+'-optional digit strings; equal for a prefix rule
+    private final String low;
+    private final String high;
+
+    private NumberRule(String low, String high) {
+        this.low = low;
+        this.high = high;
+    }
+
+    public static NumberRule prefix(String prefix) {
+        return new NumberRule(prefix, prefix);
+    }
+
+    public boolean isRange() {
+        return !low.equals(high);
+    }
+
+    /**
+     * Interpret user input: digits ending in '*' are a prefix, two digit
+     * strings joined by '-' are a range. A range needs a leading '+' or the
+     * "num:" prefix, since text like "555-800" is more likely a number or a
+     * keyword than a national range. Spaces, dots and parentheses are
+     * ignored. Returns null for anything else.
+     */
+    public static NumberRule parse(String input) {
+        if (input == null) {
+            return null;
+        }
+        String trimmed = input.trim();
+        boolean marked = trimmed.startsWith(STORAGE_PREFIX);
+        if (marked) {
+            trimmed = trimmed.substring(STORAGE_PREFIX.length()).trim();
+        }
+
+        if (trimmed.endsWith("*")) {
+            String prefix = digits(trimmed.substring(0, trimmed.length() - 1));
+            return prefix != null ? prefix(prefix) : null;
+        }
+
+        // Dashes also appear as formatting; the separator is the one that splits the digits evenly
+        int separator = -1;
+        for (int i = 1; i < trimmed.length() - 1 && separator < 0; i++) {
+            if (trimmed.charAt(i) == '-' && isRangeSeparator(trimmed, i)) {
+                separator = i;
+            }
+        }
+        if (separator < 0 || !(marked || trimmed.startsWith("+"))) {
+            return null;
+        }
+        String low = digits(trimmed.substring(0, separator));
+        String high = digits(trimmed.substring(separator + 1));
+        if (low == null || high == null || low.length() != high.length()
+                || low.startsWith("+") != high.startsWith("+") || low.compareTo(high) > 0) {
+            return null;
+        }
+        // Like a bare "*", a range over every number is not a rule
+        int start = low.startsWith("+") ? 1 : 0;
+        if (allDigits(low, start, '0') && allDigits(high, start, '9')) {
+            return null;
+        }
+        return new NumberRule(low, high);
+    }
+
+    /**
+     * Convert to string for storage in SharedPreferences
+     * Format: num:+1800* or num:+91140-+91149
+     */
+    public String toStorageString() {
+        return STORAGE_PREFIX + (isRange() ? low + "-" + high : low + "*");
+    }
+
+    /**
+     * Create from storage string
+     */
+    public static NumberRule fromStorageString(String storageString) {
+        if (storageString == null || !storageString.startsWith(STORAGE_PREFIX)) {
+            return null;
+        }
+        return parse(storageString);
+    }
+
+    /**
+     * Smallest set of prefixes covering the rule, e.g. "+91140-+91149" is the
+     * single prefix "+9114" and "+1200-+1215" is "+120", "+1210" ... "+1215"
+     */
+    public List<String> toPrefixes() {
+        List<String> prefixes = new ArrayList<>();
+        expand(low, high, prefixes);
+        return prefixes;
+    }
+
+    private static void expand(String low, String high, List<String> out) {
+        int i = 0;
+        while (i < low.length() && low.charAt(i) == high.charAt(i)) {
+            i++;
+        }
+        if (i == low.length()) {
+            out.add(low);
+            return;
+        }
+
+        String common = low.substring(0, i);
+        int tail = low.length() - i - 1;
+        char first = low.charAt(i);
+        char last = high.charAt(i);
+        boolean lowFull = allDigits(low, i + 1, '0');
+        boolean highFull = allDigits(high, i + 1, '9');
+        if (lowFull && highFull && first == '0' && last == '9') {
+            out.add(common);
+            return;
+        }
+
+        // Partial blocks at either end are split further; whole blocks in between are one prefix each
+        if (!lowFull) {
+            expand(low, common + first + repeat('9', tail), out);
+            first++;
+        }
+        if (!highFull) {
+            last--;
+        }
+        for (char digit = first; digit <= last; digit++) {
+            out.add(common + digit);
+        }
+        if (!highFull) {
+            expand(common + high.charAt(i) + repeat('0', tail), high, out);
+        }
+    }
+
+    private static boolean isRangeSeparator(String text, int index) {
+        String low = digits(text.substring(0, index));
+        String high = digits(text.substring(index + 1));
+        return low != null && high != null && low.length() == high.length();
+    }
+
+    // Strip formatting, keeping a leading '+'; null if anything else is left or there are no digits
+    private static String digits(String text) {
+        StringBuilder digits = new StringBuilder();
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c >= '0' && c <= '9') {
+                digits.append(c);
+            } else if (c == '+' && digits.length() == 0) {
+                digits.append(c);
+            } else if (c != ' ' && c != '-' && c != '.' && c != '(' && c != ')') {
+                return null;
+            }
+        }
+        int start = digits.length() > 0 && digits.charAt(0) == '+' ? 1 : 0;
+        return digits.length() > start ? digits.toString() : null;
+    }
+
+    private static boolean allDigits(String text, int from, char digit) {
+        for (int i = from; i < text.length(); i++) {
+            if (text.charAt(i) != digit) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String repeat(char c, int count) {
+        StringBuilder builder = new StringBuilder(count);
+        for (int i = 0; i < count; i++) {
+            builder.append(c);
+        }
+        return builder.toString();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof NumberRule)) {
+            return false;
+        }
+        NumberRule other = (NumberRule) o;
+        return low.equals(other.low) && high.equals(other.high);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * low.hashCode() + high.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return toStorageString();
+    }
+}
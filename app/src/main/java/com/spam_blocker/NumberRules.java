@@ -0,0 +1,178 @@
+package com.spam_blocker;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Process-wide owner of the prefix and range number rules.
+ *
+ * The rules and the {@link DigitTrie} compiled from them are published
+ * together as one immutable snapshot through a volatile field, so the call
+ * receiver matches a ringing number with a single load and a walk of at most
+ * one trie node per digit, before any screen scan is started. Rule prefixes
+ * are canonicalized when compiled, the same way as incoming numbers.
+ */
+public class NumberRules {
+    private static final String TAG = "NumberRules";
+    private static final String PREFS_NAME = "SpamBlockerPrefs";
+    private static final String KEY_NUMBER_RULES = "blocked_number_rules";
+
+    private static NumberRules instance;
+
+    private final SharedPreferences prefs;
+    private final PhoneNumberCanonicalizer canonicalizer;
+    private volatile Snapshot snapshot;
+
+    // Held in a field: SharedPreferences only keeps a weak reference to listeners
+    private final SharedPreferences.OnSharedPreferenceChangeListener preferenceListener =
+            new SharedPreferences.OnSharedPreferenceChangeListener() {
+                @Override
+                public void onSharedPreferenceChanged(SharedPreferences sharedPreferences, String key) {
+                    if (key == null || KEY_NUMBER_RULES.equals(key)) {
+                        reload();
+                    }
+                }
+            };
+
+    /**
+     * Immutable view of the rules; replaced, never modified. The trie holds
+     * each rule's index in rules.
+     */
+    static final class Snapshot {
+        final List<NumberRule> rules;
+        final List<String> entries;
+        final DigitTrie trie;
+
+        Snapshot(List<NumberRule> rules, PhoneNumberCanonicalizer canonicalizer) {
+            this.rules = Collections.unmodifiableList(rules);
+            List<String> allEntries = new ArrayList<>(rules.size());
+            DigitTrie compiled = new DigitTrie();
+            for (int id = 0; id < rules.size(); id++) {
+                NumberRule rule = rules.get(id);
+                allEntries.add(rule.toStorageString());
+                for (String prefix : rule.toPrefixes()) {
+                    String digits = canonicalizer.canonicalizePrefix(prefix);
+                    if (digits != null) {
+                        compiled.add(digits, id);
+                    }
+                }
+            }
+            this.entries = Collections.unmodifiableList(allEntries);
+            this.trie = compiled;
+        }
+    }
+
+    private NumberRules(Context context) {
+        prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        canonicalizer = PhoneNumberCanonicalizer.getInstance(context);
+        snapshot = new Snapshot(readRules(), canonicalizer);
+        prefs.registerOnSharedPreferenceChangeListener(preferenceListener);
+    }
+
+    public static synchronized NumberRules getInstance(Context context) {
+        if (instance == null) {
+            instance = new NumberRules(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private List<NumberRule> readRules() {
+        List<NumberRule> rules = new ArrayList<>();
+        for (String storageString : prefs.getStringSet(KEY_NUMBER_RULES, new HashSet<>())) {
+            NumberRule rule = NumberRule.fromStorageString(storageString);
+            if (rule != null) {
+                rules.add(rule);
+            }
+        }
+        return rules;
+    }
+
+    private synchronized void reload() {
+        List<NumberRule> rules = readRules();
+        if (!new HashSet<>(rules).equals(new HashSet<>(snapshot.rules))) {
+            snapshot = new Snapshot(rules, canonicalizer);
+            Log.d(TAG, "Reloaded " + rules.size() + " number rules");
+        }
+    }
+
+    /**
+     * Rebuild the trie after the default country code changed
+     */
+    public synchronized void recompile() {
+        snapshot = new Snapshot(new ArrayList<>(snapshot.rules), canonicalizer);
+    }
+
+    public synchronized void addRule(NumberRule rule) {
+        Snapshot current = snapshot;
+        if (rule == null || current.rules.contains(rule)) {
+            return;
+        }
+        List<NumberRule> updated = new ArrayList<>(current.rules);
+        updated.add(rule);
+        persist(updated);
+        Log.d(TAG, "Added number rule: " + rule);
+    }
+
+    public synchronized void removeRule(NumberRule rule) {
+        Snapshot current = snapshot;
+        if (rule != null && current.rules.contains(rule)) {
+            List<NumberRule> updated = new ArrayList<>(current.rules);
+            updated.remove(rule);
+            persist(updated);
+            Log.d(TAG, "Removed number rule: " + rule);
+        }
+    }
+
+    /**
+     * The rules and their trie as currently published
+     */
+    Snapshot getSnapshot() {
+        return snapshot;
+    }
+
+    public List<NumberRule> getRules() {
+        return snapshot.rules;
+    }
+
+    /**
+     * Rules in their storage form, for display. Read-only and shared until the next change.
+     */
+    public List<String> getEntries() {
+        return snapshot.entries;
+    }
+
+    /**
+     * Rule with the longest prefix matching the number, or null
+     */
+    public NumberRule match(String phoneNumber) {
+        return match(canonicalizer.toKey(phoneNumber));
+    }
+
+    /**
+     * Rule with the longest prefix matching a canonical number key, or null. Allocation-free.
+     */
+    public NumberRule match(long key) {
+        if (key == 0) {
+            return null;
+        }
+        Snapshot current = snapshot;
+        int id = current.trie.longestMatch(key);
+        return id != DigitTrie.NO_MATCH ? current.rules.get(id) : null;
+    }
+
+    private void persist(List<NumberRule> rules) {
+        // Publish first so the next ring sees the change immediately
+        Snapshot updated = new Snapshot(rules, canonicalizer);
+        snapshot = updated;
+        prefs.edit()
+                .putStringSet(KEY_NUMBER_RULES, new HashSet<>(updated.entries))
+                .apply();
+    }
+}
@@ -0,0 +1,92 @@
+package com.spam_blocker;
+
+/**
+ * Everything remembered about one blocked caller, however often it called:
+ * how many times it was blocked, when first and last, and why the last time.
+ */
+public class NumberSummary {
+    private String phoneNumber;
+    private int count;
+    private long firstSeen;
+    private long lastSeen;
+    private String lastReason;
+
+    NumberSummary(String phoneNumber, int count, long firstSeen, long lastSeen, String lastReason) {
+        this.phoneNumber = phoneNumber;
+        this.count = count;
+        this.firstSeen = firstSeen;
+        this.lastSeen = lastSeen;
+        this.lastReason = lastReason;
+    }
+
+    NumberSummary(NumberSummary other) {
+        this(other.phoneNumber, other.count, other.firstSeen, other.lastSeen, other.lastReason);
+    }
+
+    /**
+     * The number as last blocked
+     */
+    public String getPhoneNumber() {
+        return phoneNumber;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public long getFirstSeen() {
+        return firstSeen;
+    }
+
+    public long getLastSeen() {
+        return lastSeen;
+    }
+
+    public String getLastReason() {
+        return lastReason;
+    }
+
+    void record(BlockedNumber blockedNumber) {
+        long timestamp = blockedNumber.getTimestamp();
+        count++;
+        firstSeen = Math.min(firstSeen, timestamp);
+        if (timestamp >= lastSeen) {
+            lastSeen = timestamp;
+            lastReason = blockedNumber.getReason();
+            phoneNumber = blockedNumber.getPhoneNumber();
+        }
+    }
+
+    /**
+     * Take back a deleted block. When it was the latest one, the last seen time
+     * and reason fall back to the latest of the remaining entries still in the
+     * history, or stay as they were if none is.
+     *
+     * @param latestRemaining latest remaining entry for this number, or null
+     */
+    void unrecord(BlockedNumber blockedNumber, BlockedNumber latestRemaining) {
+        count--;
+        if (blockedNumber.getTimestamp() >= lastSeen && latestRemaining != null) {
+            lastSeen = latestRemaining.getTimestamp();
+            lastReason = latestRemaining.getReason();
+        }
+    }
+
+    /**
+     * Fold in the summary of a number that turned out to be the same caller
+     */
+    void merge(NumberSummary other) {
+        count += other.count;
+        firstSeen = Math.min(firstSeen, other.firstSeen);
+        if (other.lastSeen > lastSeen) {
+            lastSeen = other.lastSeen;
+            lastReason = other.lastReason;
+            phoneNumber = other.phoneNumber;
+        }
+    }
+
+    static NumberSummary of(BlockedNumber blockedNumber) {
+        return new NumberSummary(blockedNumber.getPhoneNumber(), 1, blockedNumber.getTimestamp(),
+                blockedNumber.getTimestamp(), blockedNumber.getReason());
+    }
+}
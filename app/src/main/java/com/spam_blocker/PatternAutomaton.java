@@ -0,0 +1,602 @@
+package com.spam_blocker;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * All pattern rules compiled into one deterministic automaton.
+ *
+ * Each rule is parsed into a Thompson NFA, the NFAs are joined under a common
+ * start and the result is turned into a DFA by subset construction at compile
+ * time. Scanning is then one table lookup per character, so evaluation is
+ * linear in the text length and cannot backtrack. The supported regex subset is
+ * literals, '.', character classes, escapes (\d \D \s \S \w \W \t \n \r \f and
+ * escaped punctuation), grouping, '|', '*', '+' and '?'; other letter escapes
+ * are rejected. Rules always match anywhere in the text.
+ */
+public class PatternAutomaton {
+    public static final int NO_MATCH = -1;
+
+    // Upper bound on DFA states; a rule set beyond this is rejected rather than
+    // risking a huge table
+    private static final int MAX_DFA_STATES = 2048;
+
+    private static final int NFA_CHAR = 0;
+    private static final int NFA_SPLIT = 1;
+    private static final int NFA_MATCH = 2;
+
+    private final PatternRule[] rules;
+    // Character class k covers [boundaries[k - 1], boundaries[k]); class 0 starts at '\0'
+    private final int[] boundaries;
+    private final int[] asciiClass;
+    private final int classCount;
+    private final int[] transitions;
+    private final int[] accept;
+
+    private PatternAutomaton(PatternRule[] rules, int[] boundaries, int classCount, int[] transitions,
+            int[] accept) {
+        this.rules = rules;
+        this.boundaries = boundaries;
+        this.classCount = classCount;
+        this.transitions = transitions;
+        this.accept = accept;
+        this.asciiClass = new int[128];
+        for (char c = 0; c < 128; c++) {
+            asciiClass[c] = lookupClass(c);
+        }
+    }
+
+    /**
+     * Compile all rules into one DFA.
+     *
+     * @throws IllegalArgumentException if a rule is malformed, can match empty
+     *                                  text, or the combined automaton is too large
+     */
+    public static PatternAutomaton compile(List<PatternRule> ruleList) {
+        PatternRule[] rules = ruleList.toArray(new PatternRule[0]);
+        Nfa nfa = new Nfa();
+        int[] starts = new int[rules.length];
+        for (int r = 0; r < rules.length; r++) {
+            starts[r] = nfa.compileRule(rules[r], r);
+            if (nfa.acceptsEmpty(starts[r])) {
+                throw new IllegalArgumentException("Pattern matches empty text: " + rules[r].getPattern());
+            }
+        }
+
+        // Split the alphabet into classes no character set distinguishes within
+        TreeSet<Integer> cuts = new TreeSet<>();
+        for (int[] ranges : nfa.sets) {
+            for (int i = 0; i < ranges.length; i += 2) {
+                cuts.add(ranges[i]);
+                cuts.add(ranges[i + 1] + 1);
+            }
+        }
+        cuts.remove(0);
+        cuts.remove(Character.MAX_VALUE + 1);
+        int[] boundaries = new int[cuts.size()];
+        int b = 0;
+        for (int cut : cuts) {
+            boundaries[b++] = cut;
+        }
+        int classCount = boundaries.length + 1;
+
+        // Subset construction; the rule starts are added to every state so rules
+        // can begin at any offset
+        int[] startClosure = nfa.closure(starts, starts.length, starts);
+        Map<StateKey, Integer> index = new HashMap<>();
+        List<int[]> states = new ArrayList<>();
+        index.put(new StateKey(startClosure), 0);
+        states.add(startClosure);
+
+        int[] transitions = new int[classCount * 16];
+        int[] moved = new int[nfa.size()];
+        for (int d = 0; d < states.size(); d++) {
+            int[] state = states.get(d);
+            for (int k = 0; k < classCount; k++) {
+                int representative = k == 0 ? 0 : boundaries[k - 1];
+                int movedCount = 0;
+                for (int s : state) {
+                    if (nfa.type(s) == NFA_CHAR && nfa.setContains(s, representative)) {
+                        moved[movedCount++] = nfa.out(s);
+                    }
+                }
+                int[] next = nfa.closure(moved, movedCount, starts);
+                StateKey key = new StateKey(next);
+                Integer target = index.get(key);
+                if (target == null) {
+                    if (states.size() >= MAX_DFA_STATES) {
+                        throw new IllegalArgumentException("Pattern rules are too complex");
+                    }
+                    target = states.size();
+                    index.put(key, target);
+                    states.add(next);
+                }
+                int slot = d * classCount + k;
+                if (slot >= transitions.length) {
+                    transitions = Arrays.copyOf(transitions, transitions.length * 2);
+                }
+                transitions[slot] = target;
+            }
+        }
+
+        int[] accept = new int[states.size()];
+        for (int d = 0; d < accept.length; d++) {
+            accept[d] = NO_MATCH;
+            for (int s : states.get(d)) {
+                if (nfa.type(s) == NFA_MATCH && (accept[d] == NO_MATCH || nfa.arg(s) < accept[d])) {
+                    accept[d] = nfa.arg(s);
+                }
+            }
+        }
+
+        return new PatternAutomaton(rules, boundaries, classCount,
+                Arrays.copyOf(transitions, states.size() * classCount), accept);
+    }
+
+    public int getStartState() {
+        return 0;
+    }
+
+    /**
+     * Advance by one already case-folded character
+     */
+    public int step(int state, char c) {
+        int k = c < 128 ? asciiClass[c] : lookupClass(c);
+        return transitions[state * classCount + k];
+    }
+
+    /**
+     * Index of the rule accepted in this state, or NO_MATCH
+     */
+    public int acceptedRule(int state) {
+        return accept[state];
+    }
+
+    public PatternRule getRule(int index) {
+        return rules[index];
+    }
+
+    public int size() {
+        return rules.length;
+    }
+
+    private int lookupClass(char c) {
+        // Number of boundaries <= c
+        int low = 0;
+        int high = boundaries.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (boundaries[mid] <= c) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private static final class StateKey {
+        private final int[] states;
+        private final int hash;
+
+        StateKey(int[] states) {
+            this.states = states;
+            this.hash = Arrays.hashCode(states);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof StateKey && Arrays.equals(states, ((StateKey) o).states);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    /**
+     * Thompson NFA under construction. States are stored in parallel growable
+     * arrays; a CHAR state consumes one character from its set, a SPLIT state
+     * has two epsilon exits (the second may be unused) and a MATCH state accepts
+     * a rule.
+     */
+    private static final class Nfa {
+        private static final int UNSET = -1;
+
+        final List<int[]> sets = new ArrayList<>();
+        private int[] types = new int[64];
+        private int[] args = new int[64];
+        private int[] outs = new int[64];
+        private int[] outs2 = new int[64];
+        private int count;
+
+        private String pattern;
+        private int pos;
+
+        int size() {
+            return count;
+        }
+
+        int type(int s) {
+            return types[s];
+        }
+
+        int arg(int s) {
+            return args[s];
+        }
+
+        int out(int s) {
+            return outs[s];
+        }
+
+        boolean setContains(int s, int c) {
+            int[] ranges = sets.get(args[s]);
+            for (int i = 0; i < ranges.length; i += 2) {
+                if (c < ranges[i]) {
+                    return false;
+                }
+                if (c <= ranges[i + 1]) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        int compileRule(PatternRule rule, int ruleIndex) {
+            pattern = rule.getPattern();
+            pos = 0;
+            Fragment fragment = rule.getType() == PatternRule.Type.GLOB ? parseGlob() : parseAlternation();
+            if (pos < pattern.length()) {
+                throw new IllegalArgumentException("Unexpected '" + pattern.charAt(pos) + "' in " + pattern);
+            }
+            int match = addState(NFA_MATCH, ruleIndex, UNSET, UNSET);
+            fragment.patch(this, match);
+            return fragment.start;
+        }
+
+        boolean acceptsEmpty(int start) {
+            int[] closure = closure(new int[] { start }, 1, new int[0]);
+            for (int s : closure) {
+                if (types[s] == NFA_MATCH) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Epsilon closure of the given states plus the extra states, keeping only
+         * CHAR and MATCH states, sorted so equal sets compare equal
+         */
+        int[] closure(int[] seeds, int seedCount, int[] extra) {
+            BitSet visited = new BitSet(count);
+            int[] stack = new int[count + 1];
+            int top = 0;
+            TreeSet<Integer> result = new TreeSet<>();
+            for (int i = 0; i < seedCount + extra.length; i++) {
+                int s = i < seedCount ? seeds[i] : extra[i - seedCount];
+                if (!visited.get(s)) {
+                    visited.set(s);
+                    stack[top++] = s;
+                }
+            }
+            while (top > 0) {
+                int s = stack[--top];
+                if (types[s] == NFA_SPLIT) {
+                    for (int next : new int[] { outs[s], outs2[s] }) {
+                        if (next != UNSET && !visited.get(next)) {
+                            visited.set(next);
+                            stack[top++] = next;
+                        }
+                    }
+                } else {
+                    result.add(s);
+                }
+            }
+            int[] closure = new int[result.size()];
+            int i = 0;
+            for (int s : result) {
+                closure[i++] = s;
+            }
+            return closure;
+        }
+
+        private int addState(int type, int arg, int out, int out2) {
+            if (count == types.length) {
+                int capacity = count * 2;
+                types = Arrays.copyOf(types, capacity);
+                args = Arrays.copyOf(args, capacity);
+                outs = Arrays.copyOf(outs, capacity);
+                outs2 = Arrays.copyOf(outs2, capacity);
+            }
+            types[count] = type;
+            args[count] = arg;
+            outs[count] = out;
+            outs2[count] = out2;
+            return count++;
+        }
+
+        private Fragment charFragment(BitSet chars) {
+            int[] ranges = toRanges(chars);
+            sets.add(ranges);
+            int s = addState(NFA_CHAR, sets.size() - 1, UNSET, UNSET);
+            return new Fragment(s, new int[] { slot(s, false) });
+        }
+
+        private Fragment anyChar() {
+            BitSet all = new BitSet(Character.MAX_VALUE + 1);
+            all.set(0, Character.MAX_VALUE + 1);
+            return charFragment(all);
+        }
+
+        private Fragment empty() {
+            int s = addState(NFA_SPLIT, 0, UNSET, UNSET);
+            return new Fragment(s, new int[] { slot(s, false) });
+        }
+
+        private Fragment concat(Fragment first, Fragment second) {
+            first.patch(this, second.start);
+            return new Fragment(first.start, second.danglingOuts);
+        }
+
+        private Fragment star(Fragment inner) {
+            int s = addState(NFA_SPLIT, 0, inner.start, UNSET);
+            inner.patch(this, s);
+            return new Fragment(s, new int[] { slot(s, true) });
+        }
+
+        private Fragment plus(Fragment inner) {
+            int s = addState(NFA_SPLIT, 0, inner.start, UNSET);
+            inner.patch(this, s);
+            return new Fragment(inner.start, new int[] { slot(s, true) });
+        }
+
+        private Fragment optional(Fragment inner) {
+            int s = addState(NFA_SPLIT, 0, inner.start, UNSET);
+            int[] dangling = Arrays.copyOf(inner.danglingOuts, inner.danglingOuts.length + 1);
+            dangling[dangling.length - 1] = slot(s, true);
+            return new Fragment(s, dangling);
+        }
+
+        private Fragment alternate(Fragment left, Fragment right) {
+            int s = addState(NFA_SPLIT, 0, left.start, right.start);
+            int[] dangling = Arrays.copyOf(left.danglingOuts,
+                    left.danglingOuts.length + right.danglingOuts.length);
+            System.arraycopy(right.danglingOuts, 0, dangling, left.danglingOuts.length, right.danglingOuts.length);
+            return new Fragment(s, dangling);
+        }
+
+        private static int slot(int state, boolean second) {
+            return state * 2 + (second ? 1 : 0);
+        }
+
+        void setOut(int slot, int target) {
+            if ((slot & 1) == 0) {
+                outs[slot >> 1] = target;
+            } else {
+                outs2[slot >> 1] = target;
+            }
+        }
+
+        private Fragment parseGlob() {
+            Fragment result = null;
+            while (pos < pattern.length()) {
+                char c = pattern.charAt(pos++);
+                Fragment next;
+                if (c == '*') {
+                    next = star(anyChar());
+                } else if (c == '?') {
+                    next = anyChar();
+                } else {
+                    next = literal(c);
+                }
+                result = result == null ? next : concat(result, next);
+            }
+            return result == null ? empty() : result;
+        }
+
+        private Fragment parseAlternation() {
+            Fragment left = parseConcatenation();
+            while (pos < pattern.length() && pattern.charAt(pos) == '|') {
+                pos++;
+                left = alternate(left, parseConcatenation());
+            }
+            return left;
+        }
+
+        private Fragment parseConcatenation() {
+            Fragment result = null;
+            while (pos < pattern.length() && pattern.charAt(pos) != '|' && pattern.charAt(pos) != ')') {
+                Fragment next = parseRepetition();
+                result = result == null ? next : concat(result, next);
+            }
+            return result == null ? empty() : result;
+        }
+
+        private Fragment parseRepetition() {
+            Fragment atom = parseAtom();
+            while (pos < pattern.length()) {
+                char c = pattern.charAt(pos);
+                if (c == '*') {
+                    atom = star(atom);
+                } else if (c == '+') {
+                    atom = plus(atom);
+                } else if (c == '?') {
+                    atom = optional(atom);
+                } else {
+                    break;
+                }
+                pos++;
+            }
+            return atom;
+        }
+
+        private Fragment parseAtom() {
+            char c = pattern.charAt(pos++);
+            switch (c) {
+                case '(':
+                    Fragment group = parseAlternation();
+                    if (pos >= pattern.length() || pattern.charAt(pos) != ')') {
+                        throw new IllegalArgumentException("Missing ')' in " + pattern);
+                    }
+                    pos++;
+                    return group;
+                case '.':
+                    return anyChar();
+                case '[':
+                    return charFragment(parseClass());
+                case '\\':
+                    return charFragment(parseEscape());
+                case '*':
+                case '+':
+                case '?':
+                case '{':
+                case '}':
+                case '^':
+                case '$':
+                    throw new IllegalArgumentException("Unsupported '" + c + "' in " + pattern);
+                default:
+                    return literal(c);
+            }
+        }
+
+        private Fragment literal(char c) {
+            BitSet chars = new BitSet();
+            chars.set(CaseFolding.fold(c));
+            return charFragment(chars);
+        }
+
+        private BitSet parseEscape() {
+            if (pos >= pattern.length()) {
+                throw new IllegalArgumentException("Dangling '\\' in " + pattern);
+            }
+            char c = pattern.charAt(pos++);
+            BitSet chars = new BitSet();
+            switch (c) {
+                case 'd':
+                case 'D':
+                    chars.set('0', '9' + 1);
+                    break;
+                case 's':
+                case 'S':
+                    chars.set(' ');
+                    chars.set('\t');
+                    chars.set('\n');
+                    chars.set('\r');
+                    chars.set('\f');
+                    chars.set('\u00A0');
+                    break;
+                case 'w':
+                case 'W':
+                    // Text is folded before matching, so lower case is enough
+                    chars.set('a', 'z' + 1);
+                    chars.set('0', '9' + 1);
+                    chars.set('_');
+                    break;
+                case 't':
+                    chars.set('\t');
+                    return chars;
+                case 'n':
+                    chars.set('\n');
+                    return chars;
+                case 'r':
+                    chars.set('\r');
+                    return chars;
+                case 'f':
+                    chars.set('\f');
+                    return chars;
+                default:
+                    // Other letters are classes or anchors in full regex syntax (\b, \p, ...), not literals
+                    if (Character.isLetter(c)) {
+                        throw new IllegalArgumentException("Unsupported escape \\" + c + " in " + pattern);
+                    }
+                    chars.set(CaseFolding.fold(c));
+                    return chars;
+            }
+            if (Character.isUpperCase(c)) {
+                chars.flip(0, Character.MAX_VALUE + 1);
+            }
+            return chars;
+        }
+
+        private BitSet parseClass() {
+            BitSet chars = new BitSet();
+            boolean negated = pos < pattern.length() && pattern.charAt(pos) == '^';
+            if (negated) {
+                pos++;
+            }
+            boolean first = true;
+            while (true) {
+                if (pos >= pattern.length()) {
+                    throw new IllegalArgumentException("Missing ']' in " + pattern);
+                }
+                char c = pattern.charAt(pos++);
+                if (c == ']' && !first) {
+                    break;
+                }
+                first = false;
+                if (c == '\\') {
+                    chars.or(parseEscape());
+                    continue;
+                }
+                char last = c;
+                if (pos + 1 < pattern.length() && pattern.charAt(pos) == '-' && pattern.charAt(pos + 1) != ']') {
+                    last = pattern.charAt(pos + 1);
+                    pos += 2;
+                    if (last < c) {
+                        throw new IllegalArgumentException("Bad range " + c + "-" + last + " in " + pattern);
+                    }
+                }
+                // Ranges are folded member by member so [A-Z] matches folded text
+                for (int member = c; member <= last; member++) {
+                    chars.set(CaseFolding.fold((char) member));
+                }
+            }
+            if (negated) {
+                chars.flip(0, Character.MAX_VALUE + 1);
+            }
+            return chars;
+        }
+
+        private static int[] toRanges(BitSet chars) {
+            List<Integer> ranges = new ArrayList<>();
+            int start = chars.nextSetBit(0);
+            while (start >= 0) {
+                int end = chars.nextClearBit(start);
+                ranges.add(start);
+                ranges.add(end - 1);
+                start = chars.nextSetBit(end);
+            }
+            int[] result = new int[ranges.size()];
+            for (int i = 0; i < result.length; i++) {
+                result[i] = ranges.get(i);
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Partially built NFA piece: its entry state and the exits still to be connected
+     */
+    private static final class Fragment {
+        final int start;
+        final int[] danglingOuts;
+
+        Fragment(int start, int[] danglingOuts) {
+            this.start = start;
+            this.danglingOuts = danglingOuts;
+        }
+
+        void patch(Nfa nfa, int target) {
+            for (int slot : danglingOuts) {
+                nfa.setOut(slot, target);
+            }
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package com.spam_blocker;
+
+/**
+ * A wildcard or restricted-regex keyword rule, e.g. "insur*" or "loan.*approved".
+ * Rules are matched anywhere in a text, case-insensitively, like plain keywords.
+ */
+public class PatternRule {
+    public enum Type {
+        GLOB, REGEX
+    }
+
+    private static final String GLOB_PREFIX = "glob:";
+    private static final String REGEX_PREFIX = "re:";
+
+    private final Type type;
+    private final String pattern;
+
+    public PatternRule(Type type, String pattern) {
+        this.type = type;
+        // Kept as written: folding would turn escapes like \D into \d; literals are folded when compiled
+        this.pattern = pattern;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public String getPattern() {
+        return pattern;
+    }
+
+    /**
+     * Interpret user input: "re:..." is a regex, text containing * or ? is a glob.
+     * Returns null for plain keywords.
+     */
+    public static PatternRule parse(String input) {
+        if (input == null) {
+            return null;
+        }
+        String trimmed = input.trim();
+        if (trimmed.startsWith(REGEX_PREFIX) && trimmed.length() > REGEX_PREFIX.length()) {
+            return new PatternRule(Type.REGEX, trimmed.substring(REGEX_PREFIX.length()));
+        }
+        if (trimmed.startsWith(GLOB_PREFIX) && trimmed.length() > GLOB_PREFIX.length()) {
+            return new PatternRule(Type.GLOB, trimmed.substring(GLOB_PREFIX.length()));
+        }
+        if (trimmed.indexOf('*') >= 0 || trimmed.indexOf('?') >= 0) {
+            return new PatternRule(Type.GLOB, trimmed);
+        }
+        return null;
+    }
+
+    /**
+     * Convert to string for storage in SharedPreferences
+     * Format: glob:pattern or re:pattern
+     */
+    public String toStorageString() {
+        return (type == Type.REGEX ? REGEX_PREFIX : GLOB_PREFIX) + pattern;
+    }
+
+    /**
+     * Create from storage string
+     */
+    public static PatternRule fromStorageString(String storageString) {
+        if (storageString == null) {
+            return null;
+        }
+        if (storageString.startsWith(REGEX_PREFIX)) {
+            return new PatternRule(Type.REGEX, storageString.substring(REGEX_PREFIX.length()));
+        }
+        if (storageString.startsWith(GLOB_PREFIX)) {
+            return new PatternRule(Type.GLOB, storageString.substring(GLOB_PREFIX.length()));
+        }
+        return null;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof PatternRule)) {
+            return false;
+        }
+        PatternRule other = (PatternRule) o;
+        return type == other.type && pattern.equals(other.pattern);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * type.hashCode() + pattern.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return toStorageString();
+    }
+}
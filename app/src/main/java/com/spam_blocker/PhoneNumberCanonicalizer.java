@@ -0,0 +1,245 @@
+package com.spam_blocker;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import java.io.IOException;
+
+/**
+ * Turns phone numbers as they arrive or are typed into one canonical form, so
+ * "+1 (234) 567-890", "1234567890" and "+1234567890" are the same number.
+ *
+ * Formatting (spaces, dashes, dots, slashes, parentheses) is dropped. A
+ * leading '+' or "00" marks an international number. A national number loses
+ * one trunk '0' and gets the default country code, unless it already starts
+ * with that code and is long enough to include it (at least ten digits after
+ * the code). Without a default country code a national number still loses
+ * its trunk '0' but gets no code, so "020 7946 0000" and "20 7946 0000" share
+ * a key. Keys are for matching; numbers are stored and shown as they came.
+ *
+ * The result is packed into a long key: digit count in bits 58-62 and the
+ * digits' value below, so keys of different lengths never collide. Packing
+ * reads the input with charAt and allocates nothing.
+ */
+public class PhoneNumberCanonicalizer {
+    private static final String TAG = "PhoneNumberCanonicalizer";
+    private static final String PREFS_NAME = "SpamBlockerPrefs";
+    private static final String KEY_DEFAULT_COUNTRY_CODE = "default_country_code";
+
+    // E.164 allows 15 digits; 17 still fits below the length bits
+    public static final int MAX_DIGITS = 17;
+    private static final int LENGTH_SHIFT = 58;
+    private static final long VALUE_MASK = (1L << LENGTH_SHIFT) - 1;
+    // Digits after the country code in a national number written with its code
+    private static final int MIN_NATIONAL_DIGITS = 10;
+    private static final long[] POWERS_OF_TEN = new long[MAX_DIGITS + 1];
+
+    static {
+        POWERS_OF_TEN[0] = 1;
+        for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+        }
+    }
+
+    private static PhoneNumberCanonicalizer instance;
+
+    private final SharedPreferences prefs;
+    private volatile String countryCode;
+
+    PhoneNumberCanonicalizer(SharedPreferences prefs, String countryCode) {
+        this.prefs = prefs;
+        this.countryCode = countryCode;
+    }
+
+    public static synchronized PhoneNumberCanonicalizer getInstance(Context context) {
+        if (instance == null) {
+            SharedPreferences prefs = context.getApplicationContext()
+                    .getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+            instance = new PhoneNumberCanonicalizer(prefs, prefs.getString(KEY_DEFAULT_COUNTRY_CODE, ""));
+        }
+        return instance;
+    }
+
+    /**
+     * Canonicalizer with a fixed default country code, for matching keys made
+     * with that code without reading the preferences; it cannot change the code
+     */
+    static PhoneNumberCanonicalizer forCountryCode(String countryCode) {
+        return new PhoneNumberCanonicalizer(null, countryCode);
+    }
+
+    /**
+     * Default country code digits, or "" if none is set
+     */
+    public String getDefaultCountryCode() {
+        return countryCode;
+    }
+
+    /**
+     * Change the default country code and re-key everything indexed with the old one.
+     * The imported blocklist is re-keyed in the background.
+     *
+     * @throws IllegalArgumentException if the code is not one to three digits
+     */
+    public static void setDefaultCountryCode(Context context, String code) {
+        String digits = code == null ? "" : code.trim();
+        if (digits.startsWith("+")) {
+            digits = digits.substring(1);
+        }
+        if (digits.length() > 3 || !digits.matches("[0-9]*") || digits.startsWith("0")) {
+            throw new IllegalArgumentException("Country code must be 1-3 digits: " + code);
+        }
+
+        PhoneNumberCanonicalizer canonicalizer = getInstance(context);
+        canonicalizer.countryCode = digits;
+        canonicalizer.prefs.edit().putString(KEY_DEFAULT_COUNTRY_CODE, digits).apply();
+        BlockedNumberStore.getInstance(context).reindex();
+        NumberRules.getInstance(context).recompile();
+        final Context appContext = context.getApplicationContext();
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    NumberBlocklist.rekey(appContext);
+                } catch (IOException e) {
+                    Log.e(TAG, "Failed to re-key blocklist", e);
+                }
+            }
+        }).start();
+        Log.d(TAG, "Default country code set to '" + digits + "'");
+    }
+
+    /**
+     * Canonical key of a phone number, or 0 if it is not a phone number
+     * (letters, no digits, or too many digits)
+     */
+    public long toKey(CharSequence phoneNumber) {
+        if (phoneNumber == null) {
+            return 0;
+        }
+        int length = phoneNumber.length();
+        int i = skipFormatting(phoneNumber, 0);
+        boolean international = false;
+        if (i < length && phoneNumber.charAt(i) == '+') {
+            international = true;
+            i = skipFormatting(phoneNumber, i + 1);
+        } else if (i + 1 < length && phoneNumber.charAt(i) == '0' && phoneNumber.charAt(i + 1) == '0') {
+            international = true;
+            i += 2;
+        }
+
+        // Digits of the number itself, before any country code is added
+        int count = 0;
+        long value = 0;
+        boolean trunk = false;
+        for (; i < length; i++) {
+            char c = phoneNumber.charAt(i);
+            if (c >= '0' && c <= '9') {
+                if (count == 0 && c == '0' && !international && !trunk) {
+                    trunk = true;
+                    continue;
+                }
+                if (++count > MAX_DIGITS) {
+                    return 0;
+                }
+                value = value * 10 + (c - '0');
+            } else if (!isFormatting(c)) {
+                return 0;
+            }
+        }
+        if (count == 0) {
+            return 0;
+        }
+
+        String code = countryCode;
+        if (!international && !code.isEmpty() && (trunk || !startsWithCode(value, count, code))) {
+            int total = count + code.length();
+            if (total > MAX_DIGITS) {
+                return 0;
+            }
+            value += Long.parseLong(code) * POWERS_OF_TEN[count];
+            count = total;
+        }
+        return pack(count, value);
+    }
+
+    /**
+     * Canonical digits of a number prefix such as "+1800" or "0800", for
+     * prefix rules. Unlike whole numbers, a national prefix that starts with
+     * the country code is taken to include it. Null if it is not a prefix.
+     */
+    public String canonicalizePrefix(String prefix) {
+        StringBuilder digits = new StringBuilder();
+        for (int i = 0; i < prefix.length(); i++) {
+            char c = prefix.charAt(i);
+            if (c >= '0' && c <= '9') {
+                digits.append(c);
+            } else if (!(c == '+' && digits.length() == 0) && !isFormatting(c)) {
+                return null;
+            }
+        }
+        if (digits.length() == 0) {
+            return null;
+        }
+        if (isInternational(prefix)) {
+            return prefix.trim().startsWith("00") ? digits.substring(2) : digits.toString();
+        }
+
+        String code = countryCode;
+        if (digits.charAt(0) == '0') {
+            digits.deleteCharAt(0);
+            return code + digits;
+        }
+        return digits.indexOf(code) == 0 ? digits.toString() : code + digits;
+    }
+
+    public static int digitCount(long key) {
+        return (int) (key >>> LENGTH_SHIFT);
+    }
+
+    /**
+     * Digit at a position of a key, counting from the most significant
+     */
+    public static int digitAt(long key, int position) {
+        int count = digitCount(key);
+        return (int) ((key & VALUE_MASK) / POWERS_OF_TEN[count - 1 - position] % 10);
+    }
+
+    public static String toDigits(long key) {
+        int count = digitCount(key);
+        String value = Long.toString(key & VALUE_MASK);
+        StringBuilder digits = new StringBuilder(count);
+        for (int i = value.length(); i < count; i++) {
+            digits.append('0');
+        }
+        return digits.append(value).toString();
+    }
+
+    private static long pack(int count, long value) {
+        return ((long) count << LENGTH_SHIFT) | value;
+    }
+
+    private static boolean startsWithCode(long value, int count, String code) {
+        if (count < code.length() + MIN_NATIONAL_DIGITS) {
+            return false;
+        }
+        return value / POWERS_OF_TEN[count - code.length()] == Long.parseLong(code);
+    }
+
+    private static boolean isInternational(String phoneNumber) {
+        String trimmed = phoneNumber.trim();
+        return trimmed.startsWith("+") || trimmed.startsWith("00");
+    }
+
+    private static int skipFormatting(CharSequence text, int from) {
+        while (from < text.length() && isFormatting(text.charAt(from))) {
+            from++;
+        }
+        return from;
+    }
+
+    private static boolean isFormatting(char c) {
+        return c == ' ' || c == '-' || c == '.' || c == '/' || c == '(' || c == ')';
+    }
+}
@@ -0,0 +1,179 @@
+package com.spam_blocker;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Fixed-capacity buffer of the most recent items, oldest first. Adding to a
+ * full buffer overwrites the oldest item in O(1) and hands it back, so the
+ * caller can drop it from its indexes. Not thread-safe.
+ */
+final class RingBuffer<E> {
+    private Object[] items;
+    // Position of the oldest item
+    private int head;
+    private int size;
+
+    RingBuffer(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        }
+        items = new Object[capacity];
+    }
+
+    /**
+     * Append an item; returns the item it evicted, or null if there was room
+     */
+    E add(E item) {
+        E evicted = null;
+        if (size == items.length) {
+            evicted = removeOldest();
+        }
+        items[(head + size) % items.length] = item;
+        size++;
+        return evicted;
+    }
+
+    /**
+     * Insert an item after the newest one not ordered after it, so a buffer
+     * kept in order stays in order; O(1) for an item that belongs at the
+     * newest end. A full buffer evicts its oldest item, which is the new one
+     * if it belongs before all the others. Returns the evicted item or null.
+     */
+    E insert(E item, Comparator<? super E> order) {
+        int index = size;
+        while (index > 0 && order.compare(get(index - 1), item) > 0) {
+            index--;
+        }
+        E evicted = null;
+        if (size == items.length) {
+            if (index == 0) {
+                return item;
+            }
+            evicted = removeOldest();
+            index--;
+        }
+        for (int i = size; i > index; i--) {
+            items[(head + i) % items.length] = items[(head + i - 1) % items.length];
+        }
+        items[(head + index) % items.length] = item;
+        size++;
+        return evicted;
+    }
+
+    /**
+     * Merge items sorted in the same order as the buffer into it in one pass;
+     * returns the items evicted to make room, oldest first, which may include
+     * merged ones
+     */
+    List<E> merge(List<E> sorted, Comparator<? super E> order) {
+        int drop = Math.max(0, size + sorted.size() - items.length);
+        List<E> evicted = new ArrayList<>(drop);
+        Object[] merged = new Object[items.length];
+        int count = 0;
+        int i = 0;
+        int j = 0;
+        while (i < size || j < sorted.size()) {
+            E next;
+            if (j == sorted.size() || (i < size && order.compare(get(i), sorted.get(j)) <= 0)) {
+                next = get(i++);
+            } else {
+                next = sorted.get(j++);
+            }
+            if (evicted.size() < drop) {
+                evicted.add(next);
+            } else {
+                merged[count++] = next;
+            }
+        }
+        items = merged;
+        head = 0;
+        size = count;
+        return evicted;
+    }
+
+    /**
+     * Item at an index, 0 being the oldest
+     */
+    @SuppressWarnings("unchecked")
+    E get(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index " + index + ", size " + size);
+        }
+        return (E) items[(head + index) % items.length];
+    }
+
+    E peekOldest() {
+        return size > 0 ? get(0) : null;
+    }
+
+    E removeOldest() {
+        if (size == 0) {
+            return null;
+        }
+        E oldest = get(0);
+        items[head] = null;
+        head = (head + 1) % items.length;
+        size--;
+        return oldest;
+    }
+
+    /**
+     * Remove the item at an index, closing the gap; O(size)
+     */
+    E removeAt(int index) {
+        E removed = get(index);
+        for (int i = index; i < size - 1; i++) {
+            items[(head + i) % items.length] = items[(head + i + 1) % items.length];
+        }
+        items[(head + size - 1) % items.length] = null;
+        size--;
+        return removed;
+    }
+
+    /**
+     * Change the capacity, keeping the newest items; returns the items evicted, oldest first
+     */
+    List<E> resize(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        }
+        List<E> evicted = new ArrayList<>();
+        while (size > capacity) {
+            evicted.add(removeOldest());
+        }
+        Object[] resized = new Object[capacity];
+        for (int i = 0; i < size; i++) {
+            resized[i] = items[(head + i) % items.length];
+        }
+        items = resized;
+        head = 0;
+        return evicted;
+    }
+
+    void clear() {
+        items = new Object[items.length];
+        head = 0;
+        size = 0;
+    }
+
+    int size() {
+        return size;
+    }
+
+    int capacity() {
+        return items.length;
+    }
+
+    /**
+     * Copy of the items, newest first
+     */
+    List<E> newestFirst() {
+        List<E> list = new ArrayList<>(size);
+        for (int i = size - 1; i >= 0; i--) {
+            list.add(get(i));
+        }
+        return list;
+    }
+}
@@ -8,9 +8,9 @@ import android.view.accessibility.AccessibilityEvent;
 import android.view.accessibility.AccessibilityNodeInfo;
 import android.view.accessibility.AccessibilityWindowInfo;
 
-import java.util.HashSet;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Set;
 
 public class ScreenScanAccessibilityService extends AccessibilityService {
     private static final String TAG = "ScreenAccessibility";
@@ -30,14 +30,38 @@ public class ScreenScanAccessibilityService extends AccessibilityService {
             "com.xiaomi.xmsf" // Xiaomi services
     };
 
+    // Caller-ID apps that overlay their own spam labels on incoming calls
+    private static final String[] CALLER_ID_PACKAGES = {
+            "com.truecaller", // Truecaller
+            "com.webascender.callerid", // Hiya
+            "com.callapp.contacts" // CallApp
+    };
+
+    // Common dialer labels that never carry caller information
+    private static final String[] SYSTEM_UI_LABELS = {
+            "calling", "incoming call", "answer", "decline", "reject", "accept", "end call", "mute",
+            "speaker", "add call", "hold", "keypad", "contacts", "message", "call"
+    };
+
+    // Our own UI text, matched anywhere in a text or as a whole label
+    private static final KeywordMatcher OWN_UI_PHRASES = KeywordMatcher.compile(Arrays.asList(
+            "spam blocker", "dnd access", "do not disturb", "accessibility service", "blocked keywords",
+            "add keyword"));
+    private static final String[] OWN_UI_LABELS = {
+            "test blocking functionality", "grant dnd access", "view blocked numbers"
+    };
+
     private KeywordManager keywordManager;
+    private final KeywordMatch keywordMatch = new KeywordMatch();
+    // Source text of the last keyword hit, set by findKeywordOnScreen()
+    private String matchedText;
     private Handler handler;
     private Runnable screenScanRunnable;
 
     @Override
     public void onCreate() {
         super.onCreate();
-        keywordManager = new KeywordManager(this);
+        keywordManager = KeywordManager.getInstance(this);
         handler = new Handler(Looper.getMainLooper());
         Log.d(TAG, "Accessibility service created");
     }
@@ -75,6 +99,10 @@ public class ScreenScanAccessibilityService extends AccessibilityService {
             Log.d(TAG, "Window event detected from: " + packageName +
                     ", call duration: " + callState.getCallDuration() + "ms");
 
+            if (isCallerIdPackage(packageName)) {
+                callState.setCallerIdPackage(packageName);
+            }
+
             // Schedule screen scan after 5 seconds if not already scheduled
             scheduleScreenScan();
         }
@@ -115,9 +143,45 @@ public class ScreenScanAccessibilityService extends AccessibilityService {
             return;
         }
 
+        // Cheap signals first; the screen is only walked if they cannot decide
+        SpamScorer scorer = CallDecisionIndex.getInstance(this).getScorer();
+        List<SpamScorer.Signal> signals = new ArrayList<>();
+        signals.add(scorer.callerIdAppSignal(callState.getCallerIdPackage()));
+        signals.add(scorer.repeatCallerSignal(new BlockedNumbersManager(this), CallReceiver.getCurrentPhoneNumber()));
+        matchedText = null;
+        signals.add(scorer.screenKeywordSignal(keywordManager, new SpamScorer.ScreenSearch() {
+            @Override
+            public boolean findKeyword() {
+                return findKeywordOnScreen(collectScreenText());
+            }
+        }));
+        SpamScorer.Result result = scorer.score(signals);
+
+        // Mark as checked to prevent duplicate processing
+        callState.setCheckedCaller(true);
+
+        // Cancel any pending timeout
+        if (screenScanRunnable != null) {
+            handler.removeCallbacks(screenScanRunnable);
+        }
+
+        if (result.shouldBlock()) {
+            Log.d(TAG, "SPAM DETECTED (score " + result.getScore() + ": " + result.getSummary() + ")");
+            if (matchedText != null) {
+                CallReceiver.endCall(this, "Keyword match: " + keywordMatch.getKeyword(), matchedText);
+            } else {
+                CallReceiver.endCall(this, "Spam score: " + result.getSummary(), "Unknown Caller");
+            }
+        } else {
+            Log.d(TAG, "Spam score " + result.getScore() + " below threshold - allowing call");
+            CallReceiver.unmuteRinger(this);
+        }
+    }
+
+    private List<CharSequence> collectScreenText() {
         Log.d(TAG, "Starting comprehensive screen scan for caller information");
 
-        Set<String> allScreenText = new HashSet<>();
+        List<CharSequence> allScreenText = new ArrayList<>();
 
         try {
             // Get all accessible windows
@@ -146,11 +210,10 @@ public class ScreenScanAccessibilityService extends AccessibilityService {
             Log.e(TAG, "Error during screen scan", e);
         }
 
-        // Process all collected text
-        processScreenText(allScreenText);
+        return allScreenText;
     }
 
-    private void collectAllTextFromNode(AccessibilityNodeInfo node, Set<String> textCollection) {
+    private void collectAllTextFromNode(AccessibilityNodeInfo node, List<CharSequence> textCollection) {
         if (node == null) {
             return;
         }
@@ -161,22 +224,16 @@ public class ScreenScanAccessibilityService extends AccessibilityService {
             return; // Don't scan our own app's content
         }
 
-        // Collect text from current node
+        // Collect text from current node (kept as the node's CharSequence, no copies)
         CharSequence text = node.getText();
-        if (text != null && text.length() > 0) {
-            String textStr = text.toString().trim();
-            if (textStr.length() > 1) { // Include all non-empty text
-                textCollection.add(textStr);
-            }
+        if (trimmedLength(text) > 1) { // Include all non-empty text
+            textCollection.add(text);
         }
 
         // Collect content description
         CharSequence contentDesc = node.getContentDescription();
-        if (contentDesc != null && contentDesc.length() > 0) {
-            String descStr = contentDesc.toString().trim();
-            if (descStr.length() > 1) {
-                textCollection.add(descStr);
-            }
+        if (trimmedLength(contentDesc) > 1) {
+            textCollection.add(contentDesc);
         }
 
         // Recursively collect from child nodes
@@ -190,104 +247,102 @@ public class ScreenScanAccessibilityService extends AccessibilityService {
         }
     }
 
-    private void processScreenText(Set<String> allText) {
-        CallStateManager callState = CallStateManager.getInstance();
-
-        if (callState.hasCheckedCaller()) {
-            return; // Already processed
-        }
-
+    /**
+     * Scan the collected text for keywords; on a hit keywordMatch and
+     * matchedText describe it
+     */
+    private boolean findKeywordOnScreen(List<CharSequence> allText) {
         Log.d(TAG, "Processing screen text: found " + allText.size() + " text elements");
 
-        boolean spamDetected = false;
-        String matchedKeyword = null;
-        String matchedText = null;
-
         // Check all screen text for spam keywords
-        for (String text : allText) {
-            if (text == null || text.trim().isEmpty()) {
-                continue;
-            }
+        for (int i = 0; i < allText.size(); i++) {
+            CharSequence text = allText.get(i);
 
             // Skip common UI elements and system text
             if (isSystemUIElement(text)) {
                 continue;
             }
 
-            Log.d(TAG, "Checking text: '" + text + "'");
-
-            if (keywordManager.containsKeyword(text)) {
-                spamDetected = true;
-                matchedText = text;
-                // Find which keyword matched
-                for (String keyword : keywordManager.getKeywords()) {
-                    if (text.toLowerCase().contains(keyword.toLowerCase())) {
-                        matchedKeyword = keyword;
-                        break;
-                    }
-                }
-                break; // Stop on first match
+            // Single pass: the match record already knows keyword, offset and source text
+            if (keywordManager.findKeyword(text, keywordMatch)) {
+                matchedText = text.toString().trim();
+                Log.d(TAG, "Keyword match in text: '" + matchedText + "' (keyword: '" + keywordMatch.getKeyword()
+                        + "' at " + keywordMatch.getStart() + ")");
+                return true; // Stop on first match
             }
         }
 
-        // Mark as checked to prevent duplicate processing
-        callState.setCheckedCaller(true);
-
-        // Cancel any pending timeout
-        if (screenScanRunnable != null) {
-            handler.removeCallbacks(screenScanRunnable);
-        }
+        Log.d(TAG, "No spam keywords found in screen text");
+        return false;
+    }
 
-        if (spamDetected) {
-            Log.d(TAG, "SPAM DETECTED in text: '" + matchedText + "' (keyword: '" + matchedKeyword + "')");
-            String reason = "Keyword match: " + matchedKeyword;
-            CallReceiver.endCall(this, reason, matchedText);
-        } else {
-            Log.d(TAG, "No spam keywords found in screen text - allowing call");
-            CallReceiver.unmuteRinger(this);
+    private static boolean isCallerIdPackage(String packageName) {
+        for (String callerIdPackage : CALLER_ID_PACKAGES) {
+            if (callerIdPackage.equals(packageName)) {
+                return true;
+            }
         }
+        return false;
     }
 
-    private boolean isSystemUIElement(String text) {
+    private boolean isSystemUIElement(CharSequence text) {
         if (text == null)
             return true;
 
-        String lowerText = text.toLowerCase().trim();
+        // Work on the trimmed bounds instead of building a trimmed, lowercased copy
+        int start = 0;
+        int end = text.length();
+        while (start < end && text.charAt(start) <= ' ') {
+            start++;
+        }
+        while (end > start && text.charAt(end - 1) <= ' ') {
+            end--;
+        }
 
         // Filter out our own app's UI elements to prevent false positives
-        if (lowerText.contains("spam blocker") ||
-                lowerText.equals("spam blocker") ||
-                lowerText.equals("test blocking functionality") ||
-                lowerText.equals("grant dnd access") ||
-                lowerText.equals("view blocked numbers") ||
-                lowerText.contains("dnd access") ||
-                lowerText.contains("do not disturb") ||
-                lowerText.contains("accessibility service") ||
-                lowerText.contains("blocked keywords") ||
-                lowerText.contains("add keyword")) {
+        if (OWN_UI_PHRASES.matches(text) || isOneOf(text, start, end, OWN_UI_LABELS)) {
             return true;
         }
 
         // Filter out common system UI elements
-        return lowerText.isEmpty() ||
-                lowerText.matches("\\d+") || // Just numbers
-                lowerText.matches("[+\\-\\d\\s()\\-]+") || // Phone number format
-                lowerText.equals("calling") ||
-                lowerText.equals("incoming call") ||
-                lowerText.equals("answer") ||
-                lowerText.equals("decline") ||
-                lowerText.equals("reject") ||
-                lowerText.equals("accept") ||
-                lowerText.equals("end call") ||
-                lowerText.equals("mute") ||
-                lowerText.equals("speaker") ||
-                lowerText.equals("add call") ||
-                lowerText.equals("hold") ||
-                lowerText.equals("keypad") ||
-                lowerText.equals("contacts") ||
-                lowerText.equals("message") ||
-                lowerText.equals("call") ||
-                lowerText.length() < 2; // Very short text
+        return end - start < 2 || // Very short text
+                isPhoneNumberLike(text, start, end) || // Just numbers or phone number format
+                isOneOf(text, start, end, SYSTEM_UI_LABELS);
+    }
+
+    private static boolean isPhoneNumberLike(CharSequence text, int start, int end) {
+        for (int i = start; i < end; i++) {
+            char c = text.charAt(i);
+            if (!(c >= '0' && c <= '9') && c != '+' && c != '-' && c != '(' && c != ')'
+                    && !Character.isWhitespace(c)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isOneOf(CharSequence text, int start, int end, String[] labels) {
+        for (String label : labels) {
+            if (CaseFolding.equalsFolded(text, start, end, label)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int trimmedLength(CharSequence text) {
+        if (text == null) {
+            return 0;
+        }
+        int start = 0;
+        int end = text.length();
+        while (start < end && text.charAt(start) <= ' ') {
+            start++;
+        }
+        while (end > start && text.charAt(end - 1) <= ' ') {
+            end--;
+        }
+        return end - start;
     }
 
     @Override
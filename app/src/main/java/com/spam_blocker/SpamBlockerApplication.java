@@ -0,0 +1,23 @@
+package com.spam_blocker;
+
+import android.app.Application;
+
+/**
+ * Starts warming the call decision index as soon as the process starts, so a
+ * call that wakes the app is decided without loading anything from disk, and
+ * writes out queued history when the process is likely to be killed soon.
+ */
+public class SpamBlockerApplication extends Application {
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        CallDecisionIndex.warmUp(this, null);
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        // Cached processes are killed without notice, often soon after memory is trimmed
+        BlockedNumberStore.flushIfOpen();
+    }
+}
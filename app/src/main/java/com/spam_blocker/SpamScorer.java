@@ -0,0 +1,318 @@
+package com.spam_blocker;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Weighted spam scoring over several signals.
+ *
+ * Every signal has a cost and a weight and reports evidence between 0 and 1;
+ * its contribution to the score is weight * evidence. Signals are evaluated
+ * cheapest first, and after each one the scorer checks whether the signals
+ * still pending could change the outcome. As soon as the score is certain to
+ * end at or above the block threshold, or certain to stay below it, scoring
+ * stops and the remaining signals (typically the screen walk) never run.
+ */
+public class SpamScorer {
+    private static final String TAG = "SpamScorer";
+    private static final String PREFS_NAME = "SpamBlockerPrefs";
+    private static final String KEY_BLOCK_THRESHOLD = "score_block_threshold";
+    private static final String KEY_WEIGHT_REPEAT_CALLER = "score_weight_repeat_caller";
+    private static final String KEY_WEIGHT_CALLER_ID_APP = "score_weight_caller_id_app";
+    private static final String KEY_WEIGHT_KEYWORD = "score_weight_keyword";
+
+    // Defaults keep the old rules: a keyword hit or an earlier block ends the call on its own
+    public static final float DEFAULT_BLOCK_THRESHOLD = 1.0f;
+    public static final float DEFAULT_WEIGHT_REPEAT_CALLER = 2.0f;
+    public static final float DEFAULT_WEIGHT_CALLER_ID_APP = 0.25f;
+    public static final float DEFAULT_WEIGHT_KEYWORD = 1.0f;
+
+    // Counts above this are not told apart; BlockedNumberStore.MAX_KEYED_COUNT must reach it
+    static final int REPEAT_CALLER_SATURATION = 2;
+
+    // Relative costs, used only for ordering
+    public static final int COST_LOOKUP = 1;
+    public static final int COST_HISTORY = 10;
+    public static final int COST_SCREEN_WALK = 1000;
+
+    /**
+     * One piece of evidence about the current caller
+     */
+    public interface Signal {
+        String getName();
+
+        int getCost();
+
+        /**
+         * Contribution at full evidence; negative weights argue for allowing
+         */
+        double getWeight();
+
+        /**
+         * Evidence strength between 0 and 1
+         */
+        double evaluate();
+    }
+
+    /**
+     * Looks for a keyword in the text on screen
+     */
+    public interface ScreenSearch {
+        boolean findKeyword();
+    }
+
+    /**
+     * Outcome of scoring one call
+     */
+    public static class Result {
+        private final boolean block;
+        private final double score;
+        private final int evaluated;
+        private final int skipped;
+        private final String summary;
+
+        Result(boolean block, double score, int evaluated, int skipped, String summary) {
+            this.block = block;
+            this.score = score;
+            this.evaluated = evaluated;
+            this.skipped = skipped;
+            this.summary = summary;
+        }
+
+        public boolean shouldBlock() {
+            return block;
+        }
+
+        public double getScore() {
+            return score;
+        }
+
+        public int getEvaluatedCount() {
+            return evaluated;
+        }
+
+        public int getSkippedCount() {
+            return skipped;
+        }
+
+        /**
+         * Contributing signals, e.g. "keyword 1.00, caller id app 0.25"
+         */
+        public String getSummary() {
+            return summary;
+        }
+    }
+
+    private final double blockThreshold;
+    private final double repeatCallerWeight;
+    private final double callerIdAppWeight;
+    private final double keywordWeight;
+
+    public SpamScorer(double blockThreshold, double repeatCallerWeight, double callerIdAppWeight,
+            double keywordWeight) {
+        this.blockThreshold = blockThreshold;
+        this.repeatCallerWeight = repeatCallerWeight;
+        this.callerIdAppWeight = callerIdAppWeight;
+        this.keywordWeight = keywordWeight;
+    }
+
+    /**
+     * Scorer with the threshold and weights stored in SpamBlockerPrefs, or the defaults
+     */
+    public static SpamScorer fromPreferences(Context context) {
+        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        return new SpamScorer(
+                prefs.getFloat(KEY_BLOCK_THRESHOLD, DEFAULT_BLOCK_THRESHOLD),
+                prefs.getFloat(KEY_WEIGHT_REPEAT_CALLER, DEFAULT_WEIGHT_REPEAT_CALLER),
+                prefs.getFloat(KEY_WEIGHT_CALLER_ID_APP, DEFAULT_WEIGHT_CALLER_ID_APP),
+                prefs.getFloat(KEY_WEIGHT_KEYWORD, DEFAULT_WEIGHT_KEYWORD));
+    }
+
+    /**
+     * Whether a SpamBlockerPrefs key holds the block threshold or a weight
+     */
+    public static boolean isScoringKey(String key) {
+        return KEY_BLOCK_THRESHOLD.equals(key) || KEY_WEIGHT_REPEAT_CALLER.equals(key)
+                || KEY_WEIGHT_CALLER_ID_APP.equals(key) || KEY_WEIGHT_KEYWORD.equals(key);
+    }
+
+    /**
+     * Evaluate the signals cheapest first until the decision can no longer change
+     */
+    public Result score(List<Signal> signals) {
+        List<Signal> ordered = new ArrayList<>(signals);
+        Collections.sort(ordered, new Comparator<Signal>() {
+            @Override
+            public int compare(Signal s1, Signal s2) {
+                return Integer.compare(s1.getCost(), s2.getCost());
+            }
+        });
+
+        // Most the pending signals can still add or take away
+        double pendingGain = 0;
+        double pendingLoss = 0;
+        for (Signal signal : ordered) {
+            if (signal.getWeight() > 0) {
+                pendingGain += signal.getWeight();
+            } else {
+                pendingLoss += signal.getWeight();
+            }
+        }
+
+        double score = 0;
+        int evaluated = 0;
+        StringBuilder summary = new StringBuilder();
+        for (Signal signal : ordered) {
+            if (score + pendingLoss >= blockThreshold || score + pendingGain < blockThreshold) {
+                break;
+            }
+
+            double weight = signal.getWeight();
+            if (weight > 0) {
+                pendingGain -= weight;
+            } else {
+                pendingLoss -= weight;
+            }
+            if (weight == 0) {
+                continue;
+            }
+
+            double evidence = Math.max(0, Math.min(1, signal.evaluate()));
+            evaluated++;
+            if (evidence > 0) {
+                double contribution = weight * evidence;
+                score += contribution;
+                if (summary.length() > 0) {
+                    summary.append(", ");
+                }
+                summary.append(signal.getName()).append(' ').append(String.format(Locale.US, "%.2f", contribution));
+            }
+        }
+
+        boolean block = score + pendingLoss >= blockThreshold;
+        Log.d(TAG, "Score " + String.format(Locale.US, "%.2f", score) + " after " + evaluated + " of " + ordered.size()
+                + " signals: " + (block ? "block" : "allow"));
+        return new Result(block, score, evaluated, ordered.size() - evaluated, summary.toString());
+    }
+
+    /**
+     * How often this number has been blocked before; saturates at two blocks
+     */
+    public Signal repeatCallerSignal(final BlockedNumbersManager blockedManager, final String phoneNumber) {
+        final double weight = phoneNumber != null ? repeatCallerWeight : 0;
+        return new Signal() {
+            @Override
+            public String getName() {
+                return "repeat caller";
+            }
+
+            @Override
+            public int getCost() {
+                return COST_HISTORY;
+            }
+
+            @Override
+            public double getWeight() {
+                return weight;
+            }
+
+            @Override
+            public double evaluate() {
+                return Math.min(blockedManager.getBlockCount(phoneNumber), REPEAT_CALLER_SATURATION)
+                        / (double) REPEAT_CALLER_SATURATION;
+            }
+        };
+    }
+
+    /**
+     * Whether a caller blocked this many times before is blocked as soon as it
+     * rings, when the repeat-caller signal is the only one scored
+     */
+    public boolean blocksRepeatCaller(final int blockCount) {
+        Signal signal = new Signal() {
+            @Override
+            public String getName() {
+                return "repeat caller";
+            }
+
+            @Override
+            public int getCost() {
+                return COST_HISTORY;
+            }
+
+            @Override
+            public double getWeight() {
+                return repeatCallerWeight;
+            }
+
+            @Override
+            public double evaluate() {
+                return Math.min(blockCount, REPEAT_CALLER_SATURATION) / (double) REPEAT_CALLER_SATURATION;
+            }
+        };
+        return score(Collections.singletonList(signal)).shouldBlock();
+    }
+
+    /**
+     * Keyword hit anywhere on screen. Walking the window tree is by far the most
+     * expensive signal, so the search only runs when the score still needs it.
+     */
+    public Signal screenKeywordSignal(KeywordManager keywordManager, final ScreenSearch search) {
+        final double weight = keywordManager.hasEntries() ? keywordWeight : 0;
+        return new Signal() {
+            @Override
+            public String getName() {
+                return "keyword";
+            }
+
+            @Override
+            public int getCost() {
+                return COST_SCREEN_WALK;
+            }
+
+            @Override
+            public double getWeight() {
+                return weight;
+            }
+
+            @Override
+            public double evaluate() {
+                return search.findKeyword() ? 1 : 0;
+            }
+        };
+    }
+
+    /**
+     * Whether a caller-ID app put a window on screen during this call
+     */
+    public Signal callerIdAppSignal(final String packageName) {
+        return new Signal() {
+            @Override
+            public String getName() {
+                return "caller id app";
+            }
+
+            @Override
+            public int getCost() {
+                return COST_LOOKUP;
+            }
+
+            @Override
+            public double getWeight() {
+                return callerIdAppWeight;
+            }
+
+            @Override
+            public double evaluate() {
+                return packageName != null ? 1 : 0;
+            }
+        };
+    }
+}
@@ -0,0 +1,131 @@
+package com.spam_blocker;
+
+import java.text.Normalizer;
+
+/**
+ * Streaming normalization used to see through obfuscated caller-ID labels such
+ * as "L0AN  0ffer", "s.p.a.m" or Cyrillic lookalikes.
+ *
+ * Every UTF-16 unit is mapped through one precomputed table that applies case
+ * folding, homoglyph folding (Cyrillic, Greek, fullwidth and accented Latin
+ * letters onto ASCII) and common leet substitutions. Whitespace and punctuation
+ * become {@link #SEPARATOR}, so a scanner can tell where words end; invisible
+ * characters and combining marks are dropped. On top of the table the
+ * transducer keeps a single character of state so runs of the same output
+ * character collapse ("spaaam" reads as "spam"). Keywords are normalized with
+ * the same rules, so both sides agree; no regex and no allocation is involved
+ * at scan time.
+ */
+public final class TextNormalizer {
+    /**
+     * Table value for characters that produce no output
+     */
+    public static final char DROP = 0;
+    /**
+     * Table value for whitespace and punctuation: no output, but a word ends
+     */
+    public static final char SEPARATOR = ' ';
+
+    private static final char[] TABLE = new char[Character.MAX_VALUE + 1];
+
+    // Folded lookalikes and the ASCII letter each one reads as
+    private static final String LOOKALIKES =
+            "авгеёзкмнопрстухьѕіїјԁһԛԝб" // Cyrillic
+            + "αβγδεζηικμνορτυχωσ" // Greek
+            + "01!|34@5$7+89" // Leet and symbol substitutions
+            + "l"; // i and l are easy to swap for each other and for 1, | and !
+    private static final String REPLACEMENTS =
+            "abreeekmhonpctyxbsiijdhqwb"
+            + "abydeznikuvoptuxwo"
+            + "oiiieaassttbg"
+            + "i";
+
+    static {
+        char[] replacement = new char[Character.MAX_VALUE + 1];
+        for (int c = 0; c <= Character.MAX_VALUE; c++) {
+            replacement[c] = (char) c;
+        }
+        for (int i = 0; i < LOOKALIKES.length(); i++) {
+            replacement[LOOKALIKES.charAt(i)] = REPLACEMENTS.charAt(i);
+        }
+        for (int c = 0; c <= Character.MAX_VALUE; c++) {
+            char base = classify((char) c);
+            TABLE[c] = base == DROP || base == SEPARATOR ? base : replacement[base];
+        }
+    }
+
+    private TextNormalizer() {
+    }
+
+    private static char classify(char c) {
+        // Fullwidth ASCII variants
+        if (c >= '\uff01' && c <= '\uff5e') {
+            return classify((char) (c - 0xfee0));
+        }
+        // Invisible and zero-width characters
+        if (c == '\u00ad' || (c >= '\u200b' && c <= '\u200f') || c == '\u2060' || c == '\ufeff') {
+            return DROP;
+        }
+        if ("0123456789@$!|+".indexOf(c) >= 0) {
+            return c; // replaced by the leet table
+        }
+        if (Character.isWhitespace(c) || Character.isSpaceChar(c)) {
+            return SEPARATOR;
+        }
+        switch (Character.getType(c)) {
+            case Character.NON_SPACING_MARK:
+            case Character.ENCLOSING_MARK:
+            case Character.COMBINING_SPACING_MARK:
+            case Character.CONTROL:
+            case Character.FORMAT:
+                return DROP;
+            case Character.CONNECTOR_PUNCTUATION:
+            case Character.DASH_PUNCTUATION:
+            case Character.START_PUNCTUATION:
+            case Character.END_PUNCTUATION:
+            case Character.INITIAL_QUOTE_PUNCTUATION:
+            case Character.FINAL_QUOTE_PUNCTUATION:
+            case Character.OTHER_PUNCTUATION:
+            case Character.MATH_SYMBOL:
+            case Character.MODIFIER_SYMBOL:
+                return SEPARATOR;
+            default:
+                break;
+        }
+        char folded = CaseFolding.fold(c);
+        // Accented Latin letters lose their marks
+        if (folded >= '\u00c0' && folded <= '\u024f') {
+            String decomposed = Normalizer.normalize(String.valueOf(folded), Normalizer.Form.NFD);
+            char base = decomposed.charAt(0);
+            if (base < 128) {
+                return CaseFolding.fold(base);
+            }
+        }
+        return folded;
+    }
+
+    /**
+     * Table lookup for one character: its normalized form, SEPARATOR or DROP.
+     * Callers collapse repeats themselves; see normalize().
+     */
+    public static char map(char c) {
+        return TABLE[c];
+    }
+
+    /**
+     * Normalize a whole string, separators dropped; only used for keywords,
+     * never on the scan path
+     */
+    public static String normalize(CharSequence text) {
+        StringBuilder builder = new StringBuilder(text.length());
+        char previous = DROP;
+        for (int i = 0; i < text.length(); i++) {
+            char c = TABLE[text.charAt(i)];
+            if (c != DROP && c != SEPARATOR && c != previous) {
+                builder.append(c);
+                previous = c;
+            }
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,88 @@
+package com.spam_blocker;
+
+import android.app.AlertDialog;
+import android.content.ContentResolver;
+import android.content.Context;
+import android.content.DialogInterface;
+import android.content.Intent;
+import android.database.Cursor;
+import android.net.Uri;
+import android.provider.OpenableColumns;
+
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Picking the documents that history and keywords are exported to and
+ * imported from, shared by the screens that offer it.
+ */
+final class TransferFiles {
+    interface FormatListener {
+        void onFormat(TransferFormat format);
+    }
+
+    private TransferFiles() {
+    }
+
+    /**
+     * Ask which format to export in
+     */
+    static void chooseFormat(Context context, String title, final FormatListener listener) {
+        new AlertDialog.Builder(context)
+                .setTitle(title)
+                .setItems(new CharSequence[] {"CSV", "JSON lines (NDJSON)"}, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        listener.onFormat(which == 0 ? TransferFormat.CSV : TransferFormat.NDJSON);
+                    }
+                })
+                .setNegativeButton("Cancel", null)
+                .show();
+    }
+
+    static Intent createDocument(String baseName, TransferFormat format) {
+        Intent intent = new Intent(Intent.ACTION_CREATE_DOCUMENT);
+        intent.addCategory(Intent.CATEGORY_OPENABLE);
+        intent.setType(format.getMimeType());
+        intent.putExtra(Intent.EXTRA_TITLE, baseName + "." + format.getExtension());
+        return intent;
+    }
+
+    /**
+     * Any file: NDJSON has no MIME type most document providers know
+     */
+    static Intent openDocument() {
+        Intent intent = new Intent(Intent.ACTION_OPEN_DOCUMENT);
+        intent.addCategory(Intent.CATEGORY_OPENABLE);
+        intent.setType("*/*");
+        return intent;
+    }
+
+    /**
+     * Channel over a document's stream: the file's own channel when the
+     * provider hands out a file, a wrapper otherwise
+     */
+    static ReadableByteChannel channel(InputStream input) {
+        if (input instanceof FileInputStream) {
+            return ((FileInputStream) input).getChannel();
+        }
+        return Channels.newChannel(input);
+    }
+
+    /**
+     * Name of a picked document, or null if the provider does not say
+     */
+    static String displayName(ContentResolver resolver, Uri uri) {
+        Cursor cursor = resolver.query(uri, new String[] {OpenableColumns.DISPLAY_NAME}, null, null, null);
+        if (cursor == null) {
+            return null;
+        }
+        try {
+            return cursor.moveToFirst() ? cursor.getString(0) : null;
+        } finally {
+            cursor.close();
+        }
+    }
+}
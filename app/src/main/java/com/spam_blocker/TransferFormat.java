@@ -0,0 +1,51 @@
+package com.spam_blocker;
+
+import java.util.Locale;
+
+/**
+ * File formats for exporting and importing history and keywords between devices.
+ *
+ * CSV files start with a header row naming the columns; NDJSON files hold one
+ * JSON object per line. Imports tell the two apart from the first character
+ * of the file, so only exports need to be told which one to write.
+ */
+public enum TransferFormat {
+    CSV("text/csv", "csv"),
+    NDJSON("application/x-ndjson", "ndjson");
+
+    private final String mimeType;
+    private final String extension;
+
+    TransferFormat(String mimeType, String extension) {
+        this.mimeType = mimeType;
+        this.extension = extension;
+    }
+
+    public String getMimeType() {
+        return mimeType;
+    }
+
+    /**
+     * File name extension, without the dot
+     */
+    public String getExtension() {
+        return extension;
+    }
+
+    /**
+     * Format of a file by its name, or null if the name does not say
+     */
+    public static TransferFormat forFileName(String fileName) {
+        if (fileName == null) {
+            return null;
+        }
+        String lower = fileName.toLowerCase(Locale.ROOT);
+        if (lower.endsWith(".csv")) {
+            return CSV;
+        }
+        if (lower.endsWith(".ndjson") || lower.endsWith(".jsonl")) {
+            return NDJSON;
+        }
+        return null;
+    }
+}